@@ -0,0 +1,231 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import Jama.Matrix;
+
+// Benchmarks for the ComputerVision geometry hot paths. Build with
+// "mvn -P benchmark package" and run with
+// "java -Djava.library.path=<opencv natives> -jar target/benchmarks.jar -prof gc"
+// (or run main() below, which always attaches the GC profiler).
+//
+// JMH refuses to generate benchmarks for classes in the default package, and
+// the analysis classes cannot be imported from a named one, so they are bound
+// through method handles. Static final handles are inlined by the JIT, so the
+// indirection does not show up in the numbers.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeometryBenchmark {
+
+	private static final Class<?> CAMERA_PARAMS = type("CameraParams");
+	private static final Class<?> POSE = type("Pose");
+	private static final Class<?> DBL = type("Dbl");
+	private static final Class<?> COMPUTER_VISION = type("ComputerVision");
+
+	private static final MethodHandle TRIANGULATE_CORRESPONDENCES = bind("triangulateCorrespondences", List.class,
+			Matrix.class, Matrix.class, CAMERA_PARAMS, List.class);
+	private static final MethodHandle SELECT_HOMOGRAPHY_SOLUTION = bind("selectHomographySolution", Matrix.class,
+			POSE, CAMERA_PARAMS, List.class, List.class, List.class);
+	private static final MethodHandle GET_POSE_FROM_ESSENTIAL_MATRIX = bind("getPoseFromEssentialMatrix",
+			Matrix.class, Matrix.class, CAMERA_PARAMS, List.class);
+	private static final MethodHandle PARALLAX_AND_GOOD_POINTS = bind("parallaxAndGoodPoints", void.class,
+			Matrix.class, Matrix.class, CAMERA_PARAMS, List.class, List.class, DBL, DBL);
+	private static final MethodHandle GET_TOTAL_REPROJECTION_ERROR = bind("getTotalReprojectionError", double.class,
+			Matrix.class, Matrix.class, CAMERA_PARAMS, List.class, List.class);
+	private static final MethodHandle GET_D = bind("getD", double.class, List.class);
+
+	@State(Scope.Benchmark)
+	public static class Fixture {
+
+		@Param({ "planar", "spherical", "scene0" })
+		public String scene;
+
+		@Param({ "100", "1000", "5000" })
+		public int numPoints;
+
+		Object cameraParams;
+		Object primaryCamera;
+		Matrix primaryPose;
+		Matrix secondaryPose;
+		Matrix essentialMatrix;
+		List<?> correspondences;
+		List<?> triangulatedPoints;
+		List<Mat> rotations = new ArrayList<Mat>();
+		List<Mat> translations = new ArrayList<Mat>();
+		Object parallax;
+		Object numGoodPoints;
+
+		@Setup(Level.Trial)
+		public void setup() throws Exception {
+			System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+			Object mock = type("VirtualEnvironment").getConstructor().newInstance();
+			Object secondaryCamera = call(mock, "getSecondaryCamera");
+			long seed = 0;
+
+			if (this.scene.equals("planar")) {
+				call(mock, "generatePlanarScene", seed, this.numPoints);
+				call(secondaryCamera, "setCx", -0.6);
+				call(secondaryCamera, "setCz", 0.4);
+				call(secondaryCamera, "rotateEuler", 0.0, -0.15, 0.0);
+			} else if (this.scene.equals("spherical")) {
+				call(mock, "generateSphericalScene", seed, this.numPoints);
+				call(secondaryCamera, "setCz", -1.0);
+				call(secondaryCamera, "setCy", -0.25);
+				call(secondaryCamera, "rotateEuler", 0.0, -0.125, 0.0);
+			} else {
+				// scene 0 has a fixed layout, so tile it with new seeds until it is big enough
+				List<Matrix> points = new ArrayList<Matrix>();
+				while (points.size() < this.numPoints) {
+					call(mock, "generateScene0", seed++);
+					points.addAll(worldPoints(mock));
+				}
+				worldPoints(mock).clear();
+				worldPoints(mock).addAll(points.subList(0, this.numPoints));
+				call(secondaryCamera, "setCx", 0.3);
+				call(secondaryCamera, "setCz", 0.2);
+				call(secondaryCamera, "rotateEuler", 0.0, -0.05, 0.0);
+			}
+
+			this.cameraParams = call(mock, "getCameraParams");
+			this.primaryCamera = call(mock, "getPrimaryCamera");
+			this.primaryPose = (Matrix) call(this.primaryCamera, "getHomogeneousMatrix");
+			this.secondaryPose = (Matrix) call(secondaryCamera, "getHomogeneousMatrix");
+			this.correspondences = (List<?>) call(mock, "getCorrespondences");
+
+			// essential matrix from the true fundamental matrix
+			Matrix K = (Matrix) call(this.cameraParams, "getK");
+			Matrix F = (Matrix) call(mock, "getTrueFundamentalMatrix");
+			this.essentialMatrix = K.transpose().times(F).times(K);
+
+			// homography decomposition candidates
+			Mat homography = (Mat) type("ComputerVision").getMethod("estimateHomography", List.class).invoke(null,
+					this.correspondences);
+			Calib3d.decomposeHomographyMat(homography, (Mat) call(this.cameraParams, "getKMat"), this.rotations,
+					this.translations, new ArrayList<Mat>());
+
+			try {
+				this.triangulatedPoints = (List<?>) TRIANGULATE_CORRESPONDENCES.invokeExact(this.secondaryPose,
+						this.primaryPose, this.cameraParams, (List<?>) this.correspondences);
+			} catch (Throwable t) {
+				throw new IllegalStateException(t);
+			}
+
+			this.parallax = DBL.getConstructor(double.class).newInstance(0.0);
+			this.numGoodPoints = DBL.getConstructor(double.class).newInstance(0.0);
+		}
+
+		@SuppressWarnings("unchecked")
+		private static List<Matrix> worldPoints(Object mock) throws Exception {
+			return (List<Matrix>) call(mock, "getWorldPoints");
+		}
+
+	}
+
+	@Benchmark
+	public List<?> triangulate(Fixture f) throws Throwable {
+		return (List<?>) TRIANGULATE_CORRESPONDENCES.invokeExact(f.secondaryPose, f.primaryPose, f.cameraParams,
+				(List<?>) f.correspondences);
+	}
+
+	@Benchmark
+	public Matrix selectHomographySolution(Fixture f) throws Throwable {
+		return (Matrix) SELECT_HOMOGRAPHY_SOLUTION.invokeExact(f.primaryCamera, f.cameraParams,
+				(List<?>) f.rotations, (List<?>) f.translations, (List<?>) f.correspondences);
+	}
+
+	@Benchmark
+	public Matrix getPoseFromEssentialMatrix(Fixture f) throws Throwable {
+		return (Matrix) GET_POSE_FROM_ESSENTIAL_MATRIX.invokeExact(f.essentialMatrix, f.cameraParams,
+				(List<?>) f.correspondences);
+	}
+
+	@Benchmark
+	public Object parallaxAndGoodPoints(Fixture f) throws Throwable {
+		PARALLAX_AND_GOOD_POINTS.invokeExact(f.primaryPose, f.secondaryPose, f.cameraParams,
+				(List<?>) f.triangulatedPoints, (List<?>) f.correspondences, f.parallax, f.numGoodPoints);
+		return f.numGoodPoints;
+	}
+
+	@Benchmark
+	public double getTotalReprojectionError(Fixture f) throws Throwable {
+		return (double) GET_TOTAL_REPROJECTION_ERROR.invokeExact(f.secondaryPose, f.primaryPose, f.cameraParams,
+				(List<?>) f.correspondences, (List<?>) f.triangulatedPoints);
+	}
+
+	@Benchmark
+	public double getD(Fixture f) throws Throwable {
+		return (double) GET_D.invokeExact((List<?>) f.correspondences);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder().include(GeometryBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+
+	private static Class<?> type(String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// look up a static ComputerVision method and erase its default-package
+	// parameter types to Object so it can be invoked exactly from here
+	private static MethodHandle bind(String name, Class<?> returnType, Class<?>... parameterTypes) {
+		try {
+			MethodHandle handle = MethodHandles.publicLookup().findStatic(COMPUTER_VISION, name,
+					MethodType.methodType(returnType, parameterTypes));
+			Class<?>[] erased = new Class<?>[parameterTypes.length];
+			for (int i = 0; i < parameterTypes.length; i++) {
+				erased[i] = parameterTypes[i].getName().indexOf('.') < 0 && !parameterTypes[i].isPrimitive()
+						? Object.class
+						: parameterTypes[i];
+			}
+			return handle.asType(MethodType.methodType(returnType, erased));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Object call(Object target, String name, Object... args) throws Exception {
+		for (Method method : target.getClass().getMethods()) {
+			if (method.getName().equals(name) && method.getParameterCount() == args.length) {
+				return method.invoke(target, args);
+			}
+		}
+		throw new NoSuchMethodException(target.getClass().getName() + "." + name);
+	}
+
+}
@@ -18,6 +18,18 @@ public class CameraParams {
 
 	}
 
+	public CameraParams copy() {
+		CameraParams copy = new CameraParams();
+		copy.width = this.width;
+		copy.height = this.height;
+		copy.fx = this.fx;
+		copy.fy = this.fy;
+		copy.cx = this.cx;
+		copy.cy = this.cy;
+		copy.s = this.s;
+		return copy;
+	}
+
 	public Matrix getK() {
 		Matrix K = Matrix.identity(3, 3);
 		K.set(0, 0, fx);
@@ -6,25 +6,37 @@ import java.util.Random;
 import org.opencv.calib3d.Calib3d;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint2f;
-import org.opencv.core.Point;
 
 import Jama.Matrix;
 import Jama.SingularValueDecomposition;
 
 public class ComputerVision {
 
+	// stage metrics (the fundamental matrix pose goes through the essential
+	// decomposition, whose cheirality triangulation counts as decomposition)
+	protected static final Metrics.Timer FUNDAMENTAL_TIMER = Metrics.timer("estimate.fundamental");
+	protected static final Metrics.Timer ESSENTIAL_TIMER = Metrics.timer("estimate.essential");
+	protected static final Metrics.Timer HOMOGRAPHY_TIMER = Metrics.timer("estimate.homography");
+	protected static final Metrics.Timer DECOMPOSE_ESSENTIAL_TIMER = Metrics.timer("decompose.essential");
+	protected static final Metrics.Timer DECOMPOSE_HOMOGRAPHY_TIMER = Metrics.timer("decompose.homography");
+	protected static final Metrics.Timer TRIANGULATE_TIMER = Metrics.timer("triangulate");
+
 	// Tomono method
 	public static double getD(List<Correspondence2D2D> correspondences) {
+		return getD(CorrespondenceSet.fromList(correspondences));
+	}
+
+	public static double getD(CorrespondenceSet correspondences) {
 
-		List<Correspondence2D2D> normCorr = normalizeCorrespondences(correspondences);
+		CameraParams cameraParams = new CameraParams();
+		CorrespondenceSet normCorr = correspondences.normalize(cameraParams.width, cameraParams.height);
 		long start = System.currentTimeMillis();
 		Matrix A = new Matrix(normCorr.size(), 9);
 		for (int i = 0; i < normCorr.size(); i++) {
-			Correspondence2D2D c = normCorr.get(i);
-			double u1 = c.getX0();
-			double uk = c.getX1();
-			double v1 = c.getY0();
-			double vk = c.getY1();
+			double u1 = normCorr.getX0(i);
+			double uk = normCorr.getX1(i);
+			double v1 = normCorr.getY0(i);
+			double vk = normCorr.getY1(i);
 
 			A.set(i, 0, u1 * uk);
 			A.set(i, 1, u1 * vk);
@@ -53,47 +65,21 @@ public class ComputerVision {
 	}
 
 	public static List<Correspondence2D2D> normalizeCorrespondences(List<Correspondence2D2D> correspondences) {
-		List<Correspondence2D2D> normCorr = new ArrayList<Correspondence2D2D>();
 		CameraParams cameraParams = new CameraParams();
-
-		for (int i = 0; i < correspondences.size(); i++) {
-			Correspondence2D2D c = correspondences.get(i);
-			Correspondence2D2D normC = new Correspondence2D2D();
-			normC.setX0(c.getX0() / cameraParams.width);
-			normC.setX1(c.getX1() / cameraParams.width);
-			normC.setY0(c.getY0() / cameraParams.height);
-			normC.setY1(c.getY1() / cameraParams.height);
-			normCorr.add(normC);
-		}
-
-		return normCorr;
+		return CorrespondenceSet.fromList(correspondences).normalize(cameraParams.width, cameraParams.height)
+				.toList();
 	}
 
 	public static Mat estimateHomography(List<Correspondence2D2D> correspondences) {
+		return estimateHomography(CorrespondenceSet.fromList(correspondences));
+	}
 
-		ArrayList<Point> matchedKeyframePoints = new ArrayList<Point>();
-		ArrayList<Point> matchedPoints = new ArrayList<Point>();
-
-//		List<Correspondence2D2D> normCorr = normalizeCorrespondences(correspondences);
-
-		for (int i = 0; i < correspondences.size(); i++) {
-			Correspondence2D2D c = correspondences.get(i);
-			Point point1 = new Point();
-			Point point2 = new Point();
-			point1.x = c.getX0();
-			point1.y = c.getY0();
-			point2.x = c.getX1();
-			point2.y = c.getY1();
-			matchedKeyframePoints.add(point1);
-			matchedPoints.add(point2);
-		}
+	public static Mat estimateHomography(CorrespondenceSet correspondences) {
 
 		// compute homography
-		MatOfPoint2f keyframeMat = new MatOfPoint2f();
-		MatOfPoint2f matKeypoints = new MatOfPoint2f();
-		keyframeMat.fromList(matchedKeyframePoints);
-		matKeypoints.fromList(matchedPoints);
-		Mat homography = Calib3d.findHomography(keyframeMat, matKeypoints);
+		long start = HOMOGRAPHY_TIMER.start();
+		Mat homography = Calib3d.findHomography(correspondences.getPoints0Mat(), correspondences.getPoints1Mat());
+		HOMOGRAPHY_TIMER.stop(start);
 
 		return homography;
 
@@ -107,6 +93,7 @@ public class ComputerVision {
 	public static Matrix getPoseFromHomography(Mat homography, Pose primaryCamera, CameraParams cameraParams,
 			List<Correspondence2D2D> correspondences, List<Matrix> cheiralityPoses) {
 
+		long start = DECOMPOSE_HOMOGRAPHY_TIMER.start();
 		Mat intrinsics = cameraParams.getKMat();
 		List<Mat> rotations = new ArrayList<Mat>();
 		List<Mat> translations = new ArrayList<Mat>();
@@ -115,6 +102,7 @@ public class ComputerVision {
 
 		Matrix E = selectHomographySolution(primaryCamera, cameraParams, rotations, translations, correspondences,
 				cheiralityPoses);
+		DECOMPOSE_HOMOGRAPHY_TIMER.stop(start);
 		return E;
 	}
 
@@ -236,58 +224,34 @@ public class ComputerVision {
 		int[] scores = { 0, 0, 0, 0 };
 		double[] reprojErrors = { 0, 0, 0, 0 };
 
-		for (Correspondence2D2D c : correspondences) {
-
-			// triangulated points
-			Matrix X1 = triangulate(E1.times(pose), pose, cameraParams, c);
-			Matrix X2 = triangulate(E2.times(pose), pose, cameraParams, c);
-			Matrix X3 = triangulate(E3.times(pose), pose, cameraParams, c);
-			Matrix X4 = triangulate(E4.times(pose), pose, cameraParams, c);
-
-			// reprojected to second frame
-			Matrix b1 = cameraParams.getK4x4().times(E1).times(pose).times(X1);
-			Matrix b2 = cameraParams.getK4x4().times(E2).times(pose).times(X2);
-			Matrix b3 = cameraParams.getK4x4().times(E3).times(pose).times(X3);
-			Matrix b4 = cameraParams.getK4x4().times(E4).times(pose).times(X4);
-
-			// get reprojection errors
-			Matrix b1Normalized = b1.times(1 / b1.get(2, 0)).getMatrix(0, 1, 0, 0);
-			Matrix b2Normalized = b2.times(1 / b2.get(2, 0)).getMatrix(0, 1, 0, 0);
-			Matrix b3Normalized = b3.times(1 / b3.get(2, 0)).getMatrix(0, 1, 0, 0);
-			Matrix b4Normalized = b4.times(1 / b4.get(2, 0)).getMatrix(0, 1, 0, 0);
-			Matrix trueProj = new Matrix(2, 1);
-			trueProj.set(0, 0, c.getX1());
-			trueProj.set(1, 0, c.getY1());
-			reprojErrors[0] += trueProj.minus(b1Normalized).normF();
-			reprojErrors[1] += trueProj.minus(b2Normalized).normF();
-			reprojErrors[2] += trueProj.minus(b3Normalized).normF();
-			reprojErrors[3] += trueProj.minus(b4Normalized).normF();
-
-			if (b1.get(2, 0) > 0) {
-				Matrix a1 = pose.times(X1);
-				if (a1.get(2, 0) > 0) {
-					scores[0]++;
-				}
-			}
-
-			if (b2.get(2, 0) > 0) {
-				Matrix a2 = pose.times(X2);
-				if (a2.get(2, 0) > 0) {
-					scores[1]++;
-				}
-			}
-
-			if (b3.get(2, 0) > 0) {
-				Matrix a3 = pose.times(X3);
-				if (a3.get(2, 0) > 0) {
-					scores[2]++;
-				}
-			}
-
-			if (b4.get(2, 0) > 0) {
-				Matrix a4 = pose.times(X4);
-				if (a4.get(2, 0) > 0) {
-					scores[3]++;
+		// triangulate every correspondence under each hypothesis
+		int n = correspondences.size();
+		double[] X = new double[n * 4];
+		double[] b = new double[3];
+		for (int h = 0; h < poses.size(); h++) {
+			Triangulator triangulator = new Triangulator(poses.get(h).times(pose), pose, cameraParams);
+			triangulator.triangulate(correspondences, X);
+
+			for (int i = 0; i < n; i++) {
+				Correspondence2D2D c = correspondences.get(i);
+
+				// reprojected to second frame
+				triangulator.projectSecondary(X, i * 4, b);
+
+				// get reprojection error
+				double dx = c.getX1() - b[0] / b[2];
+				double dy = c.getY1() - b[1] / b[2];
+				reprojErrors[h] += Math.sqrt(dx * dx + dy * dy);
+
+				// depth in the first frame
+				if (b[2] > 0) {
+					double a = 0;
+					for (int k = 0; k < 4; k++) {
+						a += pose.get(2, k) * X[i * 4 + k];
+					}
+					if (a > 0) {
+						scores[h]++;
+					}
 				}
 			}
 		}
@@ -333,29 +297,7 @@ public class ComputerVision {
 
 	public static Matrix triangulate(Matrix secondaryPose, Matrix primaryPose, CameraParams cameraParams,
 			Correspondence2D2D c) {
-
-		Matrix Pprime = cameraParams.getK4x4().times(secondaryPose);
-
-		Matrix P = cameraParams.getK4x4().times(primaryPose);
-
-		// compute A matrix for Ax = 0
-		Matrix row0 = P.getMatrix(2, 2, 0, 3).times(c.getX0()).minus(P.getMatrix(0, 0, 0, 3));
-		Matrix row1 = P.getMatrix(2, 2, 0, 3).times(c.getY0()).minus(P.getMatrix(1, 1, 0, 3));
-		Matrix row2 = Pprime.getMatrix(2, 2, 0, 3).times(c.getX1()).minus(Pprime.getMatrix(0, 0, 0, 3));
-		Matrix row3 = Pprime.getMatrix(2, 2, 0, 3).times(c.getY1()).minus(Pprime.getMatrix(1, 1, 0, 3));
-
-		Matrix A = new Matrix(4, 4);
-		A.setMatrix(0, 0, 0, 3, row0);
-		A.setMatrix(1, 1, 0, 3, row1);
-		A.setMatrix(2, 2, 0, 3, row2);
-		A.setMatrix(3, 3, 0, 3, row3);
-
-		SingularValueDecomposition svd = A.svd();
-		Matrix X = svd.getV().getMatrix(0, 3, 3, 3);
-		X = X.times(1.0 / X.get(3, 0));
-		// System.out.println("X");
-		// X.print(5, 4);
-		return X;
+		return new Triangulator(secondaryPose, primaryPose, cameraParams).triangulate(c);
 	}
 
 	public static Matrix triangulate(Matrix secondaryPose, Matrix primaryPose, CameraParams cameraParams,
@@ -425,105 +367,73 @@ public class ComputerVision {
 	}
 
 	public static Matrix estimateFundamentalMatrix(List<Correspondence2D2D> correspondences) {
+		return estimateFundamentalMatrix(CorrespondenceSet.fromList(correspondences));
+	}
 
-		CameraParams params = new CameraParams();
-
-		// create point matrices
-		List<Point> points0 = new ArrayList<Point>();
-		List<Point> points1 = new ArrayList<Point>();
-		for (int i = 0; i < correspondences.size(); i++) {
-			Point point0 = new Point(correspondences.get(i).getX0(), correspondences.get(i).getY0());
-			Point point1 = new Point(correspondences.get(i).getX1(), correspondences.get(i).getY1());
-			points0.add(point0);
-			points1.add(point1);
-		}
+	public static Matrix estimateFundamentalMatrix(CorrespondenceSet correspondences) {
 
-		MatOfPoint2f points0Mat = new MatOfPoint2f();
-		MatOfPoint2f points1Mat = new MatOfPoint2f();
-		points0Mat.fromList(points0);
-		points1Mat.fromList(points1);
+		// point matrices (shared with the other estimators)
+		MatOfPoint2f points0Mat = correspondences.getPoints0Mat();
+		MatOfPoint2f points1Mat = correspondences.getPoints1Mat();
 
-		long start = System.currentTimeMillis();
+		long start = FUNDAMENTAL_TIMER.start();
 		double reprojThresh = 3;
 		Mat fundamentalMatrix = Calib3d.findFundamentalMat(points0Mat, points1Mat, Calib3d.FM_RANSAC, reprojThresh, 0.9,
 				5000);
 
-		// filter out outliers (unused)
-		Matrix RANSACFun = Utils.MatToMatrix(fundamentalMatrix);
-		List<Point> points0Inliers = new ArrayList<Point>();
-		List<Point> points1Inliers = new ArrayList<Point>();
-		for (int i = 0; i < points0.size(); i++) {
-			Matrix p0 = new Matrix(3, 1);
-			p0.set(0, 0, points0.get(i).x);
-			p0.set(1, 0, points0.get(i).y);
-			p0.set(2, 0, 1);
-			Matrix p1 = new Matrix(3, 1);
-			p1.set(0, 0, points1.get(i).x);
-			p1.set(1, 0, points1.get(i).y);
-			p1.set(2, 0, 1);
-			double eval = p0.transpose().times(RANSACFun).times(p1).get(0, 0);
-
-			if (eval < reprojThresh * 1 || true) {
-				points0Inliers.add(points0.get(i));
-				points1Inliers.add(points1.get(i));
-			}
-		}
-
-		Utils.pl("num inliers: " + points0Inliers.size());
-
-		if (points0Inliers.size() >= 8) {
-			MatOfPoint2f points0InlierMat = new MatOfPoint2f();
-			MatOfPoint2f points1InlierMat = new MatOfPoint2f();
-			points0InlierMat.fromList(points0Inliers);
-			points1InlierMat.fromList(points1Inliers);
+		// outlier filtering is disabled, every point is kept as an inlier
+		int numInliers = correspondences.size();
+		Utils.pl("num inliers: " + numInliers);
 
-			fundamentalMatrix = Calib3d.findFundamentalMat(points0InlierMat, points1InlierMat, Calib3d.FM_8POINT);
-			long end = System.currentTimeMillis();
-//			Utils.pl("Fundamental matrix estimation time: " + (end - start) + "ms");
+		if (numInliers >= 8) {
+			fundamentalMatrix = Calib3d.findFundamentalMat(points0Mat, points1Mat, Calib3d.FM_8POINT);
 		}
+		FUNDAMENTAL_TIMER.stop(start);
 
 		return Utils.MatToMatrix(fundamentalMatrix);
 	}
 
 	public static Matrix estimateEssentialMatrix(List<Correspondence2D2D> correspondences, CameraParams cameraParams) {
+		return estimateEssentialMatrix(CorrespondenceSet.fromList(correspondences), cameraParams);
+	}
 
-		// create point matrices
-		List<Point> points0 = new ArrayList<Point>();
-		List<Point> points1 = new ArrayList<Point>();
-		for (int i = 0; i < correspondences.size(); i++) {
-			Point point0 = new Point(correspondences.get(i).getX0(), correspondences.get(i).getY0());
-			Point point1 = new Point(correspondences.get(i).getX1(), correspondences.get(i).getY1());
-			points0.add(point0);
-			points1.add(point1);
-		}
-
-		MatOfPoint2f points0Mat = new MatOfPoint2f();
-		MatOfPoint2f points1Mat = new MatOfPoint2f();
-		points0Mat.fromList(points0);
-		points1Mat.fromList(points1);
+	public static Matrix estimateEssentialMatrix(CorrespondenceSet correspondences, CameraParams cameraParams) {
 
-		long start = System.currentTimeMillis();
-		Mat essentialMat = Calib3d.findEssentialMat(points0Mat, points1Mat, cameraParams.getKMat());
+		long start = ESSENTIAL_TIMER.start();
+		Mat essentialMat = Calib3d.findEssentialMat(correspondences.getPoints0Mat(), correspondences.getPoints1Mat(),
+				cameraParams.getKMat());
 //		Mat fundamentalMatrix = Calib3d.findFundamentalMat(points0Mat, points1Mat, Calib3d.FM_RANSAC, 2, 0.99, 500);
-		long end = System.currentTimeMillis();
+		ESSENTIAL_TIMER.stop(start);
 
 		return Utils.MatToMatrix(essentialMat);
 	}
 
 	public static Matrix getPoseFromFundamentalMatrix(Matrix fundamentalMatrix, CameraParams cameraParams,
 			List<Correspondence2D2D> correspondences) {
+		return getPoseFromFundamentalMatrix(fundamentalMatrix, cameraParams, correspondences, new Random());
+	}
+
+	public static Matrix getPoseFromFundamentalMatrix(Matrix fundamentalMatrix, CameraParams cameraParams,
+			List<Correspondence2D2D> correspondences, Random rand) {
 
 		// convert to essential matrix
 		Matrix essentialMatrix = cameraParams.getK().transpose().times(fundamentalMatrix).times(cameraParams.getK());
 
-		return getPoseFromEssentialMatrix(essentialMatrix, cameraParams, correspondences);
+		return getPoseFromEssentialMatrix(essentialMatrix, cameraParams, correspondences, rand);
 
 	}
 
 	public static Matrix getPoseFromEssentialMatrix(Matrix essentialMatrix, CameraParams cameraParams,
 			List<Correspondence2D2D> correspondences) {
+		return getPoseFromEssentialMatrix(essentialMatrix, cameraParams, correspondences, new Random());
+	}
+
+	// rand picks the correspondences used for the cheirality test
+	public static Matrix getPoseFromEssentialMatrix(Matrix essentialMatrix, CameraParams cameraParams,
+			List<Correspondence2D2D> correspondences, Random rand) {
 
 		// convert to essential matrix
+		long start = DECOMPOSE_ESSENTIAL_TIMER.start();
 		Mat E = Utils.MatrixToMat(essentialMatrix);
 
 		// decompose essential matrix
@@ -553,7 +463,11 @@ public class ComputerVision {
 		R2t2.setMatrix(0, 2, 0, 2, R2);
 		R2t2.setMatrix(0, 2, 3, 3, t.times(-1));
 
-		Random rand = new Random();
+		Triangulator triangulatorR1t1 = new Triangulator(R1t1, I, cameraParams);
+		Triangulator triangulatorR1t2 = new Triangulator(R1t2, I, cameraParams);
+		Triangulator triangulatorR2t1 = new Triangulator(R2t1, I, cameraParams);
+		Triangulator triangulatorR2t2 = new Triangulator(R2t2, I, cameraParams);
+
 		int[] scores = { 0, 0, 0, 0 };
 
 		for (int i = 0; i < 32 && i < correspondences.size(); i++) {
@@ -561,10 +475,10 @@ public class ComputerVision {
 			Correspondence2D2D c = correspondences.get(index);
 
 			// get triangulated 3D points
-			Matrix point3DR1t1 = triangulate(R1t1, I, cameraParams, c);
-			Matrix point3DR1t2 = triangulate(R1t2, I, cameraParams, c);
-			Matrix point3DR2t1 = triangulate(R2t1, I, cameraParams, c);
-			Matrix point3DR2t2 = triangulate(R2t2, I, cameraParams, c);
+			Matrix point3DR1t1 = triangulatorR1t1.triangulate(c);
+			Matrix point3DR1t2 = triangulatorR1t2.triangulate(c);
+			Matrix point3DR2t1 = triangulatorR2t1.triangulate(c);
+			Matrix point3DR2t2 = triangulatorR2t2.triangulate(c);
 
 			// reproject points onto cameras
 			Matrix point2DR1t1 = R1t1.times(point3DR1t1);
@@ -607,6 +521,7 @@ public class ComputerVision {
 
 		// convert to quaternion and pose object
 		Matrix selection = possiblePoses[highestInd];
+		DECOMPOSE_ESSENTIAL_TIMER.stop(start);
 
 		return selection;
 
@@ -616,14 +531,29 @@ public class ComputerVision {
 			List<Correspondence2D2D> correspondences) {
 		List<Matrix> points = new ArrayList<Matrix>();
 
+		double[] X = new double[correspondences.size() * 4];
+		triangulateCorrespondences(pose1, pose0, cameraParams, correspondences, X);
 		for (int i = 0; i < correspondences.size(); i++) {
-			Matrix point = triangulate(pose1, pose0, cameraParams, correspondences.get(i));
+			Matrix point = new Matrix(4, 1);
+			point.set(0, 0, X[i * 4]);
+			point.set(1, 0, X[i * 4 + 1]);
+			point.set(2, 0, X[i * 4 + 2]);
+			point.set(3, 0, X[i * 4 + 3]);
 			points.add(point);
 		}
 
 		return points;
 	}
 
+	// same as above, writing homogeneous points (4 doubles each) into out, which
+	// must hold at least 4 * correspondences.size() values
+	public static void triangulateCorrespondences(Matrix pose1, Matrix pose0, CameraParams cameraParams,
+			List<Correspondence2D2D> correspondences, double[] out) {
+		long start = TRIANGULATE_TIMER.start();
+		new Triangulator(pose1, pose0, cameraParams).triangulate(correspondences, out);
+		TRIANGULATE_TIMER.stop(start);
+	}
+
 	public static double getTotalReprojectionError(Matrix pose1, Matrix pose0, CameraParams cameraParams,
 			List<Correspondence2D2D> correspondences, List<Matrix> estimatedPoints) {
 
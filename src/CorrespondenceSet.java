@@ -0,0 +1,227 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.MatOfPoint2f;
+
+// structure-of-arrays container for 2D to 2D correspondences. Coordinates are
+// kept in primitive arrays (double, or float when floatPrecision is set) and
+// the per-frame point lists are exposed as cached MatOfPoint2f views, so the
+// OpenCV estimators can share a single native buffer.
+public class CorrespondenceSet {
+
+	public static final int DEFAULT_CAPACITY = 64;
+
+	public final boolean floatPrecision;
+
+	protected int size = 0;
+
+	// double precision coordinates (null in float mode)
+	protected double[] x0;
+	protected double[] y0;
+	protected double[] x1;
+	protected double[] y1;
+
+	// float precision coordinates (null in double mode)
+	protected float[] x0f;
+	protected float[] y0f;
+	protected float[] x1f;
+	protected float[] y1f;
+
+	// cached native views (CV_32FC2), rebuilt after any modification
+	protected MatOfPoint2f points0Mat = null;
+	protected MatOfPoint2f points1Mat = null;
+
+	public CorrespondenceSet() {
+		this(DEFAULT_CAPACITY, false);
+	}
+
+	public CorrespondenceSet(int capacity) {
+		this(capacity, false);
+	}
+
+	public CorrespondenceSet(int capacity, boolean floatPrecision) {
+		this.floatPrecision = floatPrecision;
+		capacity = Math.max(capacity, 1);
+		if (floatPrecision) {
+			this.x0f = new float[capacity];
+			this.y0f = new float[capacity];
+			this.x1f = new float[capacity];
+			this.y1f = new float[capacity];
+		} else {
+			this.x0 = new double[capacity];
+			this.y0 = new double[capacity];
+			this.x1 = new double[capacity];
+			this.y1 = new double[capacity];
+		}
+	}
+
+	public static CorrespondenceSet fromList(List<Correspondence2D2D> correspondences) {
+		return fromList(correspondences, false);
+	}
+
+	public static CorrespondenceSet fromList(List<Correspondence2D2D> correspondences, boolean floatPrecision) {
+		CorrespondenceSet set = new CorrespondenceSet(correspondences.size(), floatPrecision);
+		for (int i = 0; i < correspondences.size(); i++) {
+			Correspondence2D2D c = correspondences.get(i);
+			set.add(c.getX0(), c.getY0(), c.getX1(), c.getY1());
+		}
+		return set;
+	}
+
+	// copy out to the object-per-match representation
+	public List<Correspondence2D2D> toList() {
+		List<Correspondence2D2D> correspondences = new ArrayList<Correspondence2D2D>(this.size);
+		for (int i = 0; i < this.size; i++) {
+			correspondences.add(this.get(i));
+		}
+		return correspondences;
+	}
+
+	// read-only List view backed by this set (each get() creates a new
+	// Correspondence2D2D)
+	public List<Correspondence2D2D> asList() {
+		return new AbstractList<Correspondence2D2D>() {
+			@Override
+			public Correspondence2D2D get(int index) {
+				if (index < 0 || index >= CorrespondenceSet.this.size) {
+					throw new IndexOutOfBoundsException("index: " + index + ", size: " + CorrespondenceSet.this.size);
+				}
+				return CorrespondenceSet.this.get(index);
+			}
+
+			@Override
+			public int size() {
+				return CorrespondenceSet.this.size;
+			}
+		};
+	}
+
+	public void add(double x0, double y0, double x1, double y1) {
+		this.ensureCapacity(this.size + 1);
+		this.set(this.size++, x0, y0, x1, y1);
+	}
+
+	public void add(Correspondence2D2D c) {
+		this.add(c.getX0(), c.getY0(), c.getX1(), c.getY1());
+	}
+
+	public void set(int i, double x0, double y0, double x1, double y1) {
+		if (this.floatPrecision) {
+			this.x0f[i] = (float) x0;
+			this.y0f[i] = (float) y0;
+			this.x1f[i] = (float) x1;
+			this.y1f[i] = (float) y1;
+		} else {
+			this.x0[i] = x0;
+			this.y0[i] = y0;
+			this.x1[i] = x1;
+			this.y1[i] = y1;
+		}
+		this.release();
+	}
+
+	public Correspondence2D2D get(int i) {
+		return new Correspondence2D2D(this.getX0(i), this.getY0(i), this.getX1(i), this.getY1(i));
+	}
+
+	public double getX0(int i) {
+		return this.floatPrecision ? this.x0f[i] : this.x0[i];
+	}
+
+	public double getY0(int i) {
+		return this.floatPrecision ? this.y0f[i] : this.y0[i];
+	}
+
+	public double getX1(int i) {
+		return this.floatPrecision ? this.x1f[i] : this.x1[i];
+	}
+
+	public double getY1(int i) {
+		return this.floatPrecision ? this.y1f[i] : this.y1[i];
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public void clear() {
+		this.size = 0;
+		this.release();
+	}
+
+	public void ensureCapacity(int capacity) {
+		int current = this.floatPrecision ? this.x0f.length : this.x0.length;
+		if (capacity <= current) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, current * 2);
+		if (this.floatPrecision) {
+			this.x0f = Arrays.copyOf(this.x0f, newCapacity);
+			this.y0f = Arrays.copyOf(this.y0f, newCapacity);
+			this.x1f = Arrays.copyOf(this.x1f, newCapacity);
+			this.y1f = Arrays.copyOf(this.y1f, newCapacity);
+		} else {
+			this.x0 = Arrays.copyOf(this.x0, newCapacity);
+			this.y0 = Arrays.copyOf(this.y0, newCapacity);
+			this.x1 = Arrays.copyOf(this.x1, newCapacity);
+			this.y1 = Arrays.copyOf(this.y1, newCapacity);
+		}
+	}
+
+	// coordinates divided by the image dimensions (see
+	// ComputerVision.normalizeCorrespondences)
+	public CorrespondenceSet normalize(double width, double height) {
+		CorrespondenceSet normalized = new CorrespondenceSet(this.size, this.floatPrecision);
+		for (int i = 0; i < this.size; i++) {
+			normalized.add(this.getX0(i) / width, this.getY0(i) / height, this.getX1(i) / width,
+					this.getY1(i) / height);
+		}
+		return normalized;
+	}
+
+	// points in the reference frame. The returned Mat is shared and must not be
+	// modified or released by the caller.
+	public MatOfPoint2f getPoints0Mat() {
+		if (this.points0Mat == null) {
+			this.points0Mat = this.buildMat(true);
+		}
+		return this.points0Mat;
+	}
+
+	// points in the current frame (same caveats as getPoints0Mat())
+	public MatOfPoint2f getPoints1Mat() {
+		if (this.points1Mat == null) {
+			this.points1Mat = this.buildMat(false);
+		}
+		return this.points1Mat;
+	}
+
+	protected MatOfPoint2f buildMat(boolean frame0) {
+		float[] interleaved = new float[this.size * 2];
+		for (int i = 0; i < this.size; i++) {
+			interleaved[i * 2] = (float) (frame0 ? this.getX0(i) : this.getX1(i));
+			interleaved[i * 2 + 1] = (float) (frame0 ? this.getY0(i) : this.getY1(i));
+		}
+		MatOfPoint2f mat = new MatOfPoint2f();
+		if (this.size > 0) {
+			mat.alloc(this.size);
+			mat.put(0, 0, interleaved);
+		}
+		return mat;
+	}
+
+	// drop the cached native views (they are rebuilt on demand)
+	public void release() {
+		if (this.points0Mat != null) {
+			this.points0Mat.release();
+			this.points0Mat = null;
+		}
+		if (this.points1Mat != null) {
+			this.points1Mat.release();
+			this.points1Mat = null;
+		}
+	}
+
+}
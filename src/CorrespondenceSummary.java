@@ -3,6 +3,8 @@ import java.util.List;
 
 public class CorrespondenceSummary {
 
+	protected static final Metrics.Timer SUMMARY_TIMER = Metrics.timer("summary");
+
 	public int numCorrespondences = 0;
 	public double meanDisparity = 0;
 	public double stdDevDisparity = 0;
@@ -73,7 +75,7 @@ public class CorrespondenceSummary {
 
 	public void evaluate(List<Correspondence2D2D> correspondences) {
 
-		long start = System.currentTimeMillis();
+		long start = SUMMARY_TIMER.start();
 		this.numCorrespondences = correspondences.size();
 
 		List<Double> disparities = new ArrayList<Double>();
@@ -118,8 +120,7 @@ public class CorrespondenceSummary {
 		}
 		this.stdDevDisparity = Math.sqrt(sumSqDev / this.numCorrespondences);
 
-		long end = System.currentTimeMillis();
-//		Utils.pl("correspondence summary time: " + (end - start) + "ms");
+		SUMMARY_TIMER.stop(start);
 
 	}
 
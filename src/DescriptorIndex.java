@@ -0,0 +1,456 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.opencv.core.Mat;
+
+// Multi-index hashing (Norouzi, Punjani and Fleet, "Fast Search in Hamming
+// Space with Multi-Index Hashing") over 256 bit ORB descriptors, packed as in
+// ORBDescriptor.
+//
+// A descriptor is cut into NUM_TABLES substrings of 16 bits, and each
+// substring is a direct-addressed key into its own table. Two descriptors
+// within Hamming distance r = NUM_TABLES * s + a agree to within s bits on one
+// of the first a + 1 substrings, or to within s - 1 bits on one of the others,
+// so a query only looks up the keys that close to the query's substrings and
+// verifies the candidates it finds there. k-NN queries widen the substring
+// radius one bit at a time until the k-th best distance found can't be beaten.
+// (Radius queries at MATCH_THRESHOLD still verify about 5% of an index of
+// unrelated descriptors; k-NN queries for matches usually stop much earlier.)
+//
+// Each slot has a 128 byte record (two cache lines) holding the descriptor,
+// its pending bucket link in every table, a payload int (e.g. the frame it
+// came from) and the stamp of the last query that verified it. Records live
+// in one direct buffer that doubles when full, which caps the index at
+// MAX_CAPACITY slots.
+//
+// The buckets are int arrays on the heap, contiguous per bucket (so the
+// records of a bucket can be fetched in parallel) and rebuilt in one counting
+// sort. Memory is therefore 128 bytes per slot off-heap plus about 68 bytes
+// per slot on the heap (an entry in each of the 16 tables and a free list
+// entry), on top of fixed bucket offsets and list heads (2 x 16 x 65536 ints,
+// 8 MB).
+// Descriptors inserted since go onto linked lists through their records, and
+// removed ones are only flagged; once those changes reach a quarter of the
+// index the buckets are rebuilt and the removed slots are reused.
+//
+// Not thread safe (queries use shared scratch).
+public class DescriptorIndex {
+
+	public static final int NUM_TABLES = 16;
+	public static final int SUBSTRING_BITS = 16;
+	public static final int NUM_KEYS = 1 << SUBSTRING_BITS;
+
+	// record layout (byte offsets)
+	public static final int RECORD_SIZE = 128;
+
+	// slots whose records fit one direct buffer (byte offsets are ints)
+	public static final int MAX_CAPACITY = Integer.MAX_VALUE / RECORD_SIZE;
+	protected static final int LINKS = ORBDescriptor.NUM_BYTES;
+	protected static final int PAYLOAD = LINKS + NUM_TABLES * 4;
+	protected static final int STAMP = PAYLOAD + 4;
+
+	// pending changes that trigger a rebuild: a quarter of the index, at least
+	public static final int MIN_PENDING = 4096;
+
+	// 16 bit masks by number of set bits
+	protected static final int[][] MASKS_BY_WEIGHT = new int[SUBSTRING_BITS + 1][];
+
+	static {
+		int[] counts = new int[SUBSTRING_BITS + 1];
+		for (int mask = 0; mask < NUM_KEYS; mask++) {
+			counts[Integer.bitCount(mask)]++;
+		}
+		for (int w = 0; w <= SUBSTRING_BITS; w++) {
+			MASKS_BY_WEIGHT[w] = new int[counts[w]];
+			counts[w] = 0;
+		}
+		for (int mask = 0; mask < NUM_KEYS; mask++) {
+			int w = Integer.bitCount(mask);
+			MASKS_BY_WEIGHT[w][counts[w]++] = mask;
+		}
+	}
+
+	protected int capacity = 0;
+	protected ByteBuffer records;
+
+	// buckets as of the last rebuild, table-major: bucket b holds
+	// entries[offsets[b] .. offsets[b + 1])
+	protected int[] offsets = new int[NUM_TABLES * NUM_KEYS + 1];
+	protected int[] entries = new int[0];
+
+	// slots inserted since: first slot of each bucket's list (-1 when empty)
+	protected int[] heads = new int[NUM_TABLES * NUM_KEYS];
+	protected int numInserted = 0;
+
+	// slots in use; removed slots wait for the next rebuild to be reused (their
+	// entries and links stay until then)
+	protected long[] alive = new long[0];
+	protected int highWater = 0;
+	protected int size = 0;
+	protected int[] freeSlots = new int[0];
+	protected int numFree = 0;
+	protected int numRemoved = 0;
+
+	// query scratch; a candidate is verified once per query (generation)
+	protected int generation = 0;
+	protected long[] query = new long[ORBDescriptor.NUM_LONGS];
+	protected int[] queryKeys = new int[NUM_TABLES];
+
+	// results of the last query (valid up to numResults), by distance for kNN
+	protected int numResults = 0;
+	protected int[] resultSlots = new int[0];
+	protected int[] resultDistances = new int[0];
+
+	// number of candidates verified by the last query
+	protected int numCandidates = 0;
+
+	public DescriptorIndex() {
+		this(1024);
+	}
+
+	public DescriptorIndex(int initialCapacity) {
+		if (initialCapacity > MAX_CAPACITY) {
+			throw new IllegalArgumentException(
+					"initialCapacity " + initialCapacity + " exceeds MAX_CAPACITY (" + MAX_CAPACITY + ")");
+		}
+		Arrays.fill(this.heads, -1);
+		this.grow(Math.max(initialCapacity, 16));
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//////////////////////////////// UPDATES //////////////////////////////////////
+	///////////////////////////////////////////////////////////////////////////////
+
+	// add descriptor index of a packed store, returns its slot (the id used by
+	// remove() and in query results)
+	public int insert(long[] store, int index, int payload) {
+		if (this.numInserted + this.numRemoved >= Math.max(this.size / 4, MIN_PENDING)) {
+			this.rebuild();
+		}
+
+		int slot;
+		if (this.numFree > 0) {
+			slot = this.freeSlots[--this.numFree];
+		} else {
+			if (this.highWater == this.capacity) {
+				if (this.capacity == MAX_CAPACITY) {
+					throw new IllegalStateException("DescriptorIndex is full (" + MAX_CAPACITY + " descriptors)");
+				}
+				this.grow((int) Math.min((long) this.capacity * 2, MAX_CAPACITY));
+			}
+			slot = this.highWater++;
+		}
+
+		int base = index * ORBDescriptor.NUM_LONGS;
+		int record = slot * RECORD_SIZE;
+		for (int w = 0; w < ORBDescriptor.NUM_LONGS; w++) {
+			this.records.putLong(record + w * 8, store[base + w]);
+		}
+		this.records.putInt(record + PAYLOAD, payload);
+		this.records.putInt(record + STAMP, 0);
+
+		// push onto the list of each substring's bucket
+		for (int t = 0; t < NUM_TABLES; t++) {
+			int head = t * NUM_KEYS + substring(store, base, t);
+			this.records.putInt(record + LINKS + t * 4, this.heads[head]);
+			this.heads[head] = slot;
+		}
+		this.alive[slot >> 6] |= 1L << slot;
+		this.numInserted++;
+		this.size++;
+		return slot;
+	}
+
+	// add count descriptors of a packed store, slots into slots (if not null)
+	public void insertAll(long[] store, int count, int payload, int[] slots) {
+		for (int i = 0; i < count; i++) {
+			int slot = this.insert(store, i, payload);
+			if (slots != null) {
+				slots[i] = slot;
+			}
+		}
+	}
+
+	// add the rows of an ORB descriptor Mat (count x 32, 8 bit)
+	public void insertAll(Mat descriptors, int payload, int[] slots) {
+		long[] store = ORBDescriptor.fromMat(descriptors, new long[0]);
+		this.insertAll(store, descriptors.rows(), payload, slots);
+	}
+
+	public boolean remove(int slot) {
+		if (!this.contains(slot)) {
+			return false;
+		}
+		this.alive[slot >> 6] &= ~(1L << slot);
+		this.numRemoved++;
+		this.size--;
+		return true;
+	}
+
+	public void clear() {
+		Arrays.fill(this.offsets, 0);
+		Arrays.fill(this.heads, -1);
+		Arrays.fill(this.alive, 0);
+		this.highWater = 0;
+		this.size = 0;
+		this.numFree = 0;
+		this.numInserted = 0;
+		this.numRemoved = 0;
+	}
+
+	// rebuild the buckets from the slots in use (counting sort by substring),
+	// empty the lists and free the removed slots
+	public void rebuild() {
+		int[] offsets = this.offsets;
+		if (this.entries.length < this.size * NUM_TABLES) {
+			this.entries = new int[Math.max(this.size * NUM_TABLES, this.entries.length * 3 / 2)];
+		}
+		Arrays.fill(offsets, 0);
+		this.numFree = 0;
+		for (int slot = this.highWater - 1; slot >= 0; slot--) {
+			if (!this.contains(slot)) {
+				// pushed from the top, so low slots are reused first
+				this.freeSlots[this.numFree++] = slot;
+				continue;
+			}
+			for (int t = 0; t < NUM_TABLES; t++) {
+				offsets[t * NUM_KEYS + this.slotSubstring(slot, t) + 1]++;
+			}
+		}
+		for (int b = 1; b < offsets.length; b++) {
+			offsets[b] += offsets[b - 1];
+		}
+
+		// fill each bucket in slot order, using heads as the cursors
+		System.arraycopy(offsets, 0, this.heads, 0, this.heads.length);
+		for (int slot = 0; slot < this.highWater; slot++) {
+			if (!this.contains(slot)) {
+				continue;
+			}
+			for (int t = 0; t < NUM_TABLES; t++) {
+				this.entries[this.heads[t * NUM_KEYS + this.slotSubstring(slot, t)]++] = slot;
+			}
+		}
+		Arrays.fill(this.heads, -1);
+		this.numInserted = 0;
+		this.numRemoved = 0;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//////////////////////////////// QUERIES //////////////////////////////////////
+	///////////////////////////////////////////////////////////////////////////////
+
+	// slots within radius (inclusive) of descriptor index of a packed store, in
+	// no particular order. Returns the number found, see getResultSlots() and
+	// getResultDistances()
+	public int radiusSearch(long[] store, int index, int radius) {
+		this.beginQuery(store, index);
+		this.search(radius, -1);
+		return this.numResults;
+	}
+
+	// slots matching descriptor index (distance below ImageData.MATCH_THRESHOLD)
+	public int radiusSearch(long[] store, int index) {
+		return this.radiusSearch(store, index, ImageData.MATCH_THRESHOLD - 1);
+	}
+
+	// the k nearest slots within maxDistance (inclusive) of descriptor index of
+	// a packed store, nearest first. Returns the number found (up to k)
+	public int knnSearch(long[] store, int index, int k, int maxDistance) {
+		this.beginQuery(store, index);
+		if (k > 0) {
+			this.search(maxDistance, k);
+		}
+		return this.numResults;
+	}
+
+	// the k nearest slots matching descriptor index (distance below
+	// ImageData.MATCH_THRESHOLD)
+	public int knnSearch(long[] store, int index, int k) {
+		return this.knnSearch(store, index, k, ImageData.MATCH_THRESHOLD - 1);
+	}
+
+	protected void beginQuery(long[] store, int index) {
+		for (int w = 0; w < ORBDescriptor.NUM_LONGS; w++) {
+			this.query[w] = store[index * ORBDescriptor.NUM_LONGS + w];
+		}
+		for (int t = 0; t < NUM_TABLES; t++) {
+			this.queryKeys[t] = substring(this.query, 0, t);
+		}
+		if (++this.generation == Integer.MAX_VALUE) {
+			for (int slot = 0; slot < this.highWater; slot++) {
+				this.records.putInt(slot * RECORD_SIZE + STAMP, 0);
+			}
+			this.generation = 1;
+		}
+		this.numResults = 0;
+		this.numCandidates = 0;
+	}
+
+	// probe the tables at substring radius 0, 1, ... in turn. Once table t has
+	// been probed at weight w (and every table below w), an unseen slot differs
+	// in at least w + 1 bits on tables 0..t and w on the others, so everything
+	// within NUM_TABLES * w + t of the query has been seen. The search stops
+	// when that covers maxDistance, or the k-th best distance found
+	protected void search(int maxDistance, int k) {
+		for (int weight = 0; weight <= SUBSTRING_BITS; weight++) {
+			for (int t = 0; t < NUM_TABLES; t++) {
+				this.probe(t, weight, maxDistance, k);
+
+				int bound = NUM_TABLES * weight + t;
+				if (bound >= maxDistance || (k > 0 && this.numResults == k && this.resultDistances[k - 1] <= bound)) {
+					return;
+				}
+			}
+		}
+	}
+
+	// verify the slots of the buckets at exactly weight bits from the query's
+	// substring in table t
+	protected void probe(int t, int weight, int maxDistance, int k) {
+		int[] masks = MASKS_BY_WEIGHT[weight];
+		int key = this.queryKeys[t];
+		int tableBase = t * NUM_KEYS;
+		int link = LINKS + t * 4;
+		for (int m = 0; m < masks.length; m++) {
+			int bucket = tableBase + (key ^ masks[m]);
+			for (int e = this.offsets[bucket]; e < this.offsets[bucket + 1]; e++) {
+				this.verify(this.entries[e], maxDistance, k);
+			}
+			for (int slot = this.heads[bucket]; slot >= 0; slot = this.records.getInt(slot * RECORD_SIZE + link)) {
+				this.verify(slot, maxDistance, k);
+			}
+		}
+	}
+
+	// keep a slot in use and not verified yet by this query when it is within
+	// maxDistance. With k < 0 every such slot is kept, otherwise the k best
+	// (sorted)
+	protected void verify(int slot, int maxDistance, int k) {
+		if ((this.alive[slot >> 6] & (1L << slot)) == 0) {
+			return;
+		}
+		int record = slot * RECORD_SIZE;
+		if (this.records.getInt(record + STAMP) == this.generation) {
+			return;
+		}
+		this.records.putInt(record + STAMP, this.generation);
+		this.numCandidates++;
+
+		int d = this.distanceTo(record);
+		if (d > maxDistance) {
+			return;
+		}
+		if (k < 0) {
+			this.addResult(this.numResults, slot, d);
+		} else {
+			this.insertSorted(slot, d, k);
+		}
+	}
+
+	// distance from the query to the descriptor of the record at byte offset
+	protected int distanceTo(int record) {
+		long[] q = this.query;
+		ByteBuffer records = this.records;
+		return Long.bitCount(q[0] ^ records.getLong(record)) + Long.bitCount(q[1] ^ records.getLong(record + 8))
+				+ Long.bitCount(q[2] ^ records.getLong(record + 16)) + Long.bitCount(q[3] ^ records.getLong(record + 24));
+	}
+
+	protected void addResult(int position, int slot, int distance) {
+		if (position == this.resultSlots.length) {
+			int capacity = Math.max(16, this.resultSlots.length * 2);
+			this.resultSlots = Arrays.copyOf(this.resultSlots, capacity);
+			this.resultDistances = Arrays.copyOf(this.resultDistances, capacity);
+		}
+		this.resultSlots[position] = slot;
+		this.resultDistances[position] = distance;
+		if (position == this.numResults) {
+			this.numResults++;
+		}
+	}
+
+	// keep the k best results sorted by distance
+	protected void insertSorted(int slot, int distance, int k) {
+		if (this.numResults == k && distance >= this.resultDistances[k - 1]) {
+			return;
+		}
+		int position = Math.min(this.numResults, k - 1);
+		if (this.numResults < k) {
+			this.addResult(this.numResults, slot, distance);
+		}
+		while (position > 0 && this.resultDistances[position - 1] > distance) {
+			this.resultSlots[position] = this.resultSlots[position - 1];
+			this.resultDistances[position] = this.resultDistances[position - 1];
+			position--;
+		}
+		this.resultSlots[position] = slot;
+		this.resultDistances[position] = distance;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//////////////////////////////// STORAGE //////////////////////////////////////
+	///////////////////////////////////////////////////////////////////////////////
+
+	// substring t (16 bits) of descriptor at base of a packed store
+	protected static int substring(long[] store, int base, int t) {
+		return (int) (store[base + t / 4] >>> ((t % 4) * SUBSTRING_BITS)) & (NUM_KEYS - 1);
+	}
+
+	protected int slotSubstring(int slot, int t) {
+		return (int) (this.records.getLong(slot * RECORD_SIZE + (t / 4) * 8) >>> ((t % 4) * SUBSTRING_BITS))
+				& (NUM_KEYS - 1);
+	}
+
+	// reallocate the records for capacity (at most MAX_CAPACITY) slots, contents
+	// are kept
+	protected void grow(int capacity) {
+		ByteBuffer records = ByteBuffer.allocateDirect(capacity * RECORD_SIZE).order(ByteOrder.nativeOrder());
+		if (this.records != null) {
+			this.records.clear();
+			records.put(this.records);
+			records.clear();
+		}
+		this.records = records;
+
+		this.alive = Arrays.copyOf(this.alive, (capacity + 63) / 64);
+		this.freeSlots = Arrays.copyOf(this.freeSlots, capacity);
+		this.capacity = capacity;
+	}
+
+	public boolean contains(int slot) {
+		return slot >= 0 && slot < this.highWater && (this.alive[slot >> 6] & (1L << slot)) != 0;
+	}
+
+	// descriptor of a slot into a packed store at index
+	public void getDescriptor(int slot, long[] store, int index) {
+		for (int w = 0; w < ORBDescriptor.NUM_LONGS; w++) {
+			store[index * ORBDescriptor.NUM_LONGS + w] = this.records.getLong(slot * RECORD_SIZE + w * 8);
+		}
+	}
+
+	public int getPayload(int slot) {
+		return this.records.getInt(slot * RECORD_SIZE + PAYLOAD);
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public int getNumResults() {
+		return this.numResults;
+	}
+
+	public int[] getResultSlots() {
+		return this.resultSlots;
+	}
+
+	public int[] getResultDistances() {
+		return this.resultDistances;
+	}
+
+	public int getNumCandidates() {
+		return this.numCandidates;
+	}
+
+}
@@ -0,0 +1,293 @@
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.KeyPoint;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfKeyPoint;
+import org.opencv.features2d.FastFeatureDetector;
+
+// FAST-9 (16 pixel circle) detection over a grid of cells, as used by
+// ImageData.getHomogeneousKeypoints: every cell is searched at a high
+// threshold, and again at a low threshold when the high one finds nothing.
+//
+// Instead of creating and running an OpenCV detector per cell and threshold,
+// one reused detector finds the corners of the whole image at the high
+// threshold (without non-max suppression) and their FAST scores (the largest
+// threshold at which each is still a corner, as OpenCV's cornerScore) go into
+// a score map. Cells that come up empty are scored again at the low threshold,
+// in Java and only over that cell. Detection in a cell at threshold t is then a
+// scan of the score map: a pixel is a keypoint when its score is >= t and
+// greater than the scores (at t, within the cell's detection area) of its 8
+// neighbours. This reproduces FastFeatureDetector.detect() with non-max
+// suppression on the cell's submat, keypoint order included.
+//
+// Keypoints are collected into primitive arrays; all buffers are reused.
+public class FastGridDetector {
+
+	// circle of 16 pixels around the center (x, y offsets), starting straight
+	// above and going clockwise as in OpenCV
+	protected static final int[] CIRCLE_X = { 0, 1, 2, 3, 3, 3, 2, 1, 0, -1, -2, -3, -3, -3, -2, -1 };
+	protected static final int[] CIRCLE_Y = { -3, -3, -2, -1, 0, 1, 2, 3, 3, 3, 2, 1, 0, -1, -2, -3 };
+
+	// FAST needs this many pixels around a candidate
+	public static final int RADIUS = 3;
+
+	// the circle plus its first 9 pixels again, so arcs never wrap
+	protected static final int CIRCLE_SIZE = 25;
+
+	protected int width = 0;
+	protected int height = 0;
+	protected byte[] pixels = new byte[0];
+
+	// FAST score per pixel, -1 where the pixel is not a corner (at the high
+	// threshold, or the low one inside cells that fell back to it)
+	protected int[] scores = new int[0];
+	protected int[] circle = new int[CIRCLE_SIZE];
+	protected int[] diffs = new int[CIRCLE_SIZE];
+
+	// corner search at the high threshold (reused)
+	protected FastFeatureDetector fast = null;
+	protected MatOfKeyPoint corners = new MatOfKeyPoint();
+	protected float[] cornerBuffer = new float[0];
+
+	// detected keypoints
+	protected int count = 0;
+	protected int[] xs = new int[0];
+	protected int[] ys = new int[0];
+	protected int[] responses = new int[0];
+
+	// detect on image (single channel 8 bit) over cells of about cellSize
+	// pixels (cells overlap by 6 pixels, see getHomogeneousKeypoints). Returns
+	// the number of keypoints
+	public int detect(Mat image, int cellSize, int iniThreshold, int minThreshold) {
+		this.computeScores(image, iniThreshold);
+		this.count = 0;
+
+		int nCols = this.width / cellSize;
+		int nRows = this.height / cellSize;
+		if (nCols == 0 || nRows == 0) {
+			return 0;
+		}
+		int wCell = (int) Math.ceil((float) this.width / nCols);
+		int hCell = (int) Math.ceil((float) this.height / nRows);
+
+		for (int i = 0; i < nRows; i++) {
+
+			int iniY = i * hCell;
+			int maxY = iniY + hCell + 6;
+			if (iniY >= this.height - 3)
+				continue;
+			if (maxY > this.height)
+				maxY = this.height;
+
+			for (int j = 0; j < nCols; j++) {
+
+				int iniX = j * wCell;
+				int maxX = iniX + wCell + 6;
+				if (iniX >= this.width - 6)
+					continue;
+				if (maxX > this.width)
+					maxX = this.width;
+
+				// if no features detected, lower FAST threshold
+				if (this.detectCell(iniX, iniY, maxX, maxY, iniThreshold) == 0) {
+					this.scoreCell(iniX, iniY, maxX, maxY, minThreshold);
+					this.detectCell(iniX, iniY, maxX, maxY, minThreshold);
+				}
+			}
+		}
+		return this.count;
+	}
+
+	// score the corners at threshold. OpenCV finds them (one native FAST pass
+	// over the image, without non-max suppression); their scores are computed
+	// here since that pass doesn't report them
+	public void computeScores(Mat image, int threshold) {
+		this.width = image.cols();
+		this.height = image.rows();
+		int size = this.width * this.height;
+		if (this.pixels.length < size) {
+			this.pixels = new byte[size];
+			this.scores = new int[size];
+		}
+		image.get(0, 0, this.pixels);
+		Arrays.fill(this.scores, 0, size, -1);
+
+		for (int k = 0; k < CIRCLE_SIZE; k++) {
+			this.circle[k] = CIRCLE_Y[k % 16] * this.width + CIRCLE_X[k % 16];
+		}
+
+		if (this.fast == null) {
+			this.fast = FastFeatureDetector.create(threshold, false);
+		} else if (this.fast.getThreshold() != threshold) {
+			this.fast.setThreshold(threshold);
+		}
+		this.fast.detect(image, this.corners);
+
+		// KeyPoint rows are x, y, size, angle, response, octave, class_id
+		int numCorners = (int) this.corners.total();
+		if (this.cornerBuffer.length < numCorners * 7) {
+			this.cornerBuffer = new float[numCorners * 7];
+		}
+		if (numCorners > 0) {
+			this.corners.get(0, 0, this.cornerBuffer);
+		}
+		for (int c = 0; c < numCorners; c++) {
+			int offset = (int) this.cornerBuffer[c * 7 + 1] * this.width + (int) this.cornerBuffer[c * 7];
+			this.scores[offset] = this.score(offset, threshold);
+		}
+	}
+
+	// score the corners at threshold (lower than the one given to
+	// computeScores) in the detection area of a cell. Pixels already scored
+	// keep their score, it doesn't depend on the threshold
+	protected void scoreCell(int iniX, int iniY, int maxX, int maxY, int threshold) {
+		for (int y = iniY + RADIUS; y < maxY - RADIUS; y++) {
+			int row = y * this.width;
+			for (int x = iniX + RADIUS; x < maxX - RADIUS; x++) {
+				if (this.scores[row + x] >= 0) {
+					continue;
+				}
+				int score = this.score(row + x, threshold);
+				if (score >= threshold) {
+					this.scores[row + x] = score;
+				}
+			}
+		}
+	}
+
+	// FAST score of a corner at threshold: the largest threshold at which it is
+	// still a corner (OpenCV's cornerScore for the 16 pixel circle). A pixel is
+	// a corner at t when 9 contiguous circle pixels are all brighter than
+	// center + t or all darker than center - t
+	protected int score(int offset, int threshold) {
+		byte[] pixels = this.pixels;
+		int[] d = this.diffs;
+		int v = pixels[offset] & 0xff;
+		for (int k = 0; k < CIRCLE_SIZE; k++) {
+			d[k] = v - (pixels[offset + this.circle[k]] & 0xff);
+		}
+
+		// darker ring: largest minimum over 9 contiguous pixels
+		int a0 = threshold;
+		for (int k = 0; k < 16; k += 2) {
+			int a = Math.min(d[k + 1], d[k + 2]);
+			a = Math.min(a, d[k + 3]);
+			if (a <= a0) {
+				continue;
+			}
+			a = Math.min(a, d[k + 4]);
+			a = Math.min(a, d[k + 5]);
+			a = Math.min(a, d[k + 6]);
+			a = Math.min(a, d[k + 7]);
+			a = Math.min(a, d[k + 8]);
+			a0 = Math.max(a0, Math.min(a, d[k]));
+			a0 = Math.max(a0, Math.min(a, d[k + 9]));
+		}
+
+		// brighter ring
+		int b0 = -a0;
+		for (int k = 0; k < 16; k += 2) {
+			int b = Math.max(d[k + 1], d[k + 2]);
+			b = Math.max(b, d[k + 3]);
+			b = Math.max(b, d[k + 4]);
+			b = Math.max(b, d[k + 5]);
+			if (b >= b0) {
+				continue;
+			}
+			b = Math.max(b, d[k + 6]);
+			b = Math.max(b, d[k + 7]);
+			b = Math.max(b, d[k + 8]);
+			b0 = Math.min(b0, Math.max(b, d[k]));
+			b0 = Math.min(b0, Math.max(b, d[k + 9]));
+		}
+
+		return -b0 - 1;
+	}
+
+	// keypoints of the cell [iniX, maxX) x [iniY, maxY) at threshold, with
+	// non-max suppression inside the cell. Returns the number found
+	protected int detectCell(int iniX, int iniY, int maxX, int maxY, int threshold) {
+		int x0 = iniX + RADIUS;
+		int x1 = maxX - RADIUS;
+		int y0 = iniY + RADIUS;
+		int y1 = maxY - RADIUS;
+		int found = 0;
+
+		for (int y = y0; y < y1; y++) {
+			int row = y * this.width;
+			for (int x = x0; x < x1; x++) {
+				int score = this.scores[row + x];
+				if (score < threshold) {
+					continue;
+				}
+
+				boolean max = true;
+				for (int ny = y - 1; ny <= y + 1 && max; ny++) {
+					if (ny < y0 || ny >= y1) {
+						continue;
+					}
+					for (int nx = x - 1; nx <= x + 1; nx++) {
+						if (nx < x0 || nx >= x1 || (nx == x && ny == y)) {
+							continue;
+						}
+						int neighbour = this.scores[ny * this.width + nx];
+						if (neighbour >= threshold && neighbour >= score) {
+							max = false;
+							break;
+						}
+					}
+				}
+				if (!max) {
+					continue;
+				}
+
+				// a neighbour below the threshold counts as 0 (scores are >= 0)
+				if (score == 0) {
+					continue;
+				}
+
+				this.add(x, y, score);
+				found++;
+			}
+		}
+		return found;
+	}
+
+	protected void add(int x, int y, int response) {
+		if (this.count == this.xs.length) {
+			int capacity = Math.max(256, this.count * 2);
+			this.xs = Arrays.copyOf(this.xs, capacity);
+			this.ys = Arrays.copyOf(this.ys, capacity);
+			this.responses = Arrays.copyOf(this.responses, capacity);
+		}
+		this.xs[this.count] = x;
+		this.ys[this.count] = y;
+		this.responses[this.count] = response;
+		this.count++;
+	}
+
+	public int size() {
+		return this.count;
+	}
+
+	public int getX(int i) {
+		return this.xs[i];
+	}
+
+	public int getY(int i) {
+		return this.ys[i];
+	}
+
+	public int getResponse(int i) {
+		return this.responses[i];
+	}
+
+	// append the detected keypoints as KeyPoints (size 7, as OpenCV's FAST)
+	public void addKeypoints(List<KeyPoint> out) {
+		for (int i = 0; i < this.count; i++) {
+			out.add(new KeyPoint(this.xs[i], this.ys[i], 7, -1, this.responses[i]));
+		}
+	}
+
+}
@@ -0,0 +1,340 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Binary columnar container for FinalizedData (with its CorrespondenceSummary).
+//
+// Layout (little endian):
+//   8 bytes   magic "FDCOLS01"
+//   int       number of columns (COLUMNS.length)
+//   int       reserved (0)
+//   long      row count
+//   then one block of rowCount doubles per column, in COLUMNS order
+//
+// Columns are memory mapped on open(), so loading is independent of the row
+// count; rows are only materialized on request (getRow(), toList()).
+public class FinalizedDataColumns {
+
+	public static final byte[] MAGIC = "FDCOLS01".getBytes(StandardCharsets.US_ASCII);
+	public static final int HEADER_SIZE = 24;
+	public static final int NUM_FEATURES = 23;
+
+	// CorrespondenceSummary fields (stringify() order), then FinalizedData fields
+	public static final String[] COLUMNS = { "numCorrespondences", "meanDisparity", "stdDevDisparity", "minX0",
+			"maxX0", "minY0", "maxY0", "rangeX0", "rangeY0", "minX1", "maxX1", "minY1", "maxY1", "rangeX1", "rangeY1",
+			"binN", "binNE", "binE", "binSE", "binS", "binSW", "binW", "binNW", "totalReconstErrorEstFun",
+			"totalReconstErrorEstHomography", "totalReconstErrorEstEssential", "medianReconstErrorEstFun",
+			"medianReconstErrorEstHomography", "medianReconstErrorEstEssential", "transChordalEstFun",
+			"transChordalEstHomography", "transChordalEstEssential", "baseline", "funNumGood", "funNumParallax",
+			"essNumGood", "essNumParallax", "homNumGood", "homNumParallax" };
+
+	protected int rowCount;
+	protected DoubleBuffer[] columns;
+
+	protected FinalizedDataColumns(int rowCount, DoubleBuffer[] columns) {
+		this.rowCount = rowCount;
+		this.columns = columns;
+	}
+
+	// map an existing columnar file (read only)
+	public static FinalizedDataColumns open(String filename) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(filename, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			int rowCount = readHeader(header, filename);
+
+			DoubleBuffer[] columns = new DoubleBuffer[COLUMNS.length];
+			for (int c = 0; c < COLUMNS.length; c++) {
+				columns[c] = channel.map(FileChannel.MapMode.READ_ONLY, columnOffset(c, rowCount), (long) rowCount * 8)
+						.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			}
+			return new FinalizedDataColumns(rowCount, columns);
+		} finally {
+			raf.close();
+		}
+	}
+
+	public static boolean isColumnar(String filename) {
+		File file = new File(filename);
+		if (!file.isFile() || file.length() < HEADER_SIZE) {
+			return false;
+		}
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			byte[] magic = new byte[MAGIC.length];
+			raf.readFully(magic);
+			raf.close();
+			return java.util.Arrays.equals(magic, MAGIC);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	public int size() {
+		return this.rowCount;
+	}
+
+	public double get(int row, int column) {
+		return this.columns[column].get(row);
+	}
+
+	// read-only view of a whole column
+	public DoubleBuffer getColumn(int column) {
+		return this.columns[column].duplicate();
+	}
+
+	public static int getColumnIndex(String name) {
+		for (int c = 0; c < COLUMNS.length; c++) {
+			if (COLUMNS[c].equals(name)) {
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	public FinalizedData getRow(int row) {
+		double[] values = new double[COLUMNS.length];
+		for (int c = 0; c < COLUMNS.length; c++) {
+			values[c] = this.columns[c].get(row);
+		}
+		return fromValues(values);
+	}
+
+	public List<FinalizedData> toList() {
+		List<FinalizedData> data = new ArrayList<FinalizedData>(this.rowCount);
+		for (int i = 0; i < this.rowCount; i++) {
+			data.add(this.getRow(i));
+		}
+		return data;
+	}
+
+	// feature matrix (normalized exactly like CorrespondenceSummary.getArray())
+	public double[][] getFeatures() {
+		int[] rows = new int[this.rowCount];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = i;
+		}
+		return this.getFeatures(rows);
+	}
+
+	// feature matrix for a subset of rows, read straight from the columns
+	public double[][] getFeatures(int[] rows) {
+		double[][] features = new double[rows.length][NUM_FEATURES];
+		double[] scales = { 300.0, 800.0, 800.0, 640.0, 640.0, 480.0, 480.0, 640.0, 640.0, 480.0, 480.0, 640.0,
+				480.0, 640.0, 480.0 };
+
+		// the column order of the first 15 features differs from the file order
+		// (ranges come after the frame 1 min/max values in getArray())
+		int[] source = { 0, 1, 2, 3, 4, 5, 6, 9, 10, 11, 12, 7, 8, 13, 14 };
+		for (int f = 0; f < scales.length; f++) {
+			DoubleBuffer column = this.columns[source[f]];
+			for (int i = 0; i < rows.length; i++) {
+				features[i][f] = column.get(rows[i]) / scales[f];
+			}
+		}
+
+		// rotation bins, normalized by their magnitude
+		for (int i = 0; i < rows.length; i++) {
+			double sumSq = 0;
+			for (int b = 0; b < 8; b++) {
+				sumSq += Math.pow(this.columns[15 + b].get(rows[i]), 2);
+			}
+			double mag = Math.sqrt(sumSq);
+			for (int b = 0; b < 8; b++) {
+				features[i][15 + b] = this.columns[15 + b].get(rows[i]) / mag;
+			}
+		}
+
+		return features;
+	}
+
+	// write a list of records to a new columnar file
+	public static void write(String filename, List<FinalizedData> data) throws IOException {
+		ColumnWriter writer = new ColumnWriter(filename, data.size());
+		try {
+			for (int i = 0; i < data.size(); i++) {
+				writer.set(i, data.get(i));
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	// convert a text .dat file (as read by ModelTesting.loadData()) into a
+	// columnar file, returns the number of rows
+	public static int convert(String datFilename, String outFilename) throws IOException {
+
+		// first pass: count records (a record is a non-comment line plus the line
+		// following it)
+		int rowCount = 0;
+		BufferedReader br = new BufferedReader(new FileReader(datFilename));
+		String line;
+		while ((line = br.readLine()) != null) {
+			if (isComment(line)) {
+				continue;
+			}
+			br.readLine();
+			rowCount++;
+		}
+		br.close();
+
+		// second pass: parse straight into the mapped columns
+		ColumnWriter writer = new ColumnWriter(outFilename, rowCount);
+		br = new BufferedReader(new FileReader(datFilename));
+		try {
+			int row = 0;
+			while ((line = br.readLine()) != null && row < rowCount) {
+				if (isComment(line)) {
+					continue;
+				}
+				writer.set(row++, FinalizedData.parse(line + "\n" + br.readLine()));
+			}
+		} finally {
+			br.close();
+			writer.close();
+		}
+
+		return rowCount;
+	}
+
+	protected static boolean isComment(String line) {
+		return line.trim().charAt(0) == '#';
+	}
+
+	protected static long columnOffset(int column, int rowCount) {
+		return HEADER_SIZE + (long) column * rowCount * 8;
+	}
+
+	protected static int readHeader(ByteBuffer header, String filename) throws IOException {
+		byte[] magic = new byte[MAGIC.length];
+		header.get(magic);
+		if (!java.util.Arrays.equals(magic, MAGIC)) {
+			throw new IOException(filename + " is not a FinalizedData column file");
+		}
+		int numColumns = header.getInt();
+		header.getInt();
+		long rowCount = header.getLong();
+		if (numColumns != COLUMNS.length) {
+			throw new IOException(filename + ": expected " + COLUMNS.length + " columns, found " + numColumns);
+		}
+		return (int) rowCount;
+	}
+
+	public static double[] toValues(FinalizedData fd) {
+		CorrespondenceSummary cs = fd.summary;
+		return new double[] { cs.numCorrespondences, cs.meanDisparity, cs.stdDevDisparity, cs.minX0, cs.maxX0,
+				cs.minY0, cs.maxY0, cs.rangeX0, cs.rangeY0, cs.minX1, cs.maxX1, cs.minY1, cs.maxY1, cs.rangeX1,
+				cs.rangeY1, cs.binN, cs.binNE, cs.binE, cs.binSE, cs.binS, cs.binSW, cs.binW, cs.binNW,
+				fd.totalReconstErrorEstFun, fd.totalReconstErrorEstHomography, fd.totalReconstErrorEstEssential,
+				fd.medianReconstErrorEstFun, fd.medianReconstErrorEstHomography, fd.medianReconstErrorEstEssential,
+				fd.transChordalEstFun, fd.transChordalEstHomography, fd.transChordalEstEssential, fd.baseline,
+				fd.funNumGood, fd.funNumParallax, fd.essNumGood, fd.essNumParallax, fd.homNumGood,
+				fd.homNumParallax };
+	}
+
+	public static FinalizedData fromValues(double[] v) {
+		CorrespondenceSummary cs = new CorrespondenceSummary();
+		cs.numCorrespondences = (int) v[0];
+		cs.meanDisparity = v[1];
+		cs.stdDevDisparity = v[2];
+		cs.minX0 = v[3];
+		cs.maxX0 = v[4];
+		cs.minY0 = v[5];
+		cs.maxY0 = v[6];
+		cs.rangeX0 = v[7];
+		cs.rangeY0 = v[8];
+		cs.minX1 = v[9];
+		cs.maxX1 = v[10];
+		cs.minY1 = v[11];
+		cs.maxY1 = v[12];
+		cs.rangeX1 = v[13];
+		cs.rangeY1 = v[14];
+		cs.binN = (int) v[15];
+		cs.binNE = (int) v[16];
+		cs.binE = (int) v[17];
+		cs.binSE = (int) v[18];
+		cs.binS = (int) v[19];
+		cs.binSW = (int) v[20];
+		cs.binW = (int) v[21];
+		cs.binNW = (int) v[22];
+
+		FinalizedData fd = new FinalizedData();
+		fd.summary = cs;
+		fd.totalReconstErrorEstFun = v[23];
+		fd.totalReconstErrorEstHomography = v[24];
+		fd.totalReconstErrorEstEssential = v[25];
+		fd.medianReconstErrorEstFun = v[26];
+		fd.medianReconstErrorEstHomography = v[27];
+		fd.medianReconstErrorEstEssential = v[28];
+		fd.transChordalEstFun = v[29];
+		fd.transChordalEstHomography = v[30];
+		fd.transChordalEstEssential = v[31];
+		fd.baseline = v[32];
+		fd.funNumGood = v[33];
+		fd.funNumParallax = v[34];
+		fd.essNumGood = v[35];
+		fd.essNumParallax = v[36];
+		fd.homNumGood = v[37];
+		fd.homNumParallax = v[38];
+		return fd;
+	}
+
+	// fixed-size writer over a mapped file (row count known up front)
+	protected static class ColumnWriter {
+
+		protected RandomAccessFile raf;
+		protected DoubleBuffer[] columns = new DoubleBuffer[COLUMNS.length];
+		protected MappedByteBuffer[] mapped = new MappedByteBuffer[COLUMNS.length];
+
+		public ColumnWriter(String filename, int rowCount) throws IOException {
+			File file = new File(filename);
+			if (file.getParentFile() != null) {
+				file.getParentFile().mkdirs();
+			}
+			this.raf = new RandomAccessFile(file, "rw");
+			this.raf.setLength(columnOffset(COLUMNS.length, rowCount));
+			FileChannel channel = this.raf.getChannel();
+
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			header.put(MAGIC);
+			header.putInt(COLUMNS.length);
+			header.putInt(0);
+			header.putLong(rowCount);
+
+			for (int c = 0; c < COLUMNS.length; c++) {
+				this.mapped[c] = channel.map(FileChannel.MapMode.READ_WRITE, columnOffset(c, rowCount),
+						(long) rowCount * 8);
+				this.columns[c] = this.mapped[c].order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			}
+		}
+
+		public void set(int row, FinalizedData fd) {
+			double[] values = toValues(fd);
+			for (int c = 0; c < values.length; c++) {
+				this.columns[c].put(row, values[c]);
+			}
+		}
+
+		public void close() throws IOException {
+			for (int c = 0; c < this.mapped.length; c++) {
+				this.mapped[c].force();
+			}
+			this.raf.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,211 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+// Appends FinalizedData records to a .dat file as they are produced (same
+// format as FinalizedData.stringify(), optionally preceded by a "# ..." header
+// line, as read by ModelTesting.loadData()).
+//
+// Callers report progress with mark(position) after each unit of work, which
+// also notes the byte length written so far. Every syncInterval marks the file
+// is flushed and fsynced, and a small "<file>.progress" marker records the last
+// marked position and byte length (records written after the last mark are
+// not covered). Opening with resume = true truncates the file to that length
+// and reports the position to continue from (getResumePosition()). finish()
+// flags the output as complete, which a resumed writer reports (isComplete()).
+//
+// Like PrintWriter, write/mark/close don't throw: the first IOException is
+// printed and checkError() returns true from then on.
+public class FinalizedDataWriter {
+
+	public static final int DEFAULT_SYNC_INTERVAL = 100;
+	public static final String PROGRESS_SUFFIX = ".progress";
+
+	protected String filename;
+	protected File progressFile;
+	protected int syncInterval;
+
+	protected FileOutputStream stream;
+	protected FileChannel channel;
+	protected BufferedOutputStream out;
+
+	protected long resumePosition = 0;
+	protected long position = 0;
+	protected long recordsWritten = 0;
+	protected int marksSinceSync = 0;
+	protected boolean complete = false;
+	protected boolean resumedComplete = false;
+	protected boolean failed = false;
+
+	// bytes written so far, and at the last mark()
+	protected long bytesWritten = 0;
+	protected long markedBytes = 0;
+
+	public FinalizedDataWriter(String filename) throws IOException {
+		this(filename, DEFAULT_SYNC_INTERVAL, false);
+	}
+
+	public FinalizedDataWriter(String filename, int syncInterval, boolean resume) throws IOException {
+		this.filename = filename;
+		this.progressFile = new File(filename + PROGRESS_SUFFIX);
+		this.syncInterval = Math.max(syncInterval, 1);
+
+		File file = new File(filename);
+		if (file.getParentFile() != null) {
+			file.getParentFile().mkdirs();
+		}
+
+		boolean resumed = resume && this.progressFile.exists() && file.exists();
+		if (resumed) {
+			long[] progress = readProgress(this.progressFile);
+			this.resumePosition = progress[0];
+			this.resumedComplete = progress[2] != 0;
+
+			// drop whatever was written after the last marked record
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf.setLength(Math.min(progress[1], file.length()));
+			this.bytesWritten = raf.length();
+			raf.close();
+			this.markedBytes = this.bytesWritten;
+			if (this.resumedComplete) {
+				Utils.pl("FinalizedDataWriter: " + filename + " was already finished (position " + this.resumePosition
+						+ ")");
+			}
+		}
+
+		this.stream = new FileOutputStream(file, resumed);
+		this.channel = this.stream.getChannel();
+		this.out = new BufferedOutputStream(this.stream);
+		this.position = this.resumePosition;
+		if (!resumed) {
+			this.writeProgress();
+		}
+	}
+
+	// position to continue from (0 unless resumed from a marker)
+	public long getResumePosition() {
+		return this.resumePosition;
+	}
+
+	public long getRecordsWritten() {
+		return this.recordsWritten;
+	}
+
+	// whether the run that was resumed had called finish()
+	public boolean isComplete() {
+		return this.resumedComplete;
+	}
+
+	public boolean checkError() {
+		return this.failed;
+	}
+
+	public void write(FinalizedData fd) {
+		this.write(null, fd);
+	}
+
+	// write a record preceded by a "# <header>" line (e.g. frame numbers)
+	public void write(String header, FinalizedData fd) {
+		if (this.failed) {
+			return;
+		}
+		try {
+			String record = header != null ? "# " + header + "\n" + fd.stringify() : fd.stringify();
+			byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+			this.out.write(bytes);
+			this.bytesWritten += bytes.length;
+			this.recordsWritten++;
+		} catch (IOException e) {
+			this.fail(e);
+		}
+	}
+
+	// everything up to position has been written; syncs every syncInterval marks
+	public void mark(long position) {
+		this.position = position;
+		this.markedBytes = this.bytesWritten;
+		this.marksSinceSync++;
+		if (this.marksSinceSync >= this.syncInterval) {
+			this.sync();
+		}
+	}
+
+	// flush, fsync and update the progress marker (to the last mark)
+	public void sync() {
+		if (this.failed) {
+			return;
+		}
+		try {
+			this.out.flush();
+			this.channel.force(false);
+			this.writeProgress();
+			this.marksSinceSync = 0;
+		} catch (IOException e) {
+			this.fail(e);
+		}
+	}
+
+	// the run produced all its output (call before close() on success only)
+	public void finish() {
+		this.complete = true;
+		this.sync();
+	}
+
+	public void close() {
+		this.sync();
+		try {
+			this.out.close();
+		} catch (IOException e) {
+			this.fail(e);
+		}
+	}
+
+	protected void fail(IOException e) {
+		if (!this.failed) {
+			Utils.pl("FinalizedDataWriter: writing " + this.filename + " failed");
+			e.printStackTrace();
+		}
+		this.failed = true;
+	}
+
+	// write the marker to a temp file and move it into place so a crash never
+	// leaves a partial marker
+	protected void writeProgress() throws IOException {
+		File tmp = new File(this.progressFile.getPath() + ".tmp");
+		FileWriter fw = new FileWriter(tmp);
+		fw.write("position=" + this.position + "\n");
+		fw.write("bytes=" + this.markedBytes + "\n");
+		fw.write("complete=" + this.complete + "\n");
+		fw.close();
+		Files.move(tmp.toPath(), this.progressFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// {position, bytes, complete (0/1)}
+	protected static long[] readProgress(File progressFile) throws IOException {
+		long[] progress = { 0, 0, 0 };
+		BufferedReader br = new BufferedReader(new FileReader(progressFile));
+		String line;
+		while ((line = br.readLine()) != null) {
+			if (line.startsWith("position=")) {
+				progress[0] = Long.parseLong(line.substring("position=".length()).trim());
+			} else if (line.startsWith("bytes=")) {
+				progress[1] = Long.parseLong(line.substring("bytes=".length()).trim());
+			} else if (line.startsWith("complete=")) {
+				progress[2] = Boolean.parseBoolean(line.substring("complete=".length()).trim()) ? 1 : 0;
+			}
+		}
+		br.close();
+		return progress;
+	}
+
+}
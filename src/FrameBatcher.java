@@ -0,0 +1,123 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+// Streams windows of consecutive frames from a Buffer<FramePack>: window k
+// holds frames [k * stride, k * stride + batchSize). stride == batchSize gives
+// the plain back-to-back batches, stride < batchSize overlapping ones and
+// stride > batchSize skips frames between batches.
+//
+// Only the frames of the current window are held. Once the caller is done
+// with a batch, done() releases the frames that no later window uses, so
+// memory stays at about batchSize frames regardless of sequence length. As
+// before, a trailing window with fewer than 2 frames is dropped.
+public class FrameBatcher {
+
+	public static class Batch {
+		// sequence index of the first frame
+		public int start;
+		public List<FramePack> frames;
+
+		public int size() {
+			return this.frames.size();
+		}
+
+		public FramePack get(int i) {
+			return this.frames.get(i);
+		}
+	}
+
+	protected Buffer<FramePack> buffer;
+	protected int batchSize;
+	protected int stride;
+
+	// frames [windowStart, windowStart + window.size()) of the sequence
+	protected ArrayDeque<FramePack> window = new ArrayDeque<FramePack>();
+	protected int windowStart = 0;
+	protected int nextStart = 0;
+	protected boolean exhausted = false;
+
+	public FrameBatcher(Buffer<FramePack> buffer, int batchSize, int stride) {
+		this.buffer = buffer;
+		this.batchSize = Math.max(batchSize, 1);
+		this.stride = Math.max(stride, 1);
+	}
+
+	// next window, or null once the sequence is exhausted
+	public Batch next() {
+
+		// drop frames before the window (only when stride > batchSize)
+		while (this.windowStart < this.nextStart) {
+			FramePack frame = this.window.isEmpty() ? this.pull() : this.window.pollFirst();
+			if (frame == null) {
+				return null;
+			}
+			frame.release();
+			this.windowStart++;
+		}
+
+		// fill the window
+		while (this.window.size() < this.batchSize) {
+			FramePack frame = this.pull();
+			if (frame == null) {
+				break;
+			}
+			this.window.addLast(frame);
+		}
+
+		if (this.window.size() < 2) {
+			this.releaseAll();
+			return null;
+		}
+
+		Batch batch = new Batch();
+		batch.start = this.windowStart;
+		batch.frames = new ArrayList<FramePack>(this.window);
+		this.nextStart = this.windowStart + this.stride;
+		return batch;
+	}
+
+	// release the frames of batch that later windows don't share
+	public void done(Batch batch) {
+		while (this.windowStart < this.nextStart && !this.window.isEmpty()) {
+			this.window.pollFirst().release();
+			this.windowStart++;
+		}
+		if (this.exhausted && this.window.size() < 2) {
+			this.releaseAll();
+		}
+	}
+
+	// number of (first frame, other frame) pairs over all windows of a sequence
+	// of numFrames frames
+	public static int countPairs(int numFrames, int batchSize, int stride) {
+		int pairs = 0;
+		for (int start = 0; start < numFrames; start += Math.max(stride, 1)) {
+			int size = Math.min(batchSize, numFrames - start);
+			if (size < 2) {
+				break;
+			}
+			pairs += size - 1;
+		}
+		return pairs;
+	}
+
+	protected FramePack pull() {
+		if (this.exhausted) {
+			return null;
+		}
+		FramePack frame = this.buffer.getNext();
+		if (frame == null) {
+			this.exhausted = true;
+		}
+		return frame;
+	}
+
+	protected void releaseAll() {
+		while (!this.window.isEmpty()) {
+			this.window.pollFirst().release();
+			this.windowStart++;
+		}
+	}
+
+}
@@ -0,0 +1,306 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+// On-disk cache of decoded TUM frames, one file per sequence
+// ("<sequence>/frames.cache", or "<dir>/<sequence>.frames.cache" with
+// -DframeCache.dir=<dir>). It is off unless -DframeCache=true is given (or
+// ENABLED is set) and the TUMBuffer is created with useCache. Holds the processed (gray) frames and optionally
+// the raw RGB frames as raw planes, plus each frame's timestamp, so later runs
+// can memory map frames instead of decoding PNGs.
+//
+// Layout (little endian):
+//   8 bytes   magic "FRMCACH1"
+//   long      key (hash of rgb.txt, the frame list and the preprocessing settings)
+//   int       frame count, rows, cols, has raw frames (0/1)
+//   long[]    timestamps
+//   then count gray planes (rows * cols), then count RGB planes (rows * cols * 3)
+//
+// The cache is rebuilt whenever the key doesn't match. The planes are mapped
+// read-only, a few large segments for the whole file, so untouched frames are
+// clean page cache the OS can drop at any time. Frames are Mats over slices of
+// those segments: they must not be written to (see
+// FramePack.getWritableProcessedFrame()), and each FramePack holds its slices
+// until it is released.
+public class FrameCache {
+
+	public static final String FILENAME = "frames.cache";
+	public static final byte[] MAGIC = "FRMCACH1".getBytes(StandardCharsets.US_ASCII);
+	public static final int HEADER_SIZE = 32;
+
+	// opt in, and where to keep the cache files (null: next to rgb.txt)
+	public static boolean ENABLED = Boolean.getBoolean("frameCache");
+	public static String DIR = System.getProperty("frameCache.dir");
+
+	protected String filename;
+	protected RandomAccessFile raf;
+	protected FileChannel channel;
+
+	protected int count;
+	protected int rows;
+	protected int cols;
+	protected boolean hasRaw;
+	protected long[] timestamps;
+
+	// read-only mappings of the planes, segment s holds frames
+	// [s * framesPerSegment, (s + 1) * framesPerSegment)
+	protected int framesPerSegment;
+	protected MappedByteBuffer[] graySegments;
+	protected MappedByteBuffer[] rawSegments;
+
+	protected FrameCache() {
+
+	}
+
+	// open the cache for a sequence, building it first if it is missing or stale
+	public static FrameCache load(TUMBuffer buffer, List<String> frameData, boolean includeRaw) {
+		String filename = getFilename(buffer.filepath);
+		try {
+			long key = computeKey(buffer.filepath + "rgb.txt", frameData,
+					TUMBuffer.PREPROCESSING + ";raw=" + includeRaw);
+			FrameCache cache = open(filename, key);
+			if (cache == null) {
+				System.out.println("Building frame cache " + filename + "...");
+				build(buffer, frameData, includeRaw, key, filename);
+				cache = open(filename, key);
+			}
+			return cache;
+		} catch (Exception e) {
+			System.out.println("Problem loading frame cache in FrameCache::load(), decoding frames instead");
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	// cache file of the sequence in directory sequencePath
+	public static String getFilename(String sequencePath) {
+		if (DIR == null) {
+			return new File(sequencePath, FILENAME).getPath();
+		}
+		return new File(DIR, new File(sequencePath).getName() + "." + FILENAME).getPath();
+	}
+
+	// returns null if the file doesn't exist or was built for a different key
+	public static FrameCache open(String filename, long key) throws IOException {
+		if (!new File(filename).isFile()) {
+			return null;
+		}
+		RandomAccessFile raf = new RandomAccessFile(filename, "r");
+		FileChannel channel = raf.getChannel();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		channel.read(header, 0);
+		header.flip();
+
+		byte[] magic = new byte[MAGIC.length];
+		if (header.remaining() < HEADER_SIZE) {
+			raf.close();
+			return null;
+		}
+		header.get(magic);
+		if (!Arrays.equals(magic, MAGIC) || header.getLong() != key) {
+			raf.close();
+			return null;
+		}
+
+		FrameCache cache = new FrameCache();
+		cache.filename = filename;
+		cache.raf = raf;
+		cache.channel = channel;
+		cache.count = header.getInt();
+		cache.rows = header.getInt();
+		cache.cols = header.getInt();
+		cache.hasRaw = header.getInt() != 0;
+		if (cache.count <= 0 || cache.rows <= 0 || cache.cols <= 0) {
+			raf.close();
+			return null;
+		}
+
+		long expected = cache.rawOffset(cache.hasRaw ? cache.count : 0);
+		if (channel.size() != expected) {
+			raf.close();
+			return null;
+		}
+
+		ByteBuffer timestamps = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, (long) cache.count * 8)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		cache.timestamps = new long[cache.count];
+		timestamps.asLongBuffer().get(cache.timestamps);
+
+		// segments of whole frames, each under 2GB (the limit of a mapping)
+		long rawPlaneSize = (long) cache.rows * cache.cols * 3;
+		cache.framesPerSegment = (int) Math.max(1, Math.min(cache.count, Integer.MAX_VALUE / rawPlaneSize));
+		int numSegments = (cache.count + cache.framesPerSegment - 1) / cache.framesPerSegment;
+		cache.graySegments = new MappedByteBuffer[numSegments];
+		cache.rawSegments = new MappedByteBuffer[cache.hasRaw ? numSegments : 0];
+		for (int s = 0; s < numSegments; s++) {
+			int first = s * cache.framesPerSegment;
+			int last = Math.min(first + cache.framesPerSegment, cache.count);
+			cache.graySegments[s] = channel.map(FileChannel.MapMode.READ_ONLY, cache.grayOffset(first),
+					cache.grayOffset(last) - cache.grayOffset(first));
+			if (cache.hasRaw) {
+				cache.rawSegments[s] = channel.map(FileChannel.MapMode.READ_ONLY, cache.rawOffset(first),
+						cache.rawOffset(last) - cache.rawOffset(first));
+			}
+		}
+		return cache;
+	}
+
+	// decode every frame once and write the cache (to a temp file that is moved
+	// into place, so an interrupted build never leaves a valid looking cache)
+	protected static void build(TUMBuffer buffer, List<String> frameData, boolean includeRaw, long key,
+			String filename) throws IOException {
+		File tmp = new File(filename + ".tmp");
+		if (tmp.getParentFile() != null) {
+			tmp.getParentFile().mkdirs();
+		}
+		RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+		raf.setLength(0);
+		FileChannel channel = raf.getChannel();
+
+		FrameCache layout = new FrameCache();
+		layout.count = frameData.size();
+		long[] timestamps = new long[layout.count];
+		byte[] grayBytes = null;
+		byte[] rawBytes = null;
+
+		try {
+			for (int i = 0; i < layout.count; i++) {
+				if (i % 100 == 0) {
+					System.out.println(i + " frames cached...");
+				}
+				FramePack frame = buffer.decodeFrame(i);
+				Mat gray = frame.getProcessedFrame();
+				Mat raw = frame.getRawFrame();
+				if (i == 0) {
+					layout.rows = gray.rows();
+					layout.cols = gray.cols();
+					grayBytes = new byte[layout.rows * layout.cols];
+					rawBytes = new byte[layout.rows * layout.cols * 3];
+				} else if (gray.rows() != layout.rows || gray.cols() != layout.cols) {
+					throw new IOException("frame " + i + " is " + gray.cols() + "x" + gray.rows() + ", expected "
+							+ layout.cols + "x" + layout.rows);
+				}
+				timestamps[i] = frame.getTimestamp();
+
+				gray.get(0, 0, grayBytes);
+				writeFully(channel, ByteBuffer.wrap(grayBytes), layout.grayOffset(i));
+				if (includeRaw) {
+					raw.get(0, 0, rawBytes);
+					writeFully(channel, ByteBuffer.wrap(rawBytes), layout.rawOffset(i));
+				}
+				gray.release();
+				raw.release();
+			}
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + layout.count * 8).order(ByteOrder.LITTLE_ENDIAN);
+			header.put(MAGIC);
+			header.putLong(key);
+			header.putInt(layout.count);
+			header.putInt(layout.rows);
+			header.putInt(layout.cols);
+			header.putInt(includeRaw ? 1 : 0);
+			for (int i = 0; i < layout.count; i++) {
+				header.putLong(timestamps[i]);
+			}
+			header.flip();
+			writeFully(channel, header, 0);
+			raf.setLength(layout.rawOffset(includeRaw ? layout.count : 0));
+			channel.force(true);
+		} finally {
+			raf.close();
+		}
+
+		Files.move(tmp.toPath(), Paths.get(filename), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	protected static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+
+	// hash of the rgb.txt contents, the frames actually used (frameLimit) and the
+	// preprocessing settings
+	public static long computeKey(String rgbFile, List<String> frameData, String settings) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		digest.update(Files.readAllBytes(Paths.get(rgbFile)));
+		for (int i = 0; i < frameData.size(); i++) {
+			digest.update(frameData.get(i).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) '\n');
+		}
+		digest.update(settings.getBytes(StandardCharsets.UTF_8));
+		return ByteBuffer.wrap(digest.digest()).getLong();
+	}
+
+	protected long grayOffset(int i) {
+		return HEADER_SIZE + (long) this.count * 8 + (long) i * this.rows * this.cols;
+	}
+
+	protected long rawOffset(int i) {
+		return this.grayOffset(this.count) + (long) i * this.rows * this.cols * 3;
+	}
+
+	public int size() {
+		return this.count;
+	}
+
+	public boolean hasRawFrames() {
+		return this.hasRaw;
+	}
+
+	public long getTimestamp(int i) {
+		return this.timestamps[i];
+	}
+
+	// slice of the mapped plane of frame i
+	protected ByteBuffer getPlane(MappedByteBuffer[] segments, int i, int planeSize) {
+		ByteBuffer plane = segments[i / this.framesPerSegment].duplicate();
+		int offset = (i % this.framesPerSegment) * planeSize;
+		plane.position(offset);
+		plane.limit(offset + planeSize);
+		return plane.slice();
+	}
+
+	// frame i with read-only Mats backed by the mapped file (the raw frame is
+	// null if the cache was built without raw frames)
+	public FramePack getFrame(int i) {
+		FramePack frame = new FramePack();
+		frame.setTimestamp(this.timestamps[i]);
+
+		ByteBuffer gray = this.getPlane(this.graySegments, i, this.rows * this.cols);
+		frame.setProcessedFrame(new Mat(this.rows, this.cols, CvType.CV_8UC1, gray), gray);
+		if (this.hasRaw) {
+			ByteBuffer raw = this.getPlane(this.rawSegments, i, this.rows * this.cols * 3);
+			frame.setRawFrame(new Mat(this.rows, this.cols, CvType.CV_8UC3, raw), raw);
+		}
+		return frame;
+	}
+
+	// drop the cache's mappings (they are unmapped once the frames handed out
+	// are released too) and close the file
+	public void close() {
+		this.graySegments = new MappedByteBuffer[0];
+		this.rawSegments = new MappedByteBuffer[0];
+		try {
+			this.raf.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
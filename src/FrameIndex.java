@@ -0,0 +1,70 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Index of a TUM sequence's rgb.txt: frame timestamps and image paths (relative
+// to the sequence directory), parsed once and shared by TUMBuffer and
+// GroundTruthLoader.
+public class FrameIndex extends TimestampIndex {
+
+	protected String[] paths = new String[0];
+
+	// the original (trimmed) rgb.txt lines, e.g.
+	// "1305031452.791720 rgb/1305031452.791720.png"
+	protected List<String> lines = new ArrayList<String>();
+
+	public static FrameIndex load(String datasetPath) throws IOException {
+		return load(datasetPath, Long.MAX_VALUE);
+	}
+
+	// read at most limit frames
+	public static FrameIndex load(String datasetPath, long limit) throws IOException {
+		if (datasetPath.charAt(datasetPath.length() - 1) != '/') {
+			datasetPath = datasetPath + "/";
+		}
+
+		FrameIndex index = new FrameIndex();
+		BufferedReader br = new BufferedReader(new FileReader(datasetPath + "rgb.txt"));
+		try {
+			String line;
+			while ((line = br.readLine()) != null && index.size < limit) {
+				if (isComment(line)) {
+					continue;
+				}
+				line = line.trim();
+				int split = line.indexOf(' ');
+				index.ensureCapacity(index.size + 1);
+				index.timestamps[index.size] = toMicroseconds(Double.parseDouble(line.substring(0, split)));
+				index.paths[index.size] = line.substring(split + 1).trim();
+				index.lines.add(line);
+				index.size++;
+			}
+		} finally {
+			br.close();
+		}
+		return index;
+	}
+
+	@Override
+	protected void grow(int capacity) {
+		super.grow(capacity);
+		this.paths = Arrays.copyOf(this.paths, capacity);
+	}
+
+	public String getPath(int i) {
+		return this.paths[i];
+	}
+
+	public List<String> getLines() {
+		return this.lines;
+	}
+
+	// timestamps of all frames (a copy)
+	public long[] getTimestamps() {
+		return Arrays.copyOf(this.timestamps, this.size);
+	}
+
+}
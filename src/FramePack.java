@@ -1,5 +1,7 @@
 
 
+import java.nio.ByteBuffer;
+
 import org.opencv.core.Mat;
 
 // bundles a raw frame and its processed frame (the raw frame that has undergone some degree of preprocessing for tracking)
@@ -8,9 +10,16 @@ public class FramePack {
 	private long timestamp = 0;
 	private Mat rawFrame = null;
 	private Mat processedFrame = null;
+
+	// Java copies of the frames, only made when a consumer asks for them
 	private byte[] rawFrameBuffer = null;
 	private byte[] processedFrameBuffer = null;
 
+	// read-only mapped memory behind the Mats, null for Mats that own their
+	// data (see FrameCache)
+	private ByteBuffer rawMapping = null;
+	private ByteBuffer processedMapping = null;
+
 	public long getTimestamp() {
 		return timestamp;
 	}
@@ -24,7 +33,14 @@ public class FramePack {
 	}
 
 	public void setRawFrame(Mat rawFrame) {
+		this.setRawFrame(rawFrame, null);
+	}
+
+	// a frame backed by mapped memory, which is kept until release()
+	public void setRawFrame(Mat rawFrame, ByteBuffer mapping) {
 		this.rawFrame = rawFrame;
+		this.rawMapping = mapping;
+		this.rawFrameBuffer = null;
 	}
 
 	public Mat getProcessedFrame() {
@@ -32,10 +48,32 @@ public class FramePack {
 	}
 
 	public void setProcessedFrame(Mat processedFrame) {
+		this.setProcessedFrame(processedFrame, null);
+	}
+
+	public void setProcessedFrame(Mat processedFrame, ByteBuffer mapping) {
 		this.processedFrame = processedFrame;
+		this.processedMapping = mapping;
+		this.processedFrameBuffer = null;
 	}
 
+	// the processed frame, for callers that modify it in place. A mapped frame
+	// is read-only, so it is first replaced by a native copy (later calls to
+	// getProcessedFrame() return the copy too)
+	public Mat getWritableProcessedFrame() {
+		if (processedMapping != null) {
+			Mat copy = processedFrame.clone();
+			processedFrame.release();
+			setProcessedFrame(copy);
+		}
+		return processedFrame;
+	}
+
+	// copied from the raw frame on first use
 	public byte[] getRawFrameBuffer() {
+		if (rawFrameBuffer == null && rawFrame != null) {
+			rawFrameBuffer = toBuffer(rawFrame);
+		}
 		return rawFrameBuffer;
 	}
 
@@ -43,7 +81,11 @@ public class FramePack {
 		this.rawFrameBuffer = rawFrameBuffer;
 	}
 
+	// copied from the processed frame on first use
 	public byte[] getProcessedFrameBuffer() {
+		if (processedFrameBuffer == null && processedFrame != null) {
+			processedFrameBuffer = toBuffer(processedFrame);
+		}
 		return processedFrameBuffer;
 	}
 
@@ -51,4 +93,52 @@ public class FramePack {
 		this.processedFrameBuffer = processedFrameBuffer;
 	}
 
+	public boolean isMapped() {
+		return rawMapping != null || processedMapping != null;
+	}
+
+	// bytes held by the Mats in native memory (mapped Mats don't count)
+	public long getNativeBytes() {
+		return (rawMapping == null ? matBytes(rawFrame) : 0) + (processedMapping == null ? matBytes(processedFrame) : 0);
+	}
+
+	// bytes of the Mats that live in a mapped file (paged in by the OS on demand)
+	public long getMappedBytes() {
+		return (rawMapping != null ? matBytes(rawFrame) : 0) + (processedMapping != null ? matBytes(processedFrame) : 0);
+	}
+
+	// bytes held by the Java buffer copies
+	public long getHeapBytes() {
+		return (rawFrameBuffer == null ? 0 : rawFrameBuffer.length)
+				+ (processedFrameBuffer == null ? 0 : processedFrameBuffer.length);
+	}
+
+	// drop the Java buffer copies (they are recreated on demand)
+	public void releaseBuffers() {
+		rawFrameBuffer = null;
+		processedFrameBuffer = null;
+	}
+
+	public void release() {
+		releaseBuffers();
+		if (rawFrame != null) {
+			rawFrame.release();
+		}
+		if (processedFrame != null) {
+			processedFrame.release();
+		}
+		rawMapping = null;
+		processedMapping = null;
+	}
+
+	private static long matBytes(Mat mat) {
+		return mat == null ? 0 : mat.total() * mat.elemSize();
+	}
+
+	private static byte[] toBuffer(Mat mat) {
+		byte[] buffer = new byte[(int) (mat.total() * mat.elemSize())];
+		mat.get(0, 0, buffer);
+		return buffer;
+	}
+
 }
@@ -0,0 +1,152 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+// Bounded, lock-free ring for a sequence of items produced out of order by
+// several threads and consumed in order by a single thread. Item i lives in
+// slot i % capacity; a producer holding item i waits until the consumer has
+// taken item i - capacity, so at most capacity items are ever buffered.
+//
+// Waiting is done by parking briefly and re-checking; the time spent waiting
+// is accumulated for both sides (consumer stalls mean decode is the
+// bottleneck, producer stalls mean processing is).
+public class FrameRing<T> {
+
+	public static final long PARK_NANOS = 50000;
+
+	protected final int capacity;
+	protected final AtomicReferenceArray<T> slots;
+
+	// index of the next item to take (only written by the consumer)
+	protected volatile long head = 0;
+	protected volatile boolean closed = false;
+
+	// stats
+	protected final AtomicInteger depth = new AtomicInteger(0);
+	protected final AtomicInteger maxDepth = new AtomicInteger(0);
+	protected final AtomicLong producerStallNanos = new AtomicLong(0);
+	protected long consumerStallNanos = 0;
+	protected long taken = 0;
+
+	public FrameRing(int capacity) {
+		this.capacity = Math.max(capacity, 1);
+		this.slots = new AtomicReferenceArray<T>(this.capacity);
+	}
+
+	// store item number index, waiting for its slot to free up. Returns false if
+	// the ring was closed (the item was not stored and still belongs to the
+	// caller).
+	public boolean put(long index, T item) {
+		if (index >= this.head + this.capacity) {
+			long start = System.nanoTime();
+			while (index >= this.head + this.capacity) {
+				if (this.closed) {
+					return false;
+				}
+				LockSupport.parkNanos(PARK_NANOS);
+			}
+			this.producerStallNanos.addAndGet(System.nanoTime() - start);
+		}
+		if (this.closed) {
+			return false;
+		}
+		int current = this.depth.incrementAndGet();
+		int max;
+		while (current > (max = this.maxDepth.get()) && !this.maxDepth.compareAndSet(max, current)) {
+		}
+		int slot = (int) (index % this.capacity);
+		this.slots.set(slot, item);
+
+		// closed meanwhile: take the item back unless drain() already got it
+		if (this.closed && this.slots.compareAndSet(slot, item, null)) {
+			this.depth.decrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	// take the next item in sequence, waiting for it if necessary. Returns null
+	// if the ring was closed before it arrived.
+	public T take() {
+		int slot = (int) (this.head % this.capacity);
+		T item = this.slots.get(slot);
+		if (item == null) {
+			long start = System.nanoTime();
+			while ((item = this.slots.get(slot)) == null) {
+				if (this.closed) {
+					return null;
+				}
+				LockSupport.parkNanos(PARK_NANOS);
+			}
+			this.consumerStallNanos += System.nanoTime() - start;
+		}
+		this.slots.set(slot, null);
+		this.depth.decrementAndGet();
+		this.taken++;
+		this.head = this.head + 1;
+		return item;
+	}
+
+	// visit the items currently buffered (a snapshot, items may be taken or
+	// added concurrently)
+	public void forEachBuffered(Consumer<T> action) {
+		for (int i = 0; i < this.capacity; i++) {
+			T item = this.slots.get(i);
+			if (item != null) {
+				action.accept(item);
+			}
+		}
+	}
+
+	// wake up and release any waiting producer or consumer
+	public void close() {
+		this.closed = true;
+	}
+
+	// close, and hand the items still buffered to action (e.g. to release
+	// them). Producers that put() after this are refused, see put()
+	public void drain(Consumer<T> action) {
+		this.close();
+		for (int i = 0; i < this.capacity; i++) {
+			T item = this.slots.getAndSet(i, null);
+			if (item != null) {
+				this.depth.decrementAndGet();
+				action.accept(item);
+			}
+		}
+	}
+
+	public boolean isClosed() {
+		return this.closed;
+	}
+
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	// items currently buffered and ready to take
+	public int getDepth() {
+		return this.depth.get();
+	}
+
+	public int getMaxDepth() {
+		return this.maxDepth.get();
+	}
+
+	public long getTaken() {
+		return this.taken;
+	}
+
+	// total time the consumer spent waiting for items (consumer thread only)
+	public long getConsumerStallNanos() {
+		return this.consumerStallNanos;
+	}
+
+	// total time producers spent waiting for free slots (summed over threads)
+	public long getProducerStallNanos() {
+		return this.producerStallNanos.get();
+	}
+
+}
@@ -0,0 +1,290 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Index of a TUM groundtruth.txt ("timestamp tx ty tz qx qy qz qw") held in
+// primitive arrays, with nearest and interpolated (linear translation, SLERP
+// rotation) pose lookups at arbitrary timestamps.
+//
+// Optionally a binary sidecar ("groundtruth.txt.idx") is written next to the
+// text file and reused while the text file's length and modification time are
+// unchanged.
+public class GroundTruthIndex extends TimestampIndex {
+
+	public static final String SIDECAR_SUFFIX = ".idx";
+	public static final byte[] MAGIC = "GTINDEX1".getBytes(StandardCharsets.US_ASCII);
+	public static final int HEADER_SIZE = 32;
+
+	// below this angle (radians) SLERP falls back to normalized linear
+	// interpolation
+	public static final double SLERP_EPSILON = 1e-6;
+
+	// raw groundtruth values
+	protected double[] tx = new double[0];
+	protected double[] ty = new double[0];
+	protected double[] tz = new double[0];
+	protected double[] qx = new double[0];
+	protected double[] qy = new double[0];
+	protected double[] qz = new double[0];
+	protected double[] qw = new double[0];
+
+	public static GroundTruthIndex load(String datasetPath) throws IOException {
+		return load(datasetPath, false);
+	}
+
+	public static GroundTruthIndex load(String datasetPath, boolean useSidecar) throws IOException {
+		if (datasetPath.charAt(datasetPath.length() - 1) != '/') {
+			datasetPath = datasetPath + "/";
+		}
+		File source = new File(datasetPath + "groundtruth.txt");
+		File sidecar = new File(source.getPath() + SIDECAR_SUFFIX);
+
+		if (useSidecar) {
+			GroundTruthIndex index = readSidecar(sidecar, source);
+			if (index != null) {
+				return index;
+			}
+		}
+
+		GroundTruthIndex index = parse(source);
+
+		if (useSidecar) {
+			try {
+				index.writeSidecar(sidecar, source);
+			} catch (IOException e) {
+				System.out.println("Problem writing ground truth sidecar " + sidecar);
+				e.printStackTrace();
+			}
+		}
+		return index;
+	}
+
+	protected static GroundTruthIndex parse(File source) throws IOException {
+		GroundTruthIndex index = new GroundTruthIndex();
+		double[] fields = new double[8];
+		BufferedReader br = new BufferedReader(new FileReader(source));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (isComment(line)) {
+					continue;
+				}
+				if (parseFields(line, fields) < 8) {
+					throw new IOException("malformed ground truth line: " + line);
+				}
+				int i = index.size;
+				index.ensureCapacity(i + 1);
+				index.timestamps[i] = toMicroseconds(fields[0]);
+				index.tx[i] = fields[1];
+				index.ty[i] = fields[2];
+				index.tz[i] = fields[3];
+				index.qx[i] = fields[4];
+				index.qy[i] = fields[5];
+				index.qz[i] = fields[6];
+				index.qw[i] = fields[7];
+				index.size++;
+			}
+		} finally {
+			br.close();
+		}
+		return index;
+	}
+
+	@Override
+	protected void grow(int capacity) {
+		super.grow(capacity);
+		this.tx = Arrays.copyOf(this.tx, capacity);
+		this.ty = Arrays.copyOf(this.ty, capacity);
+		this.tz = Arrays.copyOf(this.tz, capacity);
+		this.qx = Arrays.copyOf(this.qx, capacity);
+		this.qy = Arrays.copyOf(this.qy, capacity);
+		this.qz = Arrays.copyOf(this.qz, capacity);
+		this.qw = Arrays.copyOf(this.qw, capacity);
+	}
+
+	// ground truth sample i as a Pose (same convention GroundTruthLoader has
+	// always used)
+	public Pose getPose(int i) {
+		return makePose(this.timestamps[i], this.tx[i], this.ty[i], this.tz[i], this.qx[i], this.qy[i], this.qz[i],
+				this.qw[i]);
+	}
+
+	// pose at an arbitrary time: either the nearest sample or interpolated
+	// between the two samples around it (clamped to the first/last sample)
+	public Pose getPoseAt(long time, boolean interpolate) {
+		if (this.size == 0) {
+			return null;
+		}
+		if (!interpolate) {
+			return this.getPose(this.nearest(time));
+		}
+
+		int lower = this.floor(time);
+		if (lower < 0) {
+			return this.getPose(0);
+		}
+		if (lower == this.size - 1 || this.timestamps[lower] == time) {
+			return this.getPose(lower);
+		}
+		int upper = lower + 1;
+		double alpha = (double) (time - this.timestamps[lower]) / (this.timestamps[upper] - this.timestamps[lower]);
+
+		double x = this.tx[lower] + alpha * (this.tx[upper] - this.tx[lower]);
+		double y = this.ty[lower] + alpha * (this.ty[upper] - this.ty[lower]);
+		double z = this.tz[lower] + alpha * (this.tz[upper] - this.tz[lower]);
+
+		double[] q = slerp(this.qx[lower], this.qy[lower], this.qz[lower], this.qw[lower], this.qx[upper],
+				this.qy[upper], this.qz[upper], this.qw[upper], alpha);
+
+		return makePose(time, x, y, z, q[0], q[1], q[2], q[3]);
+	}
+
+	// one pose per frame
+	public List<Pose> associate(FrameIndex frames, boolean interpolate) {
+		List<Pose> poses = new ArrayList<Pose>(frames.size());
+		for (int i = 0; i < frames.size(); i++) {
+			poses.add(this.getPoseAt(frames.getTimestamp(i), interpolate));
+		}
+		return poses;
+	}
+
+	// spherical linear interpolation between unit quaternions (x, y, z, w),
+	// along the shorter arc
+	public static double[] slerp(double ax, double ay, double az, double aw, double bx, double by, double bz,
+			double bw, double alpha) {
+		double dot = ax * bx + ay * by + az * bz + aw * bw;
+		if (dot < 0) {
+			dot = -dot;
+			bx = -bx;
+			by = -by;
+			bz = -bz;
+			bw = -bw;
+		}
+
+		double wa;
+		double wb;
+		double theta = Math.acos(Math.min(dot, 1));
+		if (theta < SLERP_EPSILON) {
+			wa = 1 - alpha;
+			wb = alpha;
+		} else {
+			double sinTheta = Math.sin(theta);
+			wa = Math.sin((1 - alpha) * theta) / sinTheta;
+			wb = Math.sin(alpha * theta) / sinTheta;
+		}
+
+		double[] q = { wa * ax + wb * bx, wa * ay + wb * by, wa * az + wb * bz, wa * aw + wb * bw };
+		double mag = Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+		for (int i = 0; i < 4; i++) {
+			q[i] /= mag;
+		}
+		return q;
+	}
+
+	protected static Pose makePose(long time, double tx, double ty, double tz, double qx, double qy, double qz,
+			double qw) {
+		Pose pose = new Pose();
+		pose.setTimestamp(time);
+		pose.setQw(qw);
+		pose.setQx(qx);
+		pose.setQy(qy);
+		pose.setQz(qz);
+		pose.setT(-tx, -ty, -tz);
+		return pose;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//////////////////////////////// SIDECAR //////////////////////////////////////
+	///////////////////////////////////////////////////////////////////////////////
+
+	// layout (little endian): magic, long source length, long source modified
+	// time, int count, int reserved, then the timestamps and the 7 value columns
+	protected static GroundTruthIndex readSidecar(File sidecar, File source) {
+		if (!sidecar.isFile()) {
+			return null;
+		}
+		try {
+			RandomAccessFile raf = new RandomAccessFile(sidecar, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				ByteBuffer buffer = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+				while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				}
+				buffer.flip();
+
+				byte[] magic = new byte[MAGIC.length];
+				buffer.get(magic);
+				if (!Arrays.equals(magic, MAGIC) || buffer.getLong() != source.length()
+						|| buffer.getLong() != source.lastModified()) {
+					return null;
+				}
+				int count = buffer.getInt();
+				buffer.getInt();
+				if (buffer.remaining() != count * 8 * 8) {
+					return null;
+				}
+
+				GroundTruthIndex index = new GroundTruthIndex();
+				index.grow(count);
+				index.size = count;
+				buffer.asLongBuffer().get(index.timestamps);
+				buffer.position(buffer.position() + count * 8);
+				double[][] columns = { index.tx, index.ty, index.tz, index.qx, index.qy, index.qz, index.qw };
+				for (double[] column : columns) {
+					buffer.asDoubleBuffer().get(column);
+					buffer.position(buffer.position() + count * 8);
+				}
+				return index;
+			} finally {
+				raf.close();
+			}
+		} catch (Exception e) {
+			System.out.println("Problem reading ground truth sidecar " + sidecar + ", parsing text instead");
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	protected void writeSidecar(File sidecar, File source) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + this.size * 8 * 8).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put(MAGIC);
+		buffer.putLong(source.length());
+		buffer.putLong(source.lastModified());
+		buffer.putInt(this.size);
+		buffer.putInt(0);
+		buffer.asLongBuffer().put(this.timestamps, 0, this.size);
+		buffer.position(buffer.position() + this.size * 8);
+		double[][] columns = { this.tx, this.ty, this.tz, this.qx, this.qy, this.qz, this.qw };
+		for (double[] column : columns) {
+			buffer.asDoubleBuffer().put(column, 0, this.size);
+			buffer.position(buffer.position() + this.size * 8);
+		}
+		buffer.flip();
+
+		File tmp = new File(sidecar.getPath() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} finally {
+			raf.close();
+		}
+		Files.move(tmp.toPath(), sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+}
@@ -0,0 +1,226 @@
+import java.util.Arrays;
+
+// Windowed Hamming matcher for packed ORB descriptors (4 longs each, see
+// ORBDescriptor).
+//
+// The reference keypoints are bucketed by their search position (where each
+// one is expected in the current frame) in a uniform grid with cells at least
+// the window wide. A query keypoint is only compared with the references in
+// the cells around it whose position is within the window (|dx|, |dy| <=
+// window), so matching costs about the number of keypoints times the
+// references per window instead of N * M.
+//
+// A single pass over the candidate pairs keeps, per query, its best and second
+// best distance, and per reference its best query. A pair is a match when it
+// is mutual (each is the other's best), its distance is below maxDistance and
+// the best is below ratio times the second best (ratio >= 1 disables that).
+// Matches come back in primitive arrays; all buffers are reused.
+public class GuidedMatcher {
+
+	public static final int CELLS_PER_POINT = 4;
+	public static final int MIN_CELLS = 1024;
+
+	// references
+	protected int numReferences = 0;
+	protected long[] referenceDescriptors = new long[0];
+	protected float[] referenceXs = new float[0];
+	protected float[] referenceYs = new float[0];
+
+	// grid over the references: cell c holds order[cellStart[c] .. cellStart[c + 1])
+	protected float minX, minY;
+	protected float cellSize = 1;
+	protected int cols = 0;
+	protected int rows = 0;
+	protected int[] cellStart = new int[1];
+	protected int[] cellCursor = new int[0];
+	protected int[] order = new int[0];
+	protected int[] cells = new int[0];
+
+	// per reference: best distance and query so far
+	protected int[] referenceBest = new int[0];
+	protected int[] referenceBestQuery = new int[0];
+
+	// per query: best and second best distance, best reference
+	protected int[] queryBest = new int[0];
+	protected int[] querySecond = new int[0];
+	protected int[] queryBestReference = new int[0];
+
+	// matches (valid up to numMatches)
+	protected int numMatches = 0;
+	protected int[] queryIndices = new int[0];
+	protected int[] referenceIndices = new int[0];
+	protected int[] distances = new int[0];
+
+	// Hamming distance between descriptor i of a and descriptor j of b
+	public static int distance(long[] a, int i, long[] b, int j) {
+		int ai = i * ORBDescriptor.NUM_LONGS;
+		int bj = j * ORBDescriptor.NUM_LONGS;
+		return Long.bitCount(a[ai] ^ b[bj]) + Long.bitCount(a[ai + 1] ^ b[bj + 1])
+				+ Long.bitCount(a[ai + 2] ^ b[bj + 2]) + Long.bitCount(a[ai + 3] ^ b[bj + 3]);
+	}
+
+	// set the references: n packed descriptors and their search positions. The
+	// arrays are used as they are (not copied) until the next call
+	public void setReferences(long[] descriptors, float[] xs, float[] ys, int n, float window) {
+		this.numReferences = n;
+		this.referenceDescriptors = descriptors;
+		this.referenceXs = xs;
+		this.referenceYs = ys;
+		this.ensureReferenceCapacity(n);
+		if (n == 0) {
+			this.cols = 0;
+			this.rows = 0;
+			return;
+		}
+
+		// grid over the bounding box, cells at least the window wide
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		this.minX = Float.MAX_VALUE;
+		this.minY = Float.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			this.minX = Math.min(this.minX, xs[i]);
+			this.minY = Math.min(this.minY, ys[i]);
+			maxX = Math.max(maxX, xs[i]);
+			maxY = Math.max(maxY, ys[i]);
+		}
+		this.cellSize = Math.max(window, 1);
+		long maxCells = Math.max((long) n * CELLS_PER_POINT, MIN_CELLS);
+		while ((long) ((maxX - this.minX) / this.cellSize + 1) * (long) ((maxY - this.minY) / this.cellSize + 1) > maxCells) {
+			this.cellSize *= 2;
+		}
+		this.cols = (int) ((maxX - this.minX) / this.cellSize) + 1;
+		this.rows = (int) ((maxY - this.minY) / this.cellSize) + 1;
+		int numCells = this.cols * this.rows;
+		if (this.cellCursor.length < numCells) {
+			this.cellStart = new int[numCells + 1];
+			this.cellCursor = new int[numCells];
+		}
+
+		// counting sort of the references by cell
+		Arrays.fill(this.cellStart, 0, numCells + 1, 0);
+		for (int i = 0; i < n; i++) {
+			int col = (int) ((xs[i] - this.minX) / this.cellSize);
+			int row = (int) ((ys[i] - this.minY) / this.cellSize);
+			this.cells[i] = row * this.cols + col;
+			this.cellStart[this.cells[i] + 1]++;
+		}
+		for (int c = 1; c <= numCells; c++) {
+			this.cellStart[c] += this.cellStart[c - 1];
+		}
+		System.arraycopy(this.cellStart, 0, this.cellCursor, 0, numCells);
+		for (int i = 0; i < n; i++) {
+			this.order[this.cellCursor[this.cells[i]]++] = i;
+		}
+	}
+
+	// match m query descriptors (at xs, ys) against the references within
+	// window of each. Returns the number of matches, see getQueryIndices(),
+	// getReferenceIndices() and getDistances()
+	public int match(long[] descriptors, float[] xs, float[] ys, int m, float window, int maxDistance,
+			float ratio) {
+		this.ensureQueryCapacity(m);
+		this.numMatches = 0;
+		Arrays.fill(this.referenceBest, 0, this.numReferences, Integer.MAX_VALUE);
+		Arrays.fill(this.referenceBestQuery, 0, this.numReferences, -1);
+		if (this.numReferences == 0) {
+			return 0;
+		}
+		int reach = (int) Math.ceil(window / this.cellSize);
+
+		for (int q = 0; q < m; q++) {
+			float x = xs[q];
+			float y = ys[q];
+			int best = Integer.MAX_VALUE;
+			int second = Integer.MAX_VALUE;
+			int bestReference = -1;
+
+			int col = (int) Math.floor((x - this.minX) / this.cellSize);
+			int row = (int) Math.floor((y - this.minY) / this.cellSize);
+			int rowMin = Math.max(row - reach, 0);
+			int rowMax = Math.min(row + reach, this.rows - 1);
+			int colMin = Math.max(col - reach, 0);
+			int colMax = Math.min(col + reach, this.cols - 1);
+			for (int r = rowMin; r <= rowMax; r++) {
+				for (int c = colMin; c <= colMax; c++) {
+					int cell = r * this.cols + c;
+					for (int k = this.cellStart[cell]; k < this.cellStart[cell + 1]; k++) {
+						int i = this.order[k];
+						if (Math.abs(this.referenceXs[i] - x) > window || Math.abs(this.referenceYs[i] - y) > window) {
+							continue;
+						}
+						int d = distance(descriptors, q, this.referenceDescriptors, i);
+						if (d < best) {
+							second = best;
+							best = d;
+							bestReference = i;
+						} else if (d < second) {
+							second = d;
+						}
+						if (d < this.referenceBest[i]) {
+							this.referenceBest[i] = d;
+							this.referenceBestQuery[i] = q;
+						}
+					}
+				}
+			}
+			this.queryBest[q] = best;
+			this.querySecond[q] = second;
+			this.queryBestReference[q] = bestReference;
+		}
+
+		// mutual best, threshold and ratio
+		for (int q = 0; q < m; q++) {
+			int i = this.queryBestReference[q];
+			if (i < 0 || this.referenceBestQuery[i] != q || this.queryBest[q] >= maxDistance) {
+				continue;
+			}
+			if (ratio < 1 && this.querySecond[q] != Integer.MAX_VALUE && this.queryBest[q] >= ratio * this.querySecond[q]) {
+				continue;
+			}
+			this.queryIndices[this.numMatches] = q;
+			this.referenceIndices[this.numMatches] = i;
+			this.distances[this.numMatches] = this.queryBest[q];
+			this.numMatches++;
+		}
+		return this.numMatches;
+	}
+
+	protected void ensureReferenceCapacity(int n) {
+		if (this.order.length < n) {
+			int capacity = Math.max(n, this.order.length * 3 / 2);
+			this.order = new int[capacity];
+			this.cells = new int[capacity];
+			this.referenceBest = new int[capacity];
+			this.referenceBestQuery = new int[capacity];
+		}
+	}
+
+	protected void ensureQueryCapacity(int m) {
+		if (this.queryBest.length < m) {
+			int capacity = Math.max(m, this.queryBest.length * 3 / 2);
+			this.queryBest = new int[capacity];
+			this.querySecond = new int[capacity];
+			this.queryBestReference = new int[capacity];
+			this.queryIndices = new int[capacity];
+			this.referenceIndices = new int[capacity];
+			this.distances = new int[capacity];
+		}
+	}
+
+	public int getNumMatches() {
+		return this.numMatches;
+	}
+
+	public int[] getQueryIndices() {
+		return this.queryIndices;
+	}
+
+	public int[] getReferenceIndices() {
+		return this.referenceIndices;
+	}
+
+	public int[] getDistances() {
+		return this.distances;
+	}
+
+}
@@ -1,15 +1,14 @@
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.opencv.core.Core;
 import org.opencv.core.DMatch;
 import org.opencv.core.KeyPoint;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfByte;
 import org.opencv.core.MatOfDMatch;
-import org.opencv.core.MatOfFloat;
 import org.opencv.core.MatOfKeyPoint;
 import org.opencv.core.MatOfPoint;
 import org.opencv.core.MatOfPoint2f;
@@ -22,7 +21,6 @@ import org.opencv.features2d.DescriptorMatcher;
 import org.opencv.features2d.FastFeatureDetector;
 import org.opencv.features2d.ORB;
 import org.opencv.imgproc.Imgproc;
-import org.opencv.video.Video;
 
 public class ImageData {
 
@@ -37,12 +35,45 @@ public class ImageData {
 
 	public static int MATCH_THRESHOLD = 50;
 
+	// best / second best distance a guided match must stay under (1 disables)
+	public static float MATCH_RATIO = 0.9f;
+
+	// stage metrics
+	protected static final Metrics.Timer PYRAMID_TIMER = Metrics.timer("pyramid");
+	protected static final Metrics.Timer FAST_TIMER = Metrics.timer("fast");
+	protected static final Metrics.Timer ANGLE_TIMER = Metrics.timer("angles");
+	protected static final Metrics.Timer GFTT_TIMER = Metrics.timer("gftt");
+	protected static final Metrics.Timer FLOW_TIMER = Metrics.timer("optical_flow");
+	protected static final Metrics.Counter KEYPOINT_COUNTER = Metrics.counter("keypoints.detected");
+	protected static final Metrics.Counter TRACKED_COUNTER = Metrics.counter("correspondences.tracked");
+
+	// non-max suppression buffers (ImageData is created per frame, possibly on
+	// several threads)
+	protected static final ThreadLocal<NMSGrid> nmsGrid = ThreadLocal.withInitial(NMSGrid::new);
+	protected static final ThreadLocal<FastGridDetector[]> fastDetectors = new ThreadLocal<FastGridDetector[]>();
+	protected static final ThreadLocal<ORBDescriptor> orbDescriptors = ThreadLocal.withInitial(ORBDescriptor::new);
+	protected static final ThreadLocal<GuidedMatcher> guidedMatchers = ThreadLocal.withInitial(GuidedMatcher::new);
+
+	// SSC engines by caller
+	protected static final int SSC_OCTAVE_28 = 0;
+	protected static final int SSC_OCTAVE_56 = 1;
+	protected static final int SSC_OCTAVE_112 = 2;
+	protected static final int SSC_FILTER = 3;
+	protected static final ThreadLocal<SSCEngine[]> sscEngines = ThreadLocal.withInitial(() -> new SSCEngine[4]);
+
 	protected List<Mat> masks = new ArrayList<Mat>();
 
 	protected Mat image = new Mat();
 	protected MatOfKeyPoint keypoints = new MatOfKeyPoint();
 	protected Mat descriptors = new Mat();
 
+	// descriptors packed 4 longs per keypoint (see ORBDescriptor), and the
+	// pyramid ORBExtractor detected the keypoints on (with its build count at
+	// that time)
+	protected long[] packedDescriptors = new long[0];
+	protected PyramidBuilder pyramid = null;
+	protected long pyramidBuild = -1;
+
 	public ImageData() {
 	}
 
@@ -76,6 +107,29 @@ public class ImageData {
 		orb.compute(this.image, this.keypoints, this.descriptors);
 	}
 
+	// rBRIEF descriptors of the keypoints, computed on the pyramid of
+	// ORBExtractor.setKeypoints. That pyramid is a thread's reused builder, so if
+	// it was built again (or released) since, it is rebuilt from this image on
+	// the calling thread's builder with the same settings. Without it a pyramid
+	// with ORB's settings is built here
+	public void computeFeatures() {
+		if (this.pyramid == null) {
+			this.buildPyramid(orb.getNLevels(), (float) orb.getScaleFactor(), EDGE_THRESHOLD);
+		} else if (this.pyramid.getBuildCount() != this.pyramidBuild) {
+			this.buildPyramid(this.pyramid.getNumLevels(), this.pyramid.getScaleFactor(), this.pyramid.getBorder());
+		}
+		List<KeyPoint> listKeypoints = this.keypoints.toList();
+		this.packedDescriptors = orbDescriptors.get().compute(this.pyramid, listKeypoints, this.packedDescriptors);
+		this.descriptors = ORBDescriptor.toMat(this.packedDescriptors, listKeypoints.size());
+	}
+
+	// build this image's pyramid on the calling thread's builder
+	protected void buildPyramid(int nLevels, float scaleFactor, int border) {
+		this.pyramid = PyramidBuilder.get(nLevels, scaleFactor, border);
+		this.pyramid.build(this.image);
+		this.pyramidBuild = this.pyramid.getBuildCount();
+	}
+
 	public void createDummyKeypoint() {
 		// given this keypoint:
 		// x: 407, y: 210, angle: 159.65936, size: 31
@@ -92,22 +146,18 @@ public class ImageData {
 		List<KeyPoint> listKeypoints = new ArrayList<KeyPoint>();
 		listKeypoints.add(keyp);
 
-		int[] patchSizes = { 31 };
-		HashMap<Integer, List<Integer>> u_max_map = this.getUMaxMap(patchSizes);
+		int[] u_max = OrientationEngine.getUMax(31);
 		Utils.pl("step1(): " + this.image.step1());
 		byte[] imgBuffer = new byte[this.image.rows() * this.image.cols()];
 		this.image.get(0, 0, imgBuffer);
 
 		Utils.pl("u_max(31): ");
-		for (int i = 0; i < u_max_map.get(31).size(); i++) {
-			Utils.p(u_max_map.get(31).get(i) + ", ");
+		for (int i = 0; i < u_max.length; i++) {
+			Utils.p(u_max[i] + ", ");
 		}
 		Utils.pl("");
 
-		long start = System.currentTimeMillis();
-		this.ICAngles2(imgBuffer, this.image.cols(), this.image.rows(), listKeypoints, u_max_map.get(31));
-		long end = System.currentTimeMillis();
-		Utils.pl("ICAngle time: " + (end - start) + "ms");
+		OrientationEngine.get(PATCH_SIZE).computeAnglesClamped(this.image, listKeypoints);
 
 		this.keypoints.fromList(listKeypoints);
 
@@ -130,10 +180,7 @@ public class ImageData {
 	public void detectHomogeneousFeatures2() {
 
 		// create pyramid
-		long start = System.currentTimeMillis();
 		List<Mat> pyramid = this.computePyramid(8, SCALE_FACTOR);
-		long end = System.currentTimeMillis();
-		Utils.pl("pyramid: " + (end - start) + "ms");
 
 		List<KeyPoint> keypts = this.getHomogeneousKeypoints(pyramid);
 		this.keypoints.fromList(keypts);
@@ -142,6 +189,7 @@ public class ImageData {
 
 	public List<Mat> computePyramid(int numLayers, double scaleFactor) {
 
+		long start = PYRAMID_TIMER.start();
 		List<Mat> pyramid = new ArrayList<Mat>();
 
 		// add layers to pyramid
@@ -175,6 +223,7 @@ public class ImageData {
 
 		}
 
+		PYRAMID_TIMER.stop(start);
 		return pyramid;
 
 	}
@@ -190,6 +239,12 @@ public class ImageData {
 		// number of rows and column in the grid
 		int W = 30;
 
+		// FAST over a grid of W pixel cells on every level, scored once per level
+		// (levels run in parallel when PyramidBuilder does)
+		long start = FAST_TIMER.start();
+		FastGridDetector[] detectors = getFastDetectors(pyramid.size());
+		detectFast(pyramid, detectors, W);
+
 		for (int level = 0; level < pyramid.size(); level++) {
 
 			allKeypoints.add(new ArrayList<KeyPoint>());
@@ -201,59 +256,9 @@ public class ImageData {
 
 			int minBorderX = 0;
 			int minBorderY = minBorderX;
-			int maxBorderX = pyramid.get(level).cols();
-			int maxBorderY = pyramid.get(level).rows();
-
-			float width = (maxBorderX - minBorderX);
-			float height = (maxBorderY - minBorderY);
-
-			int nCols = (int) width / W;
-			int nRows = (int) height / W;
-			int wCell = (int) Math.ceil(width / nCols);
-			int hCell = (int) Math.ceil(height / nRows);
-
-			// iterate through each cell
-			for (int i = 0; i < nRows; i++) {
-
-				int iniY = minBorderY + i * hCell;
-				int maxY = iniY + hCell + 6;
-
-				if (iniY >= maxBorderY - 3)
-					continue;
-				if (maxY > maxBorderY)
-					maxY = maxBorderY;
-
-				for (int j = 0; j < nCols; j++) {
-
-					int iniX = minBorderX + j * wCell;
-					int maxX = iniX + wCell + 6;
-					if (iniX >= maxBorderX - 6)
-						continue;
-					if (maxX > maxBorderX)
-						maxX = maxBorderX;
-
-					// get keypoints
-					MatOfKeyPoint cellKeypoints = new MatOfKeyPoint();
-					FastFeatureDetector fastDetector = FastFeatureDetector.create(iniFAST, true);
-					fastDetector.detect(pyramid.get(level).rowRange(iniY, maxY).colRange(iniX, maxX), cellKeypoints);
-
-					// if no features detected, lower FAST threshold
-					if (cellKeypoints.empty()) {
-						fastDetector = FastFeatureDetector.create(minFAST, true);
-						fastDetector.detect(pyramid.get(level).rowRange(iniY, maxY).colRange(iniX, maxX),
-								cellKeypoints);
-					}
-
-					// adjust point locations to map to the full layer
-					List<KeyPoint> listCellKeypoints = cellKeypoints.toList();
-					for (int kp = 0; kp < listCellKeypoints.size(); kp++) {
-						listCellKeypoints.get(kp).pt.x += j * wCell;
-						listCellKeypoints.get(kp).pt.y += i * hCell;
-						allKeypoints.get(level).add(listCellKeypoints.get(kp));
-					}
-
-				}
-			}
+
+			// keypoint locations are relative to the full layer
+			detectors[level].addKeypoints(allKeypoints.get(level));
 
 			// prune features
 //			allKeypoints.get(level).sort((kp1, kp2) -> (int) (kp2.response - kp1.response));
@@ -275,12 +280,14 @@ public class ImageData {
 
 		}
 
+		FAST_TIMER.stop(start);
+
 		// compute orientations
-		int[] patchSizes = { 31 };
-		HashMap<Integer, List<Integer>> u_max_map = this.getUMaxMap(patchSizes);
+		start = ANGLE_TIMER.start();
 		for (int level = 0; level < pyramid.size(); level++) {
-			this.computeOrientations(pyramid.get(level), allKeypoints.get(level), u_max_map.get(31));
+			this.computeOrientations(pyramid.get(level), allKeypoints.get(level));
 		}
+		ANGLE_TIMER.stop(start);
 
 		// scale up keypoints for descriptors
 		for (int level = 1; level < pyramid.size(); level++) {
@@ -302,38 +309,55 @@ public class ImageData {
 
 		nonMaxSuppression(keypts, 10);
 
+		KEYPOINT_COUNTER.add(keypts.size());
 		return keypts;
 
 	}
 
-	public void nonMaxSuppression(List<KeyPoint> sortedKeypoints, int blastRadius) {
-		for (int i = 0; i < sortedKeypoints.size() - 1; i++) {
-			KeyPoint kp1 = sortedKeypoints.get(i);
-			double x1 = kp1.pt.x;
-			double y1 = kp1.pt.y;
-
-			for (int j = i + 1; j < sortedKeypoints.size(); j++) {
-				KeyPoint kp2 = sortedKeypoints.get(j);
-				double x2 = kp2.pt.x;
-				double y2 = kp2.pt.y;
-				double dist = Math.sqrt((x1 - x2) * (x1 - x2) + (y1 - y2) * (y1 - y2));
-
-				// if too close to kp1, destroy the point
-				if (dist <= blastRadius) {
-					sortedKeypoints.remove(j);
-					j--;
-				}
+	// the calling thread's FAST detectors, one per pyramid level
+	protected static FastGridDetector[] getFastDetectors(int numLevels) {
+		FastGridDetector[] detectors = fastDetectors.get();
+		if (detectors == null || detectors.length < numLevels) {
+			FastGridDetector[] grown = new FastGridDetector[numLevels];
+			for (int level = 0; level < numLevels; level++) {
+				grown[level] = detectors != null && level < detectors.length ? detectors[level]
+						: new FastGridDetector();
 			}
-
+			detectors = grown;
+			fastDetectors.set(detectors);
 		}
+		return detectors;
 	}
 
-	public void computeOrientations(Mat img, List<KeyPoint> keypts, List<Integer> umax) {
-		byte[] imgBuffer = new byte[(img.cols() + 2 * EDGE_THRESHOLD) * (img.rows() + 2 * EDGE_THRESHOLD)];
+	// iniFAST per cell, minFAST where a cell comes up empty
+	protected static void detectFast(List<Mat> pyramid, FastGridDetector[] detectors, int cellSize) {
+		if (!PyramidBuilder.isParallel() || pyramid.size() == 1) {
+			for (int level = 0; level < pyramid.size(); level++) {
+				detectors[level].detect(pyramid.get(level), cellSize, iniFAST, minFAST);
+			}
+			return;
+		}
+		ExecutorService executor = PyramidBuilder.getExecutor();
+		List<Future<?>> pending = new ArrayList<Future<?>>();
+		for (int level = 1; level < pyramid.size(); level++) {
+			final int l = level;
+			pending.add(executor.submit(() -> detectors[l].detect(pyramid.get(l), cellSize, iniFAST, minFAST)));
+		}
+		detectors[0].detect(pyramid.get(0), cellSize, iniFAST, minFAST);
+		for (Future<?> future : pending) {
+			PyramidBuilder.join(future);
+		}
+	}
 
-		img.get(-EDGE_THRESHOLD, -EDGE_THRESHOLD, imgBuffer);
+	// remove keypoints within blastRadius of an earlier (kept) keypoint
+	public void nonMaxSuppression(List<KeyPoint> sortedKeypoints, int blastRadius) {
+		nmsGrid.get().suppressInPlace(sortedKeypoints, blastRadius, true);
+	}
 
-		ICAngles(imgBuffer, img.cols(), img.rows(), EDGE_THRESHOLD, keypts, umax);
+	// img is a level of computePyramid (bordered by EDGE_THRESHOLD), keypts are
+	// in level coordinates
+	public void computeOrientations(Mat img, List<KeyPoint> keypts) {
+		OrientationEngine.get(PATCH_SIZE).computeAngles(img, EDGE_THRESHOLD, keypts);
 	}
 
 	public void detectHomogeneousFeatures() {
@@ -356,23 +380,19 @@ public class ImageData {
 		fastDetector.detect(down56, keypoints56);
 		fastDetector.detect(down112, keypoints112);
 
-		// sort lists
-		List<KeyPoint> sorted28 = keypoints28.toList();
-		List<KeyPoint> sorted56 = keypoints56.toList();
-		List<KeyPoint> sorted112 = keypoints112.toList();
-		sorted28.sort((kp1, kp2) -> (int) (kp2.response - kp1.response));
-		sorted56.sort((kp1, kp2) -> (int) (kp2.response - kp1.response));
-		sorted112.sort((kp1, kp2) -> (int) (kp2.response - kp1.response));
-
-		// perform ssc filtering (https://github.com/BAILOOL/ANMS-Codes)
+		// perform ssc filtering (https://github.com/BAILOOL/ANMS-Codes), strongest
+		// keypoints first
 		int numRetPoints28 = 200;
 		int numRetPoints56 = 100;
 		int numRetPoints112 = 50;
 		float tolerance = (float) 0.1;
 
-		List<KeyPoint> sscKeyPoints28 = ssc(sorted28, numRetPoints28, tolerance, down28.cols(), down28.rows());
-		List<KeyPoint> sscKeyPoints56 = ssc(sorted56, numRetPoints56, tolerance, down56.cols(), down56.rows());
-		List<KeyPoint> sscKeyPoints112 = ssc(sorted112, numRetPoints112, tolerance, down112.cols(), down112.rows());
+		List<KeyPoint> sscKeyPoints28 = ssc(getSSCEngine(SSC_OCTAVE_28), keypoints28.toList(), true, numRetPoints28,
+				tolerance, down28.cols(), down28.rows());
+		List<KeyPoint> sscKeyPoints56 = ssc(getSSCEngine(SSC_OCTAVE_56), keypoints56.toList(), true, numRetPoints56,
+				tolerance, down56.cols(), down56.rows());
+		List<KeyPoint> sscKeyPoints112 = ssc(getSSCEngine(SSC_OCTAVE_112), keypoints112.toList(), true,
+				numRetPoints112, tolerance, down112.cols(), down112.rows());
 
 		// scale keypoints up to match the full sized image
 		for (int i = 0; i < sscKeyPoints28.size(); i++) {
@@ -403,147 +423,15 @@ public class ImageData {
 		sscKeyPoints28.addAll(sscKeyPoints56);
 		sscKeyPoints28.addAll(sscKeyPoints112);
 
-		int[] patchSizes = { 31, 62, 124 };
-		HashMap<Integer, List<Integer>> u_max_map = this.getUMaxMap(patchSizes);
-		byte[] imgBuffer = new byte[this.image.rows() * this.image.cols()];
-		this.image.get(0, 0, imgBuffer);
-
-		long start = System.currentTimeMillis();
-		this.ICAngles2(imgBuffer, this.image.cols(), this.image.rows(), sscKeyPoints28, u_max_map.get(31));
-		long end = System.currentTimeMillis();
-		Utils.pl("ICAngle time: " + (end - start) + "ms");
+		// angles on the full image, with each keypoint's own patch size
+		long start = ANGLE_TIMER.start();
+		OrientationEngine.get(PATCH_SIZE).computeAnglesClamped(this.image, sscKeyPoints28);
+		ANGLE_TIMER.stop(start);
 
 		this.keypoints.fromList(sscKeyPoints28);
 
 	}
 
-	public void ICAngles(byte[] imgBuffer, int imgWidth, int imgHeight, int margin, List<KeyPoint> pts,
-			List<Integer> u_max) {
-		int ptidx, ptsize = pts.size();
-		int width = imgWidth;
-		int height = imgHeight;
-
-		for (ptidx = 0; ptidx < ptsize; ptidx++) {
-
-//			int half_k = (int) (pts.get(ptidx).size / 2);
-			int half_k = PATCH_SIZE / 2;
-
-			int centerX = (int) pts.get(ptidx).pt.x;
-			int centerY = (int) pts.get(ptidx).pt.y;
-
-			int m_01 = 0, m_10 = 0;
-
-			// Treat the center line differently, v=0
-			for (int u = -half_k; u <= half_k; ++u) {
-				int x = u + centerX;
-				m_10 += x < 0 || x >= width ? 0
-						: u * imgBuffer[rowMajor(x + margin, centerY + margin, width + margin * 2)];
-			}
-
-			// Go line by line in the circular patch
-			for (int v = 1; v <= half_k; ++v) {
-				// Proceed over the two lines
-				int v_sum = 0;
-				int d = u_max.get(v);
-				for (int u = -d; u <= d; ++u) {
-					int x = centerX + u;
-					int y = centerY + v;
-
-					int val_plus = Byte.toUnsignedInt(imgBuffer[rowMajor(x + margin, y + margin, width + margin * 2)]);
-					y = centerY - v;
-					int val_minus = Byte.toUnsignedInt(imgBuffer[rowMajor(x + margin, y + margin, width + margin * 2)]);
-
-					v_sum += (val_plus - val_minus);
-					m_10 += u * (val_plus + val_minus);
-				}
-				m_01 += v * v_sum;
-			}
-
-			pts.get(ptidx).angle = (float) Core.fastAtan2((float) m_01, (float) m_10);
-		}
-	}
-
-	// pass in the full sized image buffer, width of the image, keypoints (with
-	// corrected xy values and sizes)
-	public void ICAngles2(byte[] imgBuffer, int imgWidth, int imgHeight, List<KeyPoint> pts, List<Integer> u_max) {
-		int ptidx, ptsize = pts.size();
-		int width = imgWidth;
-		int height = imgHeight;
-
-		for (ptidx = 0; ptidx < ptsize; ptidx++) {
-
-			int half_k = (int) (pts.get(ptidx).size / 2);
-
-			int centerX = (int) pts.get(ptidx).pt.x;
-			int centerY = (int) pts.get(ptidx).pt.y;
-
-			int m_01 = 0, m_10 = 0;
-
-			// Treat the center line differently, v=0
-			for (int u = -half_k; u <= half_k; ++u) {
-				int x = u + centerX;
-				m_10 += x < 0 || x >= width ? 0 : u * imgBuffer[rowMajor(x, centerY, width)];
-			}
-
-			// Go line by line in the circular patch
-			for (int v = 1; v <= half_k; ++v) {
-				// Proceed over the two lines
-				int v_sum = 0;
-				int d = u_max.get(v);
-				for (int u = -d; u <= d; ++u) {
-					int x = centerX + u;
-					int y = centerY + v;
-
-					int val_plus = x < 0 || y < 0 || x >= width || y >= height ? 0
-							: Byte.toUnsignedInt(imgBuffer[rowMajor(x, y, width)]);
-					y = centerY - v;
-					int val_minus = x < 0 || y < 0 || x >= width || y >= height ? 0
-							: Byte.toUnsignedInt(imgBuffer[rowMajor(x, y, width)]);
-
-					v_sum += (val_plus - val_minus);
-					m_10 += u * (val_plus + val_minus);
-				}
-				m_01 += v * v_sum;
-			}
-
-			pts.get(ptidx).angle = (float) Core.fastAtan2((float) m_01, (float) m_10);
-		}
-	}
-
-	public HashMap<Integer, List<Integer>> getUMaxMap(int[] patchSizes) {
-
-		HashMap<Integer, List<Integer>> u_max_map = new HashMap<Integer, List<Integer>>();
-
-		for (int i = 0; i < patchSizes.length; i++) {
-
-			int halfPatchSize = patchSizes[i] / 2;
-			List<Integer> umax = new ArrayList<Integer>(halfPatchSize + 2);
-
-			for (int j = 0; j < halfPatchSize + 2; j++) {
-				umax.add(0);
-			}
-
-			int v, v0, vmax = (int) Math.floor(halfPatchSize * Math.sqrt(2.f) / 2 + 1);
-			int vmin = (int) Math.ceil(halfPatchSize * Math.sqrt(2.f) / 2);
-			for (v = 0; v <= vmax; ++v)
-				umax.set(v, (int) Math.round(Math.sqrt((double) halfPatchSize * halfPatchSize - v * v)));
-
-			// Make sure we are symmetric
-			for (v = halfPatchSize, v0 = 0; v >= vmin; --v) {
-				while (umax.get(v0) == umax.get(v0 + 1))
-					++v0;
-				umax.set(v, v0);
-				++v0;
-			}
-
-			u_max_map.put(patchSizes[i], umax);
-
-		}
-
-		return u_max_map;
-
-	}
-
 	public static int rowMajor(int x, int y, int width) {
 		return width * y + x;
 	}
@@ -559,108 +447,35 @@ public class ImageData {
 		float tolerance = 0.1f;
 		int cols = this.image.cols();
 		int rows = this.image.rows();
-		List<KeyPoint> filteredKeypoints = ssc(this.keypoints.toList(), numRetPoints, tolerance, cols, rows);
+		List<KeyPoint> filteredKeypoints = ssc(getSSCEngine(SSC_FILTER), this.keypoints.toList(), false,
+				numRetPoints, tolerance, cols, rows);
 		this.keypoints.fromList(filteredKeypoints);
 	}
 
+	// the calling thread's SSC engine for a caller (one per octave, so each keeps
+	// its own last width)
+	protected static SSCEngine getSSCEngine(int slot) {
+		SSCEngine[] engines = sscEngines.get();
+		if (engines[slot] == null) {
+			engines[slot] = new SSCEngine();
+		}
+		return engines[slot];
+	}
+
 	/*
 	 * Suppression via Square Convering (SSC) algorithm. Check Algorithm 2 in the
 	 * paper:
 	 * https://www.sciencedirect.com/science/article/abs/pii/S016786551830062X
 	 */
 	// https://github.com/BAILOOL/ANMS-Codes
-	private static List<KeyPoint> ssc(final List<KeyPoint> keyPoints, final int numRetPoints, final float tolerance,
-			final int cols, final int rows) {
-
-		// Several temp expression variables to simplify equation solution
-		int expression1 = rows + cols + 2 * numRetPoints;
-		long expression2 = ((long) 4 * cols + (long) 4 * numRetPoints + (long) 4 * rows * numRetPoints
-				+ (long) rows * rows + (long) cols * cols - (long) 2 * rows * cols
-				+ (long) 4 * rows * cols * numRetPoints);
-		double expression3 = Math.sqrt(expression2);
-		double expression4 = (double) numRetPoints - 1;
-
-		// first solution
-		double solution1 = -Math.round((expression1 + expression3) / expression4);
-		// second solution
-		double solution2 = -Math.round((expression1 - expression3) / expression4);
-
-		// binary search range initialization with positive solution
-		int high = (int) ((solution1 > solution2) ? solution1 : solution2);
-		int low = (int) Math.floor(Math.sqrt((double) keyPoints.size() / numRetPoints));
-		int width;
-		int prevWidth = -1;
-
-		ArrayList<Integer> resultVec = new ArrayList<>();
-		boolean complete = false;
-		int kMin = Math.round(numRetPoints - (numRetPoints * tolerance));
-		int kMax = Math.round(numRetPoints + (numRetPoints * tolerance));
-
-		ArrayList<Integer> result = new ArrayList<>(keyPoints.size());
-		while (!complete) {
-			width = low + (high - low) / 2;
-			width = width == 0 ? 1 : width;
-
-			// needed to reassure the same radius is not repeated again
-			if (width == prevWidth || low > high) {
-				// return the keypoints from the previous iteration
-				resultVec = result;
-				break;
-			}
-			result.clear();
-			double c = (double) width / 2; // initializing Grid
-			int numCellCols = (int) Math.floor(cols / c);
-			int numCellRows = (int) Math.floor(rows / c);
-
-			// Fill temporary boolean array
-			boolean[][] coveredVec = new boolean[numCellRows + 1][numCellCols + 1];
-
-			// Perform square suppression
-			for (int i = 0; i < keyPoints.size(); i++) {
-				// get position of the cell current point is located at
-				int row = (int) Math.floor(keyPoints.get(i).pt.y / c);
-				int col = (int) Math.floor(keyPoints.get(i).pt.x / c);
-				if (!coveredVec[row][col]) { // if the cell is not covered
-					result.add(i);
-
-					// get range which current radius is covering
-					int rowMin = (int) (((row - (int) Math.floor(width / c)) >= 0) ? (row - Math.floor(width / c)) : 0);
-					int rowMax = (int) (((row + Math.floor(width / c)) <= numCellRows) ? (row + Math.floor(width / c))
-							: numCellRows);
-					int colMin = (int) (((col - Math.floor(width / c)) >= 0) ? (col - Math.floor(width / c)) : 0);
-					int colMax = (int) (((col + Math.floor(width / c)) <= numCellCols) ? (col + Math.floor(width / c))
-							: numCellCols);
-
-					// cover cells within the square bounding box with width w
-					for (int rowToCov = rowMin; rowToCov <= rowMax; rowToCov++) {
-						for (int colToCov = colMin; colToCov <= colMax; colToCov++) {
-							if (!coveredVec[rowToCov][colToCov]) {
-								coveredVec[rowToCov][colToCov] = true;
-							}
-						}
-					}
-				}
-			}
-
-			// solution found
-			if (result.size() >= kMin && result.size() <= kMax) {
-				resultVec = result;
-				complete = true;
-			} else if (result.size() < kMin) {
-				high = width - 1; // update binary search range
-			} else {
-				low = width + 1; // update binary search range
-			}
-			prevWidth = width;
+	private static List<KeyPoint> ssc(SSCEngine engine, final List<KeyPoint> keyPoints, boolean sortByResponse,
+			final int numRetPoints, final float tolerance, final int cols, final int rows) {
+		engine.load(keyPoints);
+		if (sortByResponse) {
+			engine.sortByResponse();
 		}
-
-		// Retrieve final keypoints
-		List<KeyPoint> kp = new ArrayList<>();
-		for (int i : resultVec) {
-			kp.add(keyPoints.get(i));
-		}
-
-		return kp;
+		engine.select(numRetPoints, tolerance, cols, rows);
+		return engine.getSelected(keyPoints);
 	}
 
 	// get features in grid cells of image (CHANGING MASKS IS UNUSABLY SLOW (333ms))
@@ -731,8 +546,10 @@ public class ImageData {
 	}
 
 	public MatOfPoint2f GFTT(int NUM_FEATURES) {
+		long start = GFTT_TIMER.start();
 		MatOfPoint p0MatofPoint = new MatOfPoint();
 		Imgproc.goodFeaturesToTrack(this.image, p0MatofPoint, NUM_FEATURES, 0.01, 20, new Mat(), 7, false, 0.04);
+		GFTT_TIMER.stop(start);
 		MatOfPoint2f p0 = new MatOfPoint2f(p0MatofPoint.toArray());
 
 		// filter out points close to image edge
@@ -753,75 +570,27 @@ public class ImageData {
 		return p0;
 	}
 
-	public List<Correspondence2D2D> calcOpticalFlow(Mat prevFrame, MatOfPoint2f pInitial, MatOfPoint2f pPrev,
-			MatOfPoint2f pCurrent) {
+	// track the features of tracks from prevFrame into this image; tracks that
+	// are lost or end up near the edge are dropped. Returns the correspondences
+	// (initial to current position) as a view of tracks, valid until tracks is
+	// tracked again (see TrackTable.toList() for a copy)
+	public List<Correspondence2D2D> calcOpticalFlow(Mat prevFrame, TrackTable tracks) {
 
 		int MARGIN = 25;
 
 		CameraParams cameraParams = new CameraParams();
-		Mat old_gray = prevFrame;
-
-		Mat frame_gray = this.image;
 
 		// calculate optical flow
-		MatOfByte status = new MatOfByte();
-		MatOfFloat err = new MatOfFloat();
 		TermCriteria criteria = new TermCriteria(TermCriteria.COUNT + TermCriteria.EPS, 10, 0.03);
-		long start = System.currentTimeMillis();
-		Video.calcOpticalFlowPyrLK(old_gray, frame_gray, pPrev, pCurrent, status, err, new Size(30, 30), 2, criteria);
-		long end = System.currentTimeMillis();
-		Utils.pl("optical flow search time: " + (end - start) + "ms");
-		byte StatusArr[] = status.toArray();
-		Point pInitialArr[] = pInitial.toArray();
-		Point pPrevArr[] = pPrev.toArray();
-		Point pCurrentArr[] = pCurrent.toArray();
-
-		// set up lists to filter out failed matches
-		List<Point> goodPInitial = new ArrayList<Point>();
-		List<Point> goodPPrev = new ArrayList<Point>();
-		List<Point> goodPCurrent = new ArrayList<Point>();
-
-		List<Correspondence2D2D> correspondences = new ArrayList<Correspondence2D2D>();
-		for (int i = 0; i < StatusArr.length; i++) {
-
-			// if match was found, generate correspondence and pass points along to updated
-			// lists
-			if (StatusArr[i] == 1) {
-
-				// throw out point if it hits the edge of the screen
-				if (pCurrentArr[i].x <= MARGIN || pCurrentArr[i].x >= cameraParams.width - MARGIN
-						|| pCurrentArr[i].y <= MARGIN || pCurrentArr[i].y >= cameraParams.height - MARGIN) {
-					continue;
-				}
+		long start = FLOW_TIMER.start();
+		tracks.track(prevFrame, this.image, new Size(30, 30), 2, criteria);
+		FLOW_TIMER.stop(start);
 
-				Correspondence2D2D c = new Correspondence2D2D();
-				c.setX0(pInitialArr[i].x);
-				c.setY0(pInitialArr[i].y);
-				c.setX1(pCurrentArr[i].x);
-				c.setY1(pCurrentArr[i].y);
-				correspondences.add(c);
-
-				goodPInitial.add(pInitialArr[i]);
-				goodPPrev.add(pPrevArr[i]);
-				goodPCurrent.add(pCurrentArr[i]);
-
-			}
-		}
+		// throw out failed matches and points that hit the edge of the screen
+		tracks.compact(MARGIN, MARGIN, cameraParams.width - MARGIN, cameraParams.height - MARGIN);
 
-		// Now update the previous frame and previous points
-		Point[] goodPInitialArr = new Point[goodPInitial.size()];
-		Point[] goodPPrevArr = new Point[goodPPrev.size()];
-		Point[] goodPCurrentArr = new Point[goodPCurrent.size()];
-		goodPInitial.toArray(goodPInitialArr);
-		goodPPrev.toArray(goodPPrevArr);
-		goodPCurrent.toArray(goodPCurrentArr);
-
-		// update the feature point matrices
-		pInitial.fromArray(goodPInitialArr);
-		pPrev.fromArray(goodPPrevArr);
-		pCurrent.fromArray(goodPCurrentArr);
-
-		return correspondences;
+		TRACKED_COUNTER.add(tracks.size());
+		return tracks.asList();
 	}
 
 	public static List<Correspondence2D2D> matchDescriptors(List<KeyPoint> referenceKeypoints, Mat referenceDescriptors,
@@ -863,47 +632,58 @@ public class ImageData {
 	public static List<Correspondence2D2D> matchDescriptorsGuided(List<KeyPoint> referenceKeypoints,
 			Mat referenceDescriptors, List<KeyPoint> currentKeypoints, Mat currentDescriptors,
 			List<KeyPoint> lastLocations) {
+		return matchDescriptorsGuided(referenceKeypoints, ORBDescriptor.fromMat(referenceDescriptors, new long[0]),
+				currentKeypoints, ORBDescriptor.fromMat(currentDescriptors, new long[0]), lastLocations);
+	}
+
+	// match each reference keypoint to the current keypoints within BOX_SIZE of
+	// its last location (descriptors packed as in ORBDescriptor). Matched
+	// reference keypoints get their last location updated
+	public static List<Correspondence2D2D> matchDescriptorsGuided(List<KeyPoint> referenceKeypoints,
+			long[] referenceDescriptors, List<KeyPoint> currentKeypoints, long[] currentDescriptors,
+			List<KeyPoint> lastLocations) {
 
 		int BOX_SIZE = 10;
 
 		List<Correspondence2D2D> correspondences = new ArrayList<Correspondence2D2D>();
 
-		DescriptorMatcher matcher = BFMatcher.create(Core.NORM_HAMMING, true);
-		MatOfDMatch matches = new MatOfDMatch();
-
-		// tries to find a match for each query (currentDescriptor) against the already
-		// existing train (referenceDescriptor) set
-		matcher.match(currentDescriptors, referenceDescriptors, matches);
-
-//		Utils.pl("referenceDescriptors.rows(): " + referenceDescriptors.rows());
-//		Utils.pl("currentDescriptors.rows(): " + currentDescriptors.rows());
-//		Utils.pl("matches.rows(): " + matches.rows());
-
-		List<DMatch> listMatches = matches.toList();
-		for (int i = 0; i < listMatches.size(); i++) {
-			DMatch dmatch = listMatches.get(i);
-//			Utils.pl("first match ==> distance: " + listMatches.get(i).distance + ", imgIdx: "
-//					+ listMatches.get(i).imgIdx + ", queryIdx: " + listMatches.get(i).queryIdx + ", trainIdx: "
-//					+ listMatches.get(i).trainIdx);
-			if (dmatch.distance < MATCH_THRESHOLD) {
-
-				// if new keypoint is not close enough to last location, discard
-				if (Math.abs(
-						lastLocations.get(dmatch.trainIdx).pt.x - currentKeypoints.get(dmatch.queryIdx).pt.x) > BOX_SIZE
-						|| Math.abs(lastLocations.get(dmatch.trainIdx).pt.y
-								- currentKeypoints.get(dmatch.queryIdx).pt.y) > BOX_SIZE) {
-					continue;
-				}
-				Correspondence2D2D c = new Correspondence2D2D();
-				c.setX0(referenceKeypoints.get(dmatch.trainIdx).pt.x);
-				c.setY0(referenceKeypoints.get(dmatch.trainIdx).pt.y);
-				c.setX1(currentKeypoints.get(dmatch.queryIdx).pt.x);
-				c.setY1(currentKeypoints.get(dmatch.queryIdx).pt.y);
-				correspondences.add(c);
+		// search positions of the references, locations of the current keypoints
+		int n = referenceKeypoints.size();
+		int m = currentKeypoints.size();
+		float[] lastXs = new float[n];
+		float[] lastYs = new float[n];
+		for (int i = 0; i < n; i++) {
+			lastXs[i] = (float) lastLocations.get(i).pt.x;
+			lastYs[i] = (float) lastLocations.get(i).pt.y;
+		}
+		float[] currentXs = new float[m];
+		float[] currentYs = new float[m];
+		for (int i = 0; i < m; i++) {
+			currentXs[i] = (float) currentKeypoints.get(i).pt.x;
+			currentYs[i] = (float) currentKeypoints.get(i).pt.y;
+		}
 
-				// update last location
-				lastLocations.set(dmatch.trainIdx, currentKeypoints.get(dmatch.queryIdx));
-			}
+		// only pairs within the box are compared (mutual best, below
+		// MATCH_THRESHOLD, passing the MATCH_RATIO test)
+		GuidedMatcher matcher = guidedMatchers.get();
+		matcher.setReferences(referenceDescriptors, lastXs, lastYs, n, BOX_SIZE);
+		int numMatches = matcher.match(currentDescriptors, currentXs, currentYs, m, BOX_SIZE, MATCH_THRESHOLD,
+				MATCH_RATIO);
+
+		int[] queryIndices = matcher.getQueryIndices();
+		int[] referenceIndices = matcher.getReferenceIndices();
+		for (int k = 0; k < numMatches; k++) {
+			int trainIdx = referenceIndices[k];
+			int queryIdx = queryIndices[k];
+			Correspondence2D2D c = new Correspondence2D2D();
+			c.setX0(referenceKeypoints.get(trainIdx).pt.x);
+			c.setY0(referenceKeypoints.get(trainIdx).pt.y);
+			c.setX1(currentKeypoints.get(queryIdx).pt.x);
+			c.setY1(currentKeypoints.get(queryIdx).pt.y);
+			correspondences.add(c);
+
+			// update last location
+			lastLocations.set(trainIdx, currentKeypoints.get(queryIdx));
 		}
 
 		// remove outliers by disparity
@@ -936,4 +716,19 @@ public class ImageData {
 		this.descriptors = descriptors;
 	}
 
+	public long[] getPackedDescriptors() {
+		return packedDescriptors;
+	}
+
+	public PyramidBuilder getPyramid() {
+		return pyramid;
+	}
+
+	// pyramid must hold this image's levels (its build count is recorded, see
+	// computeFeatures())
+	public void setPyramid(PyramidBuilder pyramid) {
+		this.pyramid = pyramid;
+		this.pyramidBuild = pyramid == null ? -1 : pyramid.getBuildCount();
+	}
+
 }
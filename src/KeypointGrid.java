@@ -0,0 +1,140 @@
+import java.util.List;
+
+import org.opencv.core.KeyPoint;
+
+// Flat spatial grid over a list of keypoints. build() counting-sorts the
+// keypoint indices by response (descending, stable) and then by cell (stable),
+// so the keypoints of each cell end up in one contiguous, strongest-first range
+// of the order array. Cells are numbered row-major.
+//
+// All buffers are kept between builds and only grow, so a grid reused across
+// frames does not allocate once it has seen the largest frame.
+public class KeypointGrid {
+
+	// responses are clamped to [0, MAX_RESPONSE] (FAST scores fit in a byte)
+	public static final int MAX_RESPONSE = 256;
+
+	protected int cellSize = 1;
+	protected int numRows = 0;
+	protected int numCols = 0;
+	protected int size = 0;
+
+	// keypoint indices, grouped by cell, strongest first within a cell
+	protected int[] order = new int[0];
+
+	// cell c holds order[cellStart[c]] .. order[cellStart[c + 1] - 1]
+	protected int[] cellStart = new int[1];
+
+	// per keypoint (by index into the built list)
+	protected int[] cells = new int[0];
+	protected int[] responses = new int[0];
+
+	// scratch
+	protected int[] byResponse = new int[0];
+	protected int[] responseStart = new int[MAX_RESPONSE + 2];
+	protected int[] cellCursor = new int[0];
+
+	public void build(List<KeyPoint> keypoints, int width, int height, int cellSize) {
+		this.cellSize = cellSize;
+		this.numRows = (int) Math.ceil((double) height / cellSize);
+		this.numCols = (int) Math.ceil((double) width / cellSize);
+		this.size = keypoints.size();
+		this.ensureCapacity(this.size, this.numRows * this.numCols);
+
+		// read each keypoint once into primitive arrays
+		int numCells = this.numRows * this.numCols;
+		for (int i = 0; i < this.size; i++) {
+			KeyPoint kp = keypoints.get(i);
+			this.cells[i] = this.cellOf(kp.pt.x, kp.pt.y);
+			this.responses[i] = Math.max(0, Math.min((int) kp.response, MAX_RESPONSE));
+		}
+
+		// counting sort by response, descending (key MAX_RESPONSE - response)
+		int[] counts = this.responseStart;
+		for (int r = 0; r < counts.length; r++) {
+			counts[r] = 0;
+		}
+		for (int i = 0; i < this.size; i++) {
+			counts[MAX_RESPONSE - this.responses[i] + 1]++;
+		}
+		for (int r = 1; r < counts.length; r++) {
+			counts[r] += counts[r - 1];
+		}
+		for (int i = 0; i < this.size; i++) {
+			this.byResponse[counts[MAX_RESPONSE - this.responses[i]]++] = i;
+		}
+
+		// stable counting sort of that order by cell
+		for (int c = 0; c <= numCells; c++) {
+			this.cellStart[c] = 0;
+		}
+		for (int i = 0; i < this.size; i++) {
+			this.cellStart[this.cells[i] + 1]++;
+		}
+		for (int c = 1; c <= numCells; c++) {
+			this.cellStart[c] += this.cellStart[c - 1];
+		}
+		System.arraycopy(this.cellStart, 0, this.cellCursor, 0, numCells);
+		for (int k = 0; k < this.size; k++) {
+			int i = this.byResponse[k];
+			this.order[this.cellCursor[this.cells[i]]++] = i;
+		}
+	}
+
+	protected void ensureCapacity(int numKeypoints, int numCells) {
+		if (this.order.length < numKeypoints) {
+			int capacity = Math.max(numKeypoints, this.order.length * 3 / 2);
+			this.order = new int[capacity];
+			this.cells = new int[capacity];
+			this.responses = new int[capacity];
+			this.byResponse = new int[capacity];
+		}
+		if (this.cellCursor.length < numCells) {
+			this.cellStart = new int[numCells + 1];
+			this.cellCursor = new int[numCells];
+		}
+	}
+
+	// cell of an image point (points outside the image go to the nearest cell)
+	public int cellOf(double x, double y) {
+		int row = Math.max(0, Math.min((int) (y / this.cellSize), this.numRows - 1));
+		int col = Math.max(0, Math.min((int) (x / this.cellSize), this.numCols - 1));
+		return row * this.numCols + col;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public int getNumRows() {
+		return this.numRows;
+	}
+
+	public int getNumCols() {
+		return this.numCols;
+	}
+
+	public int getNumCells() {
+		return this.numRows * this.numCols;
+	}
+
+	// range [getCellStart(cell), getCellEnd(cell)) of positions in the order
+	public int getCellStart(int cell) {
+		return this.cellStart[cell];
+	}
+
+	public int getCellEnd(int cell) {
+		return this.cellStart[cell + 1];
+	}
+
+	// index (into the built list) of the keypoint at position pos of the order
+	public int get(int pos) {
+		return this.order[pos];
+	}
+
+	// clamped integer response of the keypoint at position pos of the order
+	public int getResponse(int pos) {
+		return this.responses[this.order[pos]];
+	}
+
+}
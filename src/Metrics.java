@@ -0,0 +1,300 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide registry of per-stage timers and counters.
+//
+// Stages hold their timer in a static field and bracket the work with
+//
+//   long start = TIMER.start();
+//   ...
+//   TIMER.stop(start);
+//
+// Timers record nanoseconds into a log-linear histogram (16 sub-buckets per
+// power of two, so quantiles are within ~6%). Collection is off unless
+// -Dmetrics=true is given or setEnabled(true) is called; when off, start()
+// and stop() are a volatile field read and a branch. At the end of a run
+// export() writes everything as CSV and JSON.
+public class Metrics {
+
+	public static final String DEFAULT_DIR = "results/metrics/";
+
+	protected static volatile boolean enabled = Boolean.getBoolean("metrics");
+
+	protected static Map<String, Timer> timers = new ConcurrentSkipListMap<String, Timer>();
+	protected static Map<String, Counter> counters = new ConcurrentSkipListMap<String, Counter>();
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void setEnabled(boolean enabled) {
+		Metrics.enabled = enabled;
+	}
+
+	// the timer / counter registered under name (created on first use)
+	public static Timer timer(String name) {
+		return timers.computeIfAbsent(name, Timer::new);
+	}
+
+	public static Counter counter(String name) {
+		return counters.computeIfAbsent(name, Counter::new);
+	}
+
+	// clear all recorded values (registrations are kept)
+	public static void reset() {
+		for (Timer timer : timers.values()) {
+			timer.histogram.reset();
+		}
+		for (Counter counter : counters.values()) {
+			counter.value.reset();
+		}
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//////////////////////////////// TYPES ////////////////////////////////////////
+	///////////////////////////////////////////////////////////////////////////////
+
+	public static class Timer {
+		public final String name;
+		public final Histogram histogram = new Histogram();
+
+		public Timer(String name) {
+			this.name = name;
+		}
+
+		// 0 when disabled
+		public long start() {
+			return enabled ? System.nanoTime() : 0;
+		}
+
+		public void stop(long start) {
+			if (start != 0) {
+				this.histogram.record(System.nanoTime() - start);
+			}
+		}
+
+		public void record(long nanos) {
+			if (enabled) {
+				this.histogram.record(nanos);
+			}
+		}
+	}
+
+	public static class Counter {
+		public final String name;
+		protected final LongAdder value = new LongAdder();
+
+		public Counter(String name) {
+			this.name = name;
+		}
+
+		public void increment() {
+			if (enabled) {
+				this.value.increment();
+			}
+		}
+
+		public void add(long n) {
+			if (enabled) {
+				this.value.add(n);
+			}
+		}
+
+		public long get() {
+			return this.value.sum();
+		}
+	}
+
+	// Log-linear histogram of non-negative longs. Values below 16 get their own
+	// bucket; above that every power of two is split into 16 equal buckets.
+	public static class Histogram {
+		public static final int SUB_BITS = 4;
+		public static final int SUB_BUCKETS = 1 << SUB_BITS;
+		public static final int NUM_BUCKETS = (63 - SUB_BITS + 1) * SUB_BUCKETS;
+
+		protected final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+		protected final AtomicLong count = new AtomicLong();
+		protected final AtomicLong sum = new AtomicLong();
+		protected final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+		protected final AtomicLong max = new AtomicLong(0);
+
+		public static int bucketOf(long value) {
+			if (value < SUB_BUCKETS) {
+				return (int) Math.max(value, 0);
+			}
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+			return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+		}
+
+		// smallest value that falls in bucket
+		public static long lowerBound(int bucket) {
+			if (bucket < SUB_BUCKETS) {
+				return bucket;
+			}
+			int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+			long sub = bucket % SUB_BUCKETS;
+			return (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+		}
+
+		public void record(long value) {
+			this.buckets.incrementAndGet(bucketOf(value));
+			this.count.incrementAndGet();
+			this.sum.addAndGet(value);
+			this.min.accumulateAndGet(value, Math::min);
+			this.max.accumulateAndGet(value, Math::max);
+		}
+
+		public long getCount() {
+			return this.count.get();
+		}
+
+		public long getSum() {
+			return this.sum.get();
+		}
+
+		public long getMin() {
+			return this.getCount() == 0 ? 0 : this.min.get();
+		}
+
+		public long getMax() {
+			return this.max.get();
+		}
+
+		public double getMean() {
+			long count = this.getCount();
+			return count == 0 ? 0 : (double) this.getSum() / count;
+		}
+
+		// approximate value at quantile q (0..1): the middle of the bucket holding
+		// it, clamped to [min, max]
+		public long getQuantile(double q) {
+			long count = this.getCount();
+			if (count == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(q * count);
+			long seen = 0;
+			for (int i = 0; i < NUM_BUCKETS; i++) {
+				seen += this.buckets.get(i);
+				if (seen >= Math.max(rank, 1)) {
+					long lower = lowerBound(i);
+					long upper = i + 1 < NUM_BUCKETS ? lowerBound(i + 1) - 1 : Long.MAX_VALUE;
+					long mid = lower + (upper - lower) / 2;
+					return Math.max(this.getMin(), Math.min(this.getMax(), mid));
+				}
+			}
+			return this.getMax();
+		}
+
+		public void reset() {
+			for (int i = 0; i < NUM_BUCKETS; i++) {
+				this.buckets.set(i, 0);
+			}
+			this.count.set(0);
+			this.sum.set(0);
+			this.min.set(Long.MAX_VALUE);
+			this.max.set(0);
+		}
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//////////////////////////////// EXPORT ///////////////////////////////////////
+	///////////////////////////////////////////////////////////////////////////////
+
+	// print a summary and write <baseName>.csv and <baseName>.json, if enabled
+	public static void export(String baseName) {
+		if (!enabled) {
+			return;
+		}
+		print();
+		try {
+			File parent = new File(baseName).getAbsoluteFile().getParentFile();
+			if (parent != null) {
+				parent.mkdirs();
+			}
+			writeCSV(baseName + ".csv");
+			writeJSON(baseName + ".json");
+			Utils.pl("metrics written to " + baseName + ".csv/.json");
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public static void print() {
+		Utils.pl("");
+		Utils.pl("stage timings (ms): count, total, mean, p50, p90, p99, max");
+		for (Timer timer : timers.values()) {
+			Histogram h = timer.histogram;
+			if (h.getCount() == 0) {
+				continue;
+			}
+			Utils.pl(String.format("  %-28s %8d %10.1f %8.3f %8.3f %8.3f %8.3f %8.3f", timer.name, h.getCount(),
+					ms(h.getSum()), ms(h.getMean()), ms(h.getQuantile(0.5)), ms(h.getQuantile(0.9)),
+					ms(h.getQuantile(0.99)), ms(h.getMax())));
+		}
+		Utils.pl("counters:");
+		for (Counter counter : counters.values()) {
+			Utils.pl(String.format("  %-28s %12d", counter.name, counter.get()));
+		}
+	}
+
+	// one row per timer and counter; times in nanoseconds
+	public static void writeCSV(String filename) throws IOException {
+		PrintWriter out = new PrintWriter(new FileWriter(filename));
+		try {
+			out.println("name,type,count,sum_ns,mean_ns,min_ns,p50_ns,p90_ns,p99_ns,max_ns");
+			for (Timer timer : timers.values()) {
+				Histogram h = timer.histogram;
+				out.println(timer.name + ",timer," + h.getCount() + "," + h.getSum() + "," + (long) h.getMean() + ","
+						+ h.getMin() + "," + h.getQuantile(0.5) + "," + h.getQuantile(0.9) + "," + h.getQuantile(0.99)
+						+ "," + h.getMax());
+			}
+			for (Counter counter : counters.values()) {
+				out.println(counter.name + ",counter," + counter.get() + ",,,,,,,");
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public static void writeJSON(String filename) throws IOException {
+		PrintWriter out = new PrintWriter(new FileWriter(filename));
+		try {
+			out.println("{");
+			out.println("  \"timers\": {");
+			int i = 0;
+			for (Timer timer : timers.values()) {
+				Histogram h = timer.histogram;
+				out.print("    \"" + timer.name + "\": {\"count\": " + h.getCount() + ", \"sum_ns\": " + h.getSum()
+						+ ", \"mean_ns\": " + (long) h.getMean() + ", \"min_ns\": " + h.getMin() + ", \"p50_ns\": "
+						+ h.getQuantile(0.5) + ", \"p90_ns\": " + h.getQuantile(0.9) + ", \"p99_ns\": "
+						+ h.getQuantile(0.99) + ", \"max_ns\": " + h.getMax() + "}");
+				out.println(++i < timers.size() ? "," : "");
+			}
+			out.println("  },");
+			out.println("  \"counters\": {");
+			i = 0;
+			for (Counter counter : counters.values()) {
+				out.print("    \"" + counter.name + "\": " + counter.get());
+				out.println(++i < counters.size() ? "," : "");
+			}
+			out.println("  }");
+			out.println("}");
+		} finally {
+			out.close();
+		}
+	}
+
+	protected static double ms(double nanos) {
+		return nanos / 1e6;
+	}
+
+}
@@ -1,13 +1,17 @@
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
 import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
@@ -15,7 +19,6 @@ import org.deeplearning4j.nn.conf.layers.OutputLayer;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.deeplearning4j.nn.weights.WeightInit;
 import org.deeplearning4j.optimize.listeners.ScoreIterationListener;
-import org.knowm.xchart.SwingWrapper;
 import org.knowm.xchart.XYChart;
 import org.knowm.xchart.XYChartBuilder;
 import org.knowm.xchart.style.Styler;
@@ -203,331 +206,171 @@ public class ModelTesting {
 		return fd.baseline <= 0.05 ? 1 : 0;
 	}
 
+	// scenarios generated by generateTrainingData(), in output order
+	public static enum SCENARIO {
+		HIGH_PARALLAX, PLANAR, HIGH_PARALLAX_ROTATION, PLANAR_ROTATION
+	}
+
+	// one generated sample plus the camera movement that produced it
+	public static class TrainingSample {
+		public double baseline = 0;
+		public double x = 0;
+		public double y = 0;
+		public double z = 0;
+		public double rotX = 0;
+		public double rotY = 0;
+		public double rotZ = 0;
+		public int numCorrespondences = 0;
+
+		// null if there were too few correspondences
+		public FinalizedData data = null;
+	}
+
 	public static void generateTrainingData() {
 
 		long seed = System.currentTimeMillis();
 
 //		long seed = 1615348975802L;
 
-		String OUT_FILE = "results/data/test-rev1-" + System.currentTimeMillis() + "-" + seed + ".dat";
-		String serializedData = "";
-		Random rand = new Random(seed);
-
-		// randomly generate scenarios //
-		int rejects = 0;
-		int accepts = 0;
-		int failed = 0;
-
-		// high-parallax
-		int highParallaxIterations = 1000;
-		double maxBaseline = 2.5;
-		double rotRange = 0.25;
-		double rotOffset = rotRange / 2;
-		VirtualEnvironment hpMock = new VirtualEnvironment();
-//		hpMock.generateSphericalScene(seed, 1000);
-		hpMock.generateScene0(seed);
-
-		for (int i = 0; i < highParallaxIterations; i++) {
-
-			Utils.pl("iteration: " + i);
-
-			// decide camera movement
-			double baseline = rand.nextDouble() * maxBaseline;
-			double x = rand.nextDouble() - 0.5;
-			double y = rand.nextDouble() - 0.5;
-			double z = rand.nextDouble() - 0.5;
-			double mag = Math.sqrt(x * x + y * y + z * z);
-			x = x / mag * baseline;
-			y = y / mag * baseline;
-			z = z / mag * baseline;
-
-			double rotX = rand.nextDouble() * rotRange - rotOffset;
-			double rotY = rand.nextDouble() * rotRange - rotOffset;
-			double rotZ = rand.nextDouble() * rotRange - rotOffset;
-
-			hpMock.getSecondaryCamera().setCx(x);
-			hpMock.getSecondaryCamera().setCy(y);
-			hpMock.getSecondaryCamera().setCz(z);
-			hpMock.getSecondaryCamera().setQw(1);
-			hpMock.getSecondaryCamera().setQx(0);
-			hpMock.getSecondaryCamera().setQy(0);
-			hpMock.getSecondaryCamera().setQz(0);
-			hpMock.getSecondaryCamera().rotateEuler(rotX, rotY, rotZ);
-
-			Utils.pl("baseline: " + baseline);
-			Utils.pl("x, y, z:");
-			Utils.pl(x);
-			Utils.pl(y);
-			Utils.pl(z);
-			Utils.pl("rotation:");
-			Utils.pl(rotX);
-			Utils.pl(rotY);
-			Utils.pl(rotZ);
-
-			Sample sample = new Sample();
-			sample.evaluate(hpMock);
-			Utils.pl("numCorrespondences: " + sample.correspondences.size());
-
-			if (sample.correspondences.size() >= 10) {
-				FinalizedData fd = new FinalizedData();
-				fd.summary = sample.correspondenceSummary;
-				fd.totalReconstErrorEstFun = sample.totalReconstErrorEstFun;
-				fd.totalReconstErrorEstHomography = sample.totalReconstErrorEstHomography;
-				fd.totalReconstErrorEstEssential = sample.totalReconstErrorEstEssential;
-				fd.medianReconstErrorEstFun = sample.medianReconstErrorEstFun;
-				fd.medianReconstErrorEstHomography = sample.medianReconstErrorEstHomography;
-				fd.medianReconstErrorEstEssential = sample.medianReconstErrorEstEssential;
-				fd.transChordalEstFun = sample.transChordalEstFun;
-				fd.transChordalEstHomography = sample.transChordalEstHomography;
-				fd.transChordalEstEssential = sample.transChordalEstEssential;
-				fd.baseline = baseline;
-
-				serializedData += fd.stringify();
-
-				if (fd.totalReconstErrorEstFun / fd.summary.numCorrespondences > 1 || fd.transChordalEstFun > 0.4) {
-					rejects++;
-				} else {
-					accepts++;
-				}
-
-			} else {
-				failed++;
-				Utils.pl("FAILED");
-			}
-
-			Utils.pl("");
-		}
+		generateTrainingData(seed, Runtime.getRuntime().availableProcessors());
+	}
 
-		// planar (noisy)
-		Utils.pl("");
-		Utils.pl("=====================================================================================");
-		Utils.pl("====================================  PLANAR SCENE  =================================");
-		Utils.pl("=====================================================================================");
-		Utils.pl("");
-		int planarIterations = 1000;
-		maxBaseline = 2.5;
-		rotRange = 0.25;
-		rotOffset = rotRange / 2;
-		VirtualEnvironment parallelMock = new VirtualEnvironment();
-		parallelMock.generatePlanarScene(seed, 1000);
+	public static void generateTrainingData(long seed, int numThreads) {
+		String OUT_FILE = "results/data/test-rev1-" + System.currentTimeMillis() + "-" + seed + ".dat";
+		generateTrainingData(seed, numThreads, OUT_FILE, false);
+	}
 
-		for (int i = 0; i < planarIterations; i++) {
+	// Every sample is generated from its own environment copy and a seed derived
+	// from (seed, scenario, iteration), and records are written in iteration
+	// order, so the output only depends on the seed and not on numThreads.
+	// Records are streamed to outFile as they are collected; with resume = true an
+	// interrupted run with the same seed picks up after its last progress marker
+	// (the accept/reject counts then only cover the resumed part).
+	public static void generateTrainingData(long seed, int numThreads, String outFile, boolean resume) {
 
-			Utils.pl("iteration: " + i);
+		// at least one worker (also sizes the window of samples in flight)
+		numThreads = Math.max(numThreads, 1);
 
-			// decide camera movement
-			double baseline = rand.nextDouble() * maxBaseline;
-			double x = rand.nextDouble() - 0.5;
-			double y = rand.nextDouble() - 0.5;
-			double z = rand.nextDouble() - 0.5;
-			double mag = Math.sqrt(x * x + y * y + z * z);
-			x = x / mag * baseline;
-			y = y / mag * baseline;
-			z = z / mag * baseline;
-
-			double rotX = rand.nextDouble() * rotRange - rotOffset;
-			double rotY = rand.nextDouble() * rotRange - rotOffset;
-			double rotZ = rand.nextDouble() * rotRange - rotOffset;
-
-			parallelMock.getSecondaryCamera().setCx(x);
-			parallelMock.getSecondaryCamera().setCy(y);
-			parallelMock.getSecondaryCamera().setCz(z);
-			parallelMock.getSecondaryCamera().setQw(1);
-			parallelMock.getSecondaryCamera().setQx(0);
-			parallelMock.getSecondaryCamera().setQy(0);
-			parallelMock.getSecondaryCamera().setQz(0);
-			parallelMock.getSecondaryCamera().rotateEuler(rotX, rotY, rotZ);
-
-			Utils.pl("baseline: " + baseline);
-			Utils.pl("x, y, z:");
-			Utils.pl(x);
-			Utils.pl(y);
-			Utils.pl(z);
-			Utils.pl("rotation:");
-			Utils.pl(rotX);
-			Utils.pl(rotY);
-			Utils.pl(rotZ);
-
-			Sample sample = new Sample();
-			sample.evaluate(parallelMock);
-			Utils.pl("numCorrespondences: " + sample.correspondences.size());
-
-			if (sample.correspondences.size() >= 10) {
-				FinalizedData fd = new FinalizedData();
-				fd.summary = sample.correspondenceSummary;
-				fd.totalReconstErrorEstFun = sample.totalReconstErrorEstFun;
-				fd.totalReconstErrorEstHomography = sample.totalReconstErrorEstHomography;
-				fd.totalReconstErrorEstEssential = sample.totalReconstErrorEstEssential;
-				fd.medianReconstErrorEstFun = sample.medianReconstErrorEstFun;
-				fd.medianReconstErrorEstHomography = sample.medianReconstErrorEstHomography;
-				fd.medianReconstErrorEstEssential = sample.medianReconstErrorEstEssential;
-				fd.transChordalEstFun = sample.transChordalEstFun;
-				fd.transChordalEstHomography = sample.transChordalEstHomography;
-				fd.transChordalEstEssential = sample.transChordalEstEssential;
-				fd.baseline = baseline;
-
-				serializedData += fd.stringify();
-
-				if (fd.totalReconstErrorEstHomography / fd.summary.numCorrespondences > 1
-						|| fd.transChordalEstHomography > 0.4) {
-					rejects++;
-				} else {
-					accepts++;
-				}
-
-			} else {
-				failed++;
-				Utils.pl("FAILED");
-			}
-
-			Utils.pl("");
+		FinalizedDataWriter writer = null;
+		try {
+			writer = new FinalizedDataWriter(outFile, FinalizedDataWriter.DEFAULT_SYNC_INTERVAL, resume);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return;
 		}
+		long resumePosition = writer.getResumePosition();
 
-		// pure rotation, high parallax
+		// randomly generate scenarios //
+		int rejects = 0;
+		int accepts = 0;
+		int failed = 0;
 		double rotationAccepts = 0;
 		double rotationRejects = 0;
 		double rotationFails = 0;
-		Utils.pl("");
-		Utils.pl("=====================================================================================");
-		Utils.pl("==========================  HIGH PARALLAX ROTATION SCENE  ===========================");
-		Utils.pl("=====================================================================================");
-		Utils.pl("");
-		int hpRotationIterations = 1000;
-		rotRange = 0.25;
-		rotOffset = rotRange / 2;
-		VirtualEnvironment hpRotationMock = new VirtualEnvironment();
-		hpRotationMock.generateScene0(seed);
-
-		for (int i = 0; i < hpRotationIterations; i++) {
-
-			Utils.pl("iteration: " + i);
-
-			// decide camera movement
-
-			double rotX = rand.nextDouble() * rotRange - rotOffset;
-			double rotY = rand.nextDouble() * rotRange - rotOffset;
-			double rotZ = rand.nextDouble() * rotRange - rotOffset;
-
-			hpRotationMock.getSecondaryCamera().setCx(0);
-			hpRotationMock.getSecondaryCamera().setCy(0);
-			hpRotationMock.getSecondaryCamera().setCz(0);
-			hpRotationMock.getSecondaryCamera().setQw(1);
-			hpRotationMock.getSecondaryCamera().setQx(0);
-			hpRotationMock.getSecondaryCamera().setQy(0);
-			hpRotationMock.getSecondaryCamera().setQz(0);
-			hpRotationMock.getSecondaryCamera().rotateEuler(rotX, rotY, rotZ);
-
-			Utils.pl("baseline: 0");
-			Utils.pl("rotation:");
-			Utils.pl(rotX);
-			Utils.pl(rotY);
-			Utils.pl(rotZ);
-
-			Sample sample = new Sample();
-			sample.evaluate(hpRotationMock);
-			Utils.pl("numCorrespondences: " + sample.correspondences.size());
-
-			if (sample.correspondences.size() >= 10) {
-				FinalizedData fd = new FinalizedData();
-				fd.summary = sample.correspondenceSummary;
-				fd.totalReconstErrorEstFun = sample.totalReconstErrorEstFun;
-				fd.totalReconstErrorEstHomography = sample.totalReconstErrorEstHomography;
-				fd.totalReconstErrorEstEssential = sample.totalReconstErrorEstEssential;
-				fd.medianReconstErrorEstFun = sample.medianReconstErrorEstFun;
-				fd.medianReconstErrorEstHomography = sample.medianReconstErrorEstHomography;
-				fd.medianReconstErrorEstEssential = sample.medianReconstErrorEstEssential;
-				fd.transChordalEstFun = sample.transChordalEstFun;
-				fd.transChordalEstHomography = sample.transChordalEstHomography;
-				fd.transChordalEstEssential = sample.transChordalEstEssential;
-				fd.baseline = 0;
-
-				serializedData += fd.stringify();
-
-				if (fd.totalReconstErrorEstHomography / fd.summary.numCorrespondences > 1
-						|| fd.transChordalEstHomography > 0.4 || Double.isNaN(fd.totalReconstErrorEstHomography)) {
-					rotationRejects++;
-				} else {
-					rotationAccepts++;
-				}
-
-			} else {
-				rotationFails++;
-				Utils.pl("FAILED");
-			}
 
-			Utils.pl("");
-		}
+		int iterations = 1000;
+		double maxBaseline = 2.5;
+		double rotRange = 0.25;
 
-		// pure rotation, noisy plane
-		Utils.pl("");
-		Utils.pl("=====================================================================================");
-		Utils.pl("==========================  PLANAR ROTATION SCENE  ===========================");
-		Utils.pl("=====================================================================================");
-		Utils.pl("");
-		int planarRotationIterations = 1000;
-		rotRange = 0.25;
-		rotOffset = rotRange / 2;
-		VirtualEnvironment planarRotationMock = new VirtualEnvironment();
-		planarRotationMock.generatePlanarScene(seed, 1000);
-
-		for (int i = 0; i < planarRotationIterations; i++) {
-
-			Utils.pl("iteration: " + i);
-
-			// decide camera movement
-
-			double rotX = rand.nextDouble() * rotRange - rotOffset;
-			double rotY = rand.nextDouble() * rotRange - rotOffset;
-			double rotZ = rand.nextDouble() * rotRange - rotOffset;
-
-			planarRotationMock.getSecondaryCamera().setCx(0);
-			planarRotationMock.getSecondaryCamera().setCy(0);
-			planarRotationMock.getSecondaryCamera().setCz(0);
-			planarRotationMock.getSecondaryCamera().setQw(1);
-			planarRotationMock.getSecondaryCamera().setQx(0);
-			planarRotationMock.getSecondaryCamera().setQy(0);
-			planarRotationMock.getSecondaryCamera().setQz(0);
-			planarRotationMock.getSecondaryCamera().rotateEuler(rotX, rotY, rotZ);
-
-			Utils.pl("baseline: 0");
-			Utils.pl("rotation:");
-			Utils.pl(rotX);
-			Utils.pl(rotY);
-			Utils.pl(rotZ);
-
-			Sample sample = new Sample();
-			sample.evaluate(planarRotationMock);
-			Utils.pl("numCorrespondences: " + sample.correspondences.size());
-
-			if (sample.correspondences.size() >= 10) {
-				FinalizedData fd = new FinalizedData();
-				fd.summary = sample.correspondenceSummary;
-				fd.totalReconstErrorEstFun = sample.totalReconstErrorEstFun;
-				fd.totalReconstErrorEstHomography = sample.totalReconstErrorEstHomography;
-				fd.totalReconstErrorEstEssential = sample.totalReconstErrorEstEssential;
-				fd.medianReconstErrorEstFun = sample.medianReconstErrorEstFun;
-				fd.medianReconstErrorEstHomography = sample.medianReconstErrorEstHomography;
-				fd.medianReconstErrorEstEssential = sample.medianReconstErrorEstEssential;
-				fd.transChordalEstFun = sample.transChordalEstFun;
-				fd.transChordalEstHomography = sample.transChordalEstHomography;
-				fd.transChordalEstEssential = sample.transChordalEstEssential;
-				fd.baseline = 0;
-
-				serializedData += fd.stringify();
-
-				if (fd.totalReconstErrorEstHomography / fd.summary.numCorrespondences > 1
-						|| fd.transChordalEstHomography > 0.4 || Double.isNaN(fd.totalReconstErrorEstHomography)) {
-					rotationRejects++;
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			for (SCENARIO scenario : SCENARIO.values()) {
+
+				boolean rotationOnly = scenario == SCENARIO.HIGH_PARALLAX_ROTATION
+						|| scenario == SCENARIO.PLANAR_ROTATION;
+				Utils.pl("");
+				Utils.pl("=====================================================================================");
+				Utils.pl("==============================  " + scenario + " SCENE  ==============================");
+				Utils.pl("=====================================================================================");
+				Utils.pl("");
+
+				VirtualEnvironment scene = new VirtualEnvironment();
+				if (scenario == SCENARIO.HIGH_PARALLAX || scenario == SCENARIO.HIGH_PARALLAX_ROTATION) {
+//					scene.generateSphericalScene(seed, 1000);
+					scene.generateScene0(seed);
 				} else {
-					rotationAccepts++;
+					scene.generatePlanarScene(seed, 1000);
 				}
 
-			} else {
-				rotationFails++;
-				Utils.pl("FAILED");
+				// skip iterations already on disk
+				long scenarioStart = (long) scenario.ordinal() * iterations;
+				int first = (int) Math.max(0, Math.min(iterations, resumePosition - scenarioStart));
+
+				// keep a bounded window of samples in flight and collect them in order
+				ArrayDeque<Future<TrainingSample>> pending = new ArrayDeque<Future<TrainingSample>>();
+				int submitted = first;
+				for (int i = first; i < iterations; i++) {
+					while (submitted < iterations && pending.size() < numThreads * 4) {
+						long sampleSeed = Utils.mixSeed(Utils.mixSeed(seed, scenario.ordinal()), submitted);
+						pending.add(executor.submit(() -> generateTrainingSample(scene, rotationOnly, maxBaseline,
+								rotRange, sampleSeed)));
+						submitted++;
+					}
+					TrainingSample sample = pending.poll().get();
+
+					Utils.pl("iteration: " + i);
+					if (rotationOnly) {
+						Utils.pl("baseline: 0");
+					} else {
+						Utils.pl("baseline: " + sample.baseline);
+						Utils.pl("x, y, z:");
+						Utils.pl(sample.x);
+						Utils.pl(sample.y);
+						Utils.pl(sample.z);
+					}
+					Utils.pl("rotation:");
+					Utils.pl(sample.rotX);
+					Utils.pl(sample.rotY);
+					Utils.pl(sample.rotZ);
+					Utils.pl("numCorrespondences: " + sample.numCorrespondences);
+
+					FinalizedData fd = sample.data;
+					if (fd != null) {
+						writer.write(fd);
+
+						if (scenario == SCENARIO.HIGH_PARALLAX) {
+							if (fd.totalReconstErrorEstFun / fd.summary.numCorrespondences > 1
+									|| fd.transChordalEstFun > 0.4) {
+								rejects++;
+							} else {
+								accepts++;
+							}
+						} else if (scenario == SCENARIO.PLANAR) {
+							if (fd.totalReconstErrorEstHomography / fd.summary.numCorrespondences > 1
+									|| fd.transChordalEstHomography > 0.4) {
+								rejects++;
+							} else {
+								accepts++;
+							}
+						} else {
+							if (fd.totalReconstErrorEstHomography / fd.summary.numCorrespondences > 1
+									|| fd.transChordalEstHomography > 0.4
+									|| Double.isNaN(fd.totalReconstErrorEstHomography)) {
+								rotationRejects++;
+							} else {
+								rotationAccepts++;
+							}
+						}
+
+					} else {
+						if (rotationOnly) {
+							rotationFails++;
+						} else {
+							failed++;
+						}
+						Utils.pl("FAILED");
+					}
+					writer.mark(scenarioStart + i + 1);
+
+					Utils.pl("");
+				}
 			}
-
-			Utils.pl("");
+			writer.finish();
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			executor.shutdownNow();
+			writer.close();
 		}
 
 		Utils.pl("rejects: " + rejects + " (" + (int) ((double) rejects * 100 / (rejects + accepts)) + "%)");
@@ -544,15 +387,69 @@ public class ModelTesting {
 		Utils.pl("rotation failed: " + rotationFails);
 		Utils.pl("rotation total: " + (rotationRejects + rotationAccepts + rotationFails));
 
-		// save data
-		try {
-			FileWriter fw = new FileWriter(OUT_FILE);
-			fw.write(serializedData);
-			fw.close();
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+		// per-stage timings (with -Dmetrics=true)
+		Metrics.export(Metrics.DEFAULT_DIR + new File(outFile).getName().replace(".dat", ""));
+
+	}
+
+	// move the secondary camera of a private copy of scene at random and evaluate
+	// the resulting sample. Deterministic for a given seed.
+	public static TrainingSample generateTrainingSample(VirtualEnvironment scene, boolean rotationOnly,
+			double maxBaseline, double rotRange, long seed) {
 
+		Random rand = new Random(seed);
+		VirtualEnvironment mock = scene.copy();
+		TrainingSample trainingSample = new TrainingSample();
+		double rotOffset = rotRange / 2;
+
+		// decide camera movement
+		if (!rotationOnly) {
+			double baseline = rand.nextDouble() * maxBaseline;
+			double x = rand.nextDouble() - 0.5;
+			double y = rand.nextDouble() - 0.5;
+			double z = rand.nextDouble() - 0.5;
+			double mag = Math.sqrt(x * x + y * y + z * z);
+			trainingSample.baseline = baseline;
+			trainingSample.x = x / mag * baseline;
+			trainingSample.y = y / mag * baseline;
+			trainingSample.z = z / mag * baseline;
+		}
+
+		trainingSample.rotX = rand.nextDouble() * rotRange - rotOffset;
+		trainingSample.rotY = rand.nextDouble() * rotRange - rotOffset;
+		trainingSample.rotZ = rand.nextDouble() * rotRange - rotOffset;
+
+		mock.getSecondaryCamera().setCx(trainingSample.x);
+		mock.getSecondaryCamera().setCy(trainingSample.y);
+		mock.getSecondaryCamera().setCz(trainingSample.z);
+		mock.getSecondaryCamera().setQw(1);
+		mock.getSecondaryCamera().setQx(0);
+		mock.getSecondaryCamera().setQy(0);
+		mock.getSecondaryCamera().setQz(0);
+		mock.getSecondaryCamera().rotateEuler(trainingSample.rotX, trainingSample.rotY, trainingSample.rotZ);
+
+		Sample sample = new Sample();
+		sample.setSeed(rand.nextLong());
+		sample.evaluate(mock);
+		trainingSample.numCorrespondences = sample.correspondences.size();
+
+		if (sample.correspondences.size() >= 10) {
+			FinalizedData fd = new FinalizedData();
+			fd.summary = sample.correspondenceSummary;
+			fd.totalReconstErrorEstFun = sample.totalReconstErrorEstFun;
+			fd.totalReconstErrorEstHomography = sample.totalReconstErrorEstHomography;
+			fd.totalReconstErrorEstEssential = sample.totalReconstErrorEstEssential;
+			fd.medianReconstErrorEstFun = sample.medianReconstErrorEstFun;
+			fd.medianReconstErrorEstHomography = sample.medianReconstErrorEstHomography;
+			fd.medianReconstErrorEstEssential = sample.medianReconstErrorEstEssential;
+			fd.transChordalEstFun = sample.transChordalEstFun;
+			fd.transChordalEstHomography = sample.transChordalEstHomography;
+			fd.transChordalEstEssential = sample.transChordalEstEssential;
+			fd.baseline = trainingSample.baseline;
+			trainingSample.data = fd;
+		}
+
+		return trainingSample;
 	}
 
 	public static List<FinalizedData> loadData(String filename) {
@@ -560,6 +457,11 @@ public class ModelTesting {
 
 		try {
 
+			// binary column files (see FinalizedDataColumns.convert())
+			if (FinalizedDataColumns.isColumnar(filename)) {
+				return FinalizedDataColumns.open(filename).toList();
+			}
+
 			BufferedReader br = new BufferedReader(new FileReader(filename));
 			boolean keepGoing = true;
 			while (keepGoing) {
@@ -588,6 +490,41 @@ public class ModelTesting {
 		return data;
 	}
 
+	// normalized n x 23 input matrix. Column files are read straight from the
+	// mapped columns without building FinalizedData objects.
+	public static INDArray loadFeatures(String filename) {
+		try {
+			if (FinalizedDataColumns.isColumnar(filename)) {
+				return Nd4j.create(FinalizedDataColumns.open(filename).getFeatures());
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+
+		return toFeatures(loadData(filename));
+	}
+
+	// normalized n x 23 input matrix for data that is already loaded
+	public static INDArray toFeatures(List<FinalizedData> data) {
+		INDArray input = Nd4j.zeros(data.size(), 23);
+		for (int i = 0; i < data.size(); i++) {
+			input.putRow(i, Nd4j.create(data.get(i).summary.getArray()));
+		}
+		return input;
+	}
+
+	// indices of the samples to test on (pure rotations have no baseline)
+	protected static int[] getTestRows(List<FinalizedData> data, boolean excludePureRotation) {
+		int[] rows = new int[data.size()];
+		int count = 0;
+		for (int i = 0; i < data.size(); i++) {
+			if (!excludePureRotation || data.get(i).baseline > 0) {
+				rows[count++] = i;
+			}
+		}
+		return Arrays.copyOf(rows, count);
+	}
+
 	public static void testModels() {
 
 		String DATA_FILE = "results/data/TUM_samples_stn_3_30.dat";
@@ -658,14 +595,28 @@ public class ModelTesting {
 		Utils.pl("PARAMS hom");
 		Utils.pl(paramsHom);
 
-		// get the data
-		List<FinalizedData> data = loadData(DATA_FILE);
+		// get the data (the file is read once, the evaluations below share it)
+		List<FinalizedData> data = null;
+		INDArray input = null;
+		try {
+			if (FinalizedDataColumns.isColumnar(DATA_FILE)) {
+				FinalizedDataColumns columns = FinalizedDataColumns.open(DATA_FILE);
+				data = columns.toList();
+				input = Nd4j.create(columns.getFeatures());
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		if (data == null) {
+			data = loadData(DATA_FILE);
+			input = toFeatures(data);
+		}
 
 		// get predictions
-		double[] predFun = getPredictions(modelFun, data);
-		double[] predEss = getPredictions(modelEss, data);
-		double[] predHom = getPredictions(modelHom, data);
-		double[] predRot = getPredictions(modelRot, data);
+		double[] predFun = getPredictions(modelFun, input);
+		double[] predEss = getPredictions(modelEss, input);
+		double[] predHom = getPredictions(modelHom, input);
+		double[] predRot = getPredictions(modelRot, input);
 
 		// establish index list
 		double[] indices = new double[data.size()];
@@ -687,8 +638,8 @@ public class ModelTesting {
 		chart.addSeries("Homography Estimate (4PA)", indices, predHom);
 		chart.addSeries("Pure Rotation", indices, predRot);
 
-		// Show it
-		new SwingWrapper(chart).displayChart();
+		// Show it (saved as a png when headless)
+		VisualizationSink.showChart(chart, "model_predictions");
 
 		// evaulate data
 		LabelMaker labelerF = new LabelMaker() {
@@ -713,39 +664,37 @@ public class ModelTesting {
 		};
 
 		Utils.pl("+++++++++++++++++++++++++    FUNDAMENTAL    +++++++++++++++++++++++++");
-		evaluateData(DATA_FILE, modelFun, labelerF, false);
+		evaluateData(data, input, modelFun, labelerF, false);
 		Utils.pl("+++++++++++++++++++++++++     ESSENTIAL     +++++++++++++++++++++++++");
-		evaluateData(DATA_FILE, modelEss, labelerE, false);
+		evaluateData(data, input, modelEss, labelerE, false);
 		Utils.pl("+++++++++++++++++++++++++     HOMOGRAPHY    +++++++++++++++++++++++++");
-		evaluateData(DATA_FILE, modelHom, labelerH, false);
+		evaluateData(data, input, modelHom, labelerH, false);
 		Utils.pl("+++++++++++++++++++++++++     ROTATION      +++++++++++++++++++++++++");
-		evaluateData(DATA_FILE, modelRot, labelerR, false);
+		evaluateData(data, input, modelRot, labelerR, false);
 
 		Utils.pl("////////////  BUTT  ///////////////");
 		Utils.pl("fundamental: ");
-		evaluateButt(DATA_FILE, MODE.FUNDAMENTAL, labelerF, false);
+		evaluateButt(data, MODE.FUNDAMENTAL, labelerF, false);
 		Utils.pl("homography: ");
-		evaluateButt(DATA_FILE, MODE.HOMOGRAPHY, labelerH, false);
+		evaluateButt(data, MODE.HOMOGRAPHY, labelerH, false);
 
 		// evaluate models with pure rotation model filter
 		Utils.pl("------------------    FUNDAMENTAL FILTERED    -------------------");
-		evaluateDataFiltered(DATA_FILE, modelFun, modelRot, labelerF, false);
+		evaluateDataFiltered(data, input, modelFun, modelRot, labelerF, false);
 		Utils.pl("------------------    ESSENTIAL FILTERED    -------------------");
-		evaluateDataFiltered(DATA_FILE, modelEss, modelRot, labelerE, false);
+		evaluateDataFiltered(data, input, modelEss, modelRot, labelerE, false);
 		Utils.pl("------------------    HOMOGRAPHY FILTERED    -------------------");
-		evaluateDataFiltered(DATA_FILE, modelHom, modelRot, labelerH, false);
+		evaluateDataFiltered(data, input, modelHom, modelRot, labelerH, false);
 
 	}
 
-	public static void evaluateData(String testingFilename, MultiLayerNetwork model, LabelMaker labeler,
-			boolean excludePureRotation) {
-		// load testing data
-		List<FinalizedData> pretest = loadData(testingFilename);
-		List<FinalizedData> test = new ArrayList<FinalizedData>();
-		for (int i = 0; i < pretest.size(); i++) {
-			if (!excludePureRotation || pretest.get(i).baseline > 0) {
-				test.add(pretest.get(i));
-			}
+	public static void evaluateData(List<FinalizedData> data, INDArray features, MultiLayerNetwork model,
+			LabelMaker labeler, boolean excludePureRotation) {
+		// select testing data
+		int[] rows = getTestRows(data, excludePureRotation);
+		List<FinalizedData> test = new ArrayList<FinalizedData>(rows.length);
+		for (int i = 0; i < rows.length; i++) {
+			test.add(data.get(rows[i]));
 		}
 
 		// generate test labels
@@ -754,12 +703,8 @@ public class ModelTesting {
 			testLabels.putScalar(new int[] { i, 0 }, labeler.getLabel(test.get(i)));
 		}
 
-		// create input array (normalize data)
-		INDArray testInput = Nd4j.zeros(test.size(), 23);
-		for (int i = 0; i < test.size(); i++) {
-			INDArray row = Nd4j.create(test.get(i).summary.getArray());
-			testInput.putRow(i, row);
-		}
+		// input rows of the testing data (already normalized)
+		INDArray testInput = rows.length == data.size() ? features : features.getRows(rows);
 
 		// set up test data
 		DataSet testData = new DataSet(testInput, testLabels);
@@ -781,15 +726,13 @@ public class ModelTesting {
 		System.out.println(eval.stats());
 	}
 
-	public static void evaluateDataManual(String testingFilename, MultiLayerNetwork model, LabelMaker labeler,
-			boolean excludePureRotation) {
-		// load testing data
-		List<FinalizedData> pretest = loadData(testingFilename);
-		List<FinalizedData> test = new ArrayList<FinalizedData>();
-		for (int i = 0; i < pretest.size(); i++) {
-			if (!excludePureRotation || pretest.get(i).baseline > 0) {
-				test.add(pretest.get(i));
-			}
+	public static void evaluateDataManual(List<FinalizedData> data, INDArray features, MultiLayerNetwork model,
+			LabelMaker labeler, boolean excludePureRotation) {
+		// select testing data
+		int[] rows = getTestRows(data, excludePureRotation);
+		List<FinalizedData> test = new ArrayList<FinalizedData>(rows.length);
+		for (int i = 0; i < rows.length; i++) {
+			test.add(data.get(rows[i]));
 		}
 
 		// generate test labels
@@ -798,12 +741,8 @@ public class ModelTesting {
 			testLabels.putScalar(new int[] { i, 0 }, labeler.getLabel(test.get(i)));
 		}
 
-		// create input array (normalize data)
-		INDArray testInput = Nd4j.zeros(test.size(), 23);
-		for (int i = 0; i < test.size(); i++) {
-			INDArray row = Nd4j.create(test.get(i).summary.getArray());
-			testInput.putRow(i, row);
-		}
+		// input rows of the testing data (already normalized)
+		INDArray testInput = rows.length == data.size() ? features : features.getRows(rows);
 
 		// set up test data
 		DataSet testData = new DataSet(testInput, testLabels);
@@ -857,15 +796,13 @@ public class ModelTesting {
 
 	}
 
-	public static void evaluateDataFiltered(String testingFilename, MultiLayerNetwork model, MultiLayerNetwork rotModel,
-			LabelMaker labeler, boolean excludePureRotation) {
-		// load testing data
-		List<FinalizedData> pretest = loadData(testingFilename);
-		List<FinalizedData> test = new ArrayList<FinalizedData>();
-		for (int i = 0; i < pretest.size(); i++) {
-			if (!excludePureRotation || pretest.get(i).baseline > 0) {
-				test.add(pretest.get(i));
-			}
+	public static void evaluateDataFiltered(List<FinalizedData> data, INDArray features, MultiLayerNetwork model,
+			MultiLayerNetwork rotModel, LabelMaker labeler, boolean excludePureRotation) {
+		// select testing data
+		int[] rows = getTestRows(data, excludePureRotation);
+		List<FinalizedData> test = new ArrayList<FinalizedData>(rows.length);
+		for (int i = 0; i < rows.length; i++) {
+			test.add(data.get(rows[i]));
 		}
 
 		// generate test labels
@@ -874,12 +811,8 @@ public class ModelTesting {
 			testLabels.putScalar(new int[] { i, 0 }, labeler.getLabel(test.get(i)));
 		}
 
-		// create input array (normalize data)
-		INDArray testInput = Nd4j.zeros(test.size(), 23);
-		for (int i = 0; i < test.size(); i++) {
-			INDArray row = Nd4j.create(test.get(i).summary.getArray());
-			testInput.putRow(i, row);
-		}
+		// input rows of the testing data (already normalized)
+		INDArray testInput = rows.length == data.size() ? features : features.getRows(rows);
 
 		// set up test data
 		DataSet testData = new DataSet(testInput, testLabels);
@@ -935,16 +868,14 @@ public class ModelTesting {
 
 	}
 
-	public static void evaluateButt(String testingFilename, MODE mode, LabelMaker labeler,
+	public static void evaluateButt(List<FinalizedData> data, MODE mode, LabelMaker labeler,
 			boolean excludePureRotation) {
 
-		// load testing data
-		List<FinalizedData> pretest = loadData(testingFilename);
-		List<FinalizedData> test = new ArrayList<FinalizedData>();
-		for (int i = 0; i < pretest.size(); i++) {
-			if (!excludePureRotation || pretest.get(i).baseline > 0) {
-				test.add(pretest.get(i));
-			}
+		// select testing data
+		int[] rows = getTestRows(data, excludePureRotation);
+		List<FinalizedData> test = new ArrayList<FinalizedData>(rows.length);
+		for (int i = 0; i < rows.length; i++) {
+			test.add(data.get(rows[i]));
 		}
 
 		// generate test labels
@@ -1012,6 +943,11 @@ public class ModelTesting {
 			input.putRow(i, row);
 		}
 
+		return getPredictions(model, input);
+	}
+
+	public static double[] getPredictions(MultiLayerNetwork model, INDArray input) {
+
 		INDArray output = model.output(input);
 
 		Utils.pl("prediction:");
@@ -0,0 +1,134 @@
+import java.util.List;
+
+import org.opencv.core.KeyPoint;
+
+// Greedy non-maximum suppression over a uniform grid. Points are visited in
+// the given order (strongest first when the input is sorted by response); a
+// point survives when no earlier survivor lies within the radius, and then
+// suppresses the later points around it. This is the same result as the
+// pairwise list-removal loops it replaces, but each point only looks at the
+// survivors in the 3x3 cells around it (cells are at least radius wide).
+//
+// Buffers (including the survivor list) are kept between calls and only grow.
+public class NMSGrid {
+
+	// upper bound on cells per point, the cell size is increased beyond the
+	// radius to respect it (keeps sparse points over a large area cheap)
+	public static final int CELLS_PER_POINT = 4;
+	public static final int MIN_CELLS = 1024;
+
+	protected double[] xs = new double[0];
+	protected double[] ys = new double[0];
+
+	// survivor indices in visiting order (valid up to numSurvivors)
+	protected int[] survivors = new int[0];
+	protected int numSurvivors = 0;
+
+	// survivors per cell as linked lists: head[cell] and next[survivor]
+	protected int[] head = new int[0];
+	protected int[] next = new int[0];
+
+	// indices of the points that survive, in order, into getSurvivors(). With
+	// inclusive = true points at exactly radius are suppressed too
+	public int suppress(double[] xs, double[] ys, int n, double radius, boolean inclusive) {
+		this.ensureCapacity(n);
+		this.numSurvivors = 0;
+		if (n == 0) {
+			return 0;
+		}
+
+		// grid over the bounding box
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			minX = Math.min(minX, xs[i]);
+			minY = Math.min(minY, ys[i]);
+			maxX = Math.max(maxX, xs[i]);
+			maxY = Math.max(maxY, ys[i]);
+		}
+		double cellSize = Math.max(radius, 1e-9);
+		long maxCells = Math.max((long) n * CELLS_PER_POINT, MIN_CELLS);
+		while ((long) ((maxX - minX) / cellSize + 1) * (long) ((maxY - minY) / cellSize + 1) > maxCells) {
+			cellSize *= 2;
+		}
+		int cols = (int) ((maxX - minX) / cellSize) + 1;
+		int rows = (int) ((maxY - minY) / cellSize) + 1;
+		int numCells = cols * rows;
+		if (this.head.length < numCells) {
+			this.head = new int[Math.max(numCells, this.head.length * 3 / 2)];
+		}
+		for (int c = 0; c < numCells; c++) {
+			this.head[c] = -1;
+		}
+
+		for (int i = 0; i < n; i++) {
+			double x = xs[i];
+			double y = ys[i];
+			int col = (int) ((x - minX) / cellSize);
+			int row = (int) ((y - minY) / cellSize);
+
+			// look for a survivor close enough to suppress this point
+			boolean suppressed = false;
+			for (int r = Math.max(row - 1, 0); r <= Math.min(row + 1, rows - 1) && !suppressed; r++) {
+				for (int c = Math.max(col - 1, 0); c <= Math.min(col + 1, cols - 1) && !suppressed; c++) {
+					for (int s = this.head[r * cols + c]; s >= 0; s = this.next[s]) {
+						double dist = Math.sqrt((xs[s] - x) * (xs[s] - x) + (ys[s] - y) * (ys[s] - y));
+						if (inclusive ? dist <= radius : dist < radius) {
+							suppressed = true;
+							break;
+						}
+					}
+				}
+			}
+			if (suppressed) {
+				continue;
+			}
+
+			int cell = row * cols + col;
+			this.next[i] = this.head[cell];
+			this.head[cell] = i;
+			this.survivors[this.numSurvivors++] = i;
+		}
+		return this.numSurvivors;
+	}
+
+	// as above for keypoint locations
+	public int suppress(List<KeyPoint> keypoints, double radius, boolean inclusive) {
+		int n = keypoints.size();
+		this.ensureCapacity(n);
+		for (int i = 0; i < n; i++) {
+			KeyPoint kp = keypoints.get(i);
+			this.xs[i] = kp.pt.x;
+			this.ys[i] = kp.pt.y;
+		}
+		return this.suppress(this.xs, this.ys, n, radius, inclusive);
+	}
+
+	// remove the suppressed keypoints from the list (order of the rest is kept)
+	public void suppressInPlace(List<KeyPoint> keypoints, double radius, boolean inclusive) {
+		int count = this.suppress(keypoints, radius, inclusive);
+		for (int k = 0; k < count; k++) {
+			keypoints.set(k, keypoints.get(this.survivors[k]));
+		}
+		keypoints.subList(count, keypoints.size()).clear();
+	}
+
+	protected void ensureCapacity(int n) {
+		if (this.next.length < n) {
+			int capacity = Math.max(n, this.next.length * 3 / 2);
+			this.xs = new double[capacity];
+			this.ys = new double[capacity];
+			this.survivors = new int[capacity];
+			this.next = new int[capacity];
+		}
+	}
+
+	public int[] getSurvivors() {
+		return this.survivors;
+	}
+
+	public int getNumSurvivors() {
+		return this.numSurvivors;
+	}
+
+}
@@ -0,0 +1,371 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.KeyPoint;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+// Rotated BRIEF (ORB) descriptors computed in Java from the bordered pyramid
+// PyramidBuilder builds for ORBExtractor, so there is no second pyramid and no
+// OpenCV ORB call.
+//
+// As in OpenCV's ORB, the interior of each level is smoothed in place (7x7
+// Gaussian, sigma 2) and bit i of a descriptor is set when the smoothed pixel
+// at the rotated first point of pair i is darker than the one at the second.
+// The 256 point pairs are OpenCV's learned pattern; its rotations are
+// precomputed for NUM_ANGLE_BINS angles and a keypoint uses the bin nearest to
+// its angle. With PyramidBuilder's levels (resized level from level, like
+// OpenCV's) the descriptors of keypoints with whole degree angles are bit for
+// bit those of ORB.compute at every octave; other angles differ by a couple
+// of bits from the binning.
+//
+// Border policy: ORB.compute drops keypoints within edgeThreshold of the
+// image border. Here every keypoint is described, so keypoint lists and
+// descriptor rows stay aligned; pattern points that fall outside a level read
+// the pyramid's (unsmoothed) reflected border.
+//
+// Descriptors are packed into a long[] store, 4 longs per keypoint: bit i is
+// bit (i % 64) of long (i / 64), so the little endian bytes of the longs are
+// OpenCV's descriptor bytes (see toMat()).
+public class ORBDescriptor {
+
+	public static final int NUM_BITS = 256;
+	public static final int NUM_LONGS = NUM_BITS / 64;
+	public static final int NUM_BYTES = NUM_BITS / 8;
+
+	// 1 degree steps
+	public static final int NUM_ANGLE_BINS = 360;
+
+	// keypoints per parallel task
+	public static final int CHUNK_SIZE = 128;
+
+	// pattern points lie within this radius of the keypoint (rotated too)
+	public static final int PATTERN_RADIUS = 19;
+
+	public static final Size BLUR_SIZE = new Size(7, 7);
+	public static final double BLUR_SIGMA = 2;
+
+	// OpenCV's bit_pattern_31_: x1, y1, x2, y2 of each of the 256 pairs
+	protected static final int[] PATTERN = {
+			8, -3, 9, 5, 4, 2, 7, -12,
+			-11, 9, -8, 2, 7, -12, 12, -13,
+			2, -13, 2, 12, 1, -7, 1, 6,
+			-2, -10, -2, -4, -13, -13, -11, -8,
+			-13, -3, -12, -9, 10, 4, 11, 9,
+			-13, -8, -8, -9, -11, 7, -9, 12,
+			7, 7, 12, 6, -4, -5, -3, 0,
+			-13, 2, -12, -3, -9, 0, -7, 5,
+			12, -6, 12, -1, -3, 6, -2, 12,
+			-6, -13, -4, -8, 11, -13, 12, -8,
+			4, 7, 5, 1, 5, -3, 10, -3,
+			3, -7, 6, 12, -8, -7, -6, -2,
+			-2, 11, -1, -10, -13, 12, -8, 10,
+			-7, 3, -5, -3, -4, 2, -3, 7,
+			-10, -12, -6, 11, 5, -12, 6, -7,
+			5, -6, 7, -1, 1, 0, 4, -5,
+			9, 11, 11, -13, 4, 7, 4, 12,
+			2, -1, 4, 4, -4, -12, -2, 7,
+			-8, -5, -7, -10, 4, 11, 9, 12,
+			0, -8, 1, -13, -13, -2, -8, 2,
+			-3, -2, -2, 3, -6, 9, -4, -9,
+			8, 12, 10, 7, 0, 9, 1, 3,
+			7, -5, 11, -10, -13, -6, -11, 0,
+			10, 7, 12, 1, -6, -3, -6, 12,
+			10, -9, 12, -4, -13, 8, -8, -12,
+			-13, 0, -8, -4, 3, 3, 7, 8,
+			5, 7, 10, -7, -1, 7, 1, -12,
+			3, -10, 5, 6, 2, -4, 3, -10,
+			-13, 0, -13, 5, -13, -7, -12, 12,
+			-13, 3, -11, 8, -7, 12, -4, 7,
+			6, -10, 12, 8, -9, -1, -7, -6,
+			-2, -5, 0, 12, -12, 5, -7, 5,
+			3, -10, 8, -13, -7, -7, -4, 5,
+			-3, -2, -1, -7, 2, 9, 5, -11,
+			-11, -13, -5, -13, -1, 6, 0, -1,
+			5, -3, 5, 2, -4, -13, -4, 12,
+			-9, -6, -9, 6, -12, -10, -8, -4,
+			10, 2, 12, -3, 7, 12, 12, 12,
+			-7, -13, -6, 5, -4, 9, -3, 4,
+			7, -1, 12, 2, -7, 6, -5, 1,
+			-13, 11, -12, 5, -3, 7, -2, -6,
+			7, -8, 12, -7, -13, -7, -11, -12,
+			1, -3, 12, 12, 2, -6, 3, 0,
+			-4, 3, -2, -13, -1, -13, 1, 9,
+			7, 1, 8, -6, 1, -1, 3, 12,
+			9, 1, 12, 6, -1, -9, -1, 3,
+			-13, -13, -10, 5, 7, 7, 10, 12,
+			12, -5, 12, 9, 6, 3, 7, 11,
+			5, -13, 6, 10, 2, -12, 2, 3,
+			3, 8, 4, -6, 2, 6, 12, -13,
+			9, -12, 10, 3, -8, 4, -7, 9,
+			-11, 12, -4, -6, 1, 12, 2, -8,
+			6, -9, 7, -4, 2, 3, 3, -2,
+			6, 3, 11, 0, 3, -3, 8, -8,
+			7, 8, 9, 3, -11, -5, -6, -4,
+			-10, 11, -5, 10, -5, -8, -3, 12,
+			-10, 5, -9, 0, 8, -1, 12, -6,
+			4, -6, 6, -11, -10, 12, -8, 7,
+			4, -2, 6, 7, -2, 0, -2, 12,
+			-5, -8, -5, 2, 7, -6, 10, 12,
+			-9, -13, -8, -8, -5, -13, -5, -2,
+			8, -8, 9, -13, -9, -11, -9, 0,
+			1, -8, 1, -2, 7, -4, 9, 1,
+			-2, 1, -1, -4, 11, -6, 12, -11,
+			-12, -9, -6, 4, 3, 7, 7, 12,
+			5, 5, 10, 8, 0, -4, 2, 8,
+			-9, 12, -5, -13, 0, 7, 2, 12,
+			-1, 2, 1, 7, 5, 11, 7, -9,
+			3, 5, 6, -8, -13, -4, -8, 9,
+			-5, 9, -3, -3, -4, -7, -3, -12,
+			6, 5, 8, 0, -7, 6, -6, 12,
+			-13, 6, -5, -2, 1, -10, 3, 10,
+			4, 1, 8, -4, -2, -2, 2, -13,
+			2, -12, 12, 12, -2, -13, 0, -6,
+			4, 1, 9, 3, -6, -10, -3, -5,
+			-3, -13, -1, 1, 7, 5, 12, -11,
+			4, -2, 5, -7, -13, 9, -9, -5,
+			7, 1, 8, 6, 7, -8, 7, 6,
+			-7, -4, -7, 1, -8, 11, -7, -8,
+			-13, 6, -12, -8, 2, 4, 3, 9,
+			10, -5, 12, 3, -6, -5, -6, 7,
+			8, -3, 9, -8, 2, -12, 2, 8,
+			-11, -2, -10, 3, -12, -13, -7, -9,
+			-11, 0, -10, -5, 5, -3, 11, 8,
+			-2, -13, -1, 12, -1, -8, 0, 9,
+			-13, -11, -12, -5, -10, -2, -10, 11,
+			-3, 9, -2, -13, 2, -3, 3, 2,
+			-9, -13, -4, 0, -4, 6, -3, -10,
+			-4, 12, -2, -7, -6, -11, -4, 9,
+			6, -3, 6, 11, -13, 11, -5, 5,
+			11, 11, 12, 6, 7, -5, 12, -2,
+			-1, 12, 0, 7, -4, -8, -3, -2,
+			-7, 1, -6, 7, -13, -12, -8, -13,
+			-7, -2, -6, -8, -8, 5, -6, -9,
+			-5, -1, -4, 5, -13, 7, -8, 10,
+			1, 5, 5, -13, 1, 0, 10, -13,
+			9, 12, 10, -1, 5, -8, 10, -9,
+			-1, 11, 1, -13, -9, -3, -6, 2,
+			-1, -10, 1, 12, -13, 1, -8, -10,
+			8, -11, 10, -6, 2, -13, 3, -6,
+			7, -13, 12, -9, -10, -10, -5, -7,
+			-10, -8, -8, -13, 4, -6, 8, 5,
+			3, 12, 8, -13, -4, 2, -3, -3,
+			5, -13, 10, -12, 4, -13, 5, -1,
+			-9, 9, -4, 3, 0, 3, 3, -9,
+			-12, 1, -6, 1, 3, 2, 4, -8,
+			-10, -10, -10, 9, 8, -13, 12, 12,
+			-8, -12, -6, -5, 2, 2, 3, 7,
+			10, 6, 11, -8, 6, 8, 8, -12,
+			-7, 10, -6, 5, -3, -9, -3, 9,
+			-1, -13, -1, 5, -3, -7, -3, 4,
+			-8, -2, -8, 3, 4, 2, 12, 12,
+			2, -5, 3, 11, 6, -9, 11, -13,
+			3, -1, 7, 12, 11, -1, 12, 4,
+			-3, 0, -3, 6, 4, -11, 4, 12,
+			2, -4, 2, 1, -10, -6, -8, 1,
+			-13, 7, -11, 1, -13, 12, -11, -13,
+			6, 0, 11, -13, 0, -1, 1, 4,
+			-13, 3, -9, -2, -9, 8, -6, -3,
+			-13, -6, -8, -2, 5, -9, 8, 10,
+			2, 7, 3, -9, -1, -6, -1, -1,
+			9, 5, 11, -2, 11, -3, 12, -8,
+			3, 0, 3, 5, -1, 4, 0, 10,
+			3, -6, 4, 5, -13, 0, -10, 5,
+			5, 8, 12, 11, 8, 9, 9, -6,
+			7, -4, 8, -12, -10, 4, -10, 9,
+			7, 3, 12, 4, 9, -7, 10, -2,
+			7, 0, 12, -2, -1, -6, 0, -11
+	};
+
+	// per angle bin: rotated (rounded) pattern points, 2 per pair
+	protected static final byte[] ROTATED_X = new byte[NUM_ANGLE_BINS * NUM_BITS * 2];
+	protected static final byte[] ROTATED_Y = new byte[NUM_ANGLE_BINS * NUM_BITS * 2];
+
+	static {
+		for (int bin = 0; bin < NUM_ANGLE_BINS; bin++) {
+			float angle = (float) bin * 360 / NUM_ANGLE_BINS * (float) (Math.PI / 180);
+			float a = (float) Math.cos(angle);
+			float b = (float) Math.sin(angle);
+			for (int p = 0; p < NUM_BITS * 2; p++) {
+				int px = PATTERN[p * 2];
+				int py = PATTERN[p * 2 + 1];
+				ROTATED_X[bin * NUM_BITS * 2 + p] = (byte) Math.rint(px * a - py * b);
+				ROTATED_Y[bin * NUM_BITS * 2 + p] = (byte) Math.rint(px * b + py * a);
+			}
+		}
+	}
+
+	protected static final Metrics.Timer DESCRIPTOR_TIMER = Metrics.timer("descriptors");
+
+	// smoothed bordered levels (reused)
+	protected List<Mat> blurred = new ArrayList<Mat>();
+	protected List<byte[]> pixels = new ArrayList<byte[]>();
+
+	// keypoints being described
+	protected int count = 0;
+	protected int[] offsets = new int[0];
+	protected int[] levels = new int[0];
+	protected int[] bins = new int[0];
+
+	// descriptors of keypoints (in order) into store, grown when it is too small.
+	// Returns the store. pyramid must have been built (with a border of at least
+	// PATTERN_RADIUS) from the image the keypoints were detected on
+	public long[] compute(PyramidBuilder pyramid, List<KeyPoint> keypoints, long[] store) {
+		if (pyramid.getBorder() < PATTERN_RADIUS) {
+			throw new IllegalArgumentException("pyramid border must be at least " + PATTERN_RADIUS);
+		}
+		long start = DESCRIPTOR_TIMER.start();
+		this.count = keypoints.size();
+		if (store.length < this.count * NUM_LONGS) {
+			store = new long[this.count * NUM_LONGS];
+		}
+		this.smooth(pyramid);
+
+		// centers as offsets into the bordered level buffers
+		this.ensureCapacity(this.count);
+		int border = pyramid.getBorder();
+		List<Float> scaleFactors = pyramid.getScaleFactors();
+		for (int i = 0; i < this.count; i++) {
+			KeyPoint kp = keypoints.get(i);
+			int level = kp.octave;
+			float scale = 1.f / scaleFactors.get(level);
+			int x = (int) Math.rint((float) kp.pt.x * scale) + border;
+			int y = (int) Math.rint((float) kp.pt.y * scale) + border;
+			this.levels[i] = level;
+			this.offsets[i] = y * pyramid.getBorderedWidths().get(level) + x;
+			this.bins[i] = angleBin(kp.angle);
+		}
+
+		if (!PyramidBuilder.isParallel() || this.count <= CHUNK_SIZE) {
+			this.describe(pyramid, store, 0, this.count);
+		} else {
+			ExecutorService executor = PyramidBuilder.getExecutor();
+			List<Future<?>> pending = new ArrayList<Future<?>>();
+			long[] out = store;
+			for (int from = CHUNK_SIZE; from < this.count; from += CHUNK_SIZE) {
+				final int f = from;
+				pending.add(executor.submit(() -> this.describe(pyramid, out, f, Math.min(f + CHUNK_SIZE, this.count))));
+			}
+			this.describe(pyramid, store, 0, CHUNK_SIZE);
+			for (Future<?> future : pending) {
+				PyramidBuilder.join(future);
+			}
+		}
+		DESCRIPTOR_TIMER.stop(start);
+		return store;
+	}
+
+	// descriptors of keypoints [from, to)
+	protected void describe(PyramidBuilder pyramid, long[] store, int from, int to) {
+		byte[] rotatedX = ROTATED_X;
+		byte[] rotatedY = ROTATED_Y;
+		int[] offsets = this.offsets;
+		for (int i = from; i < to; i++) {
+			byte[] img = this.pixels.get(this.levels[i]);
+			int step = pyramid.getBorderedWidths().get(this.levels[i]);
+			int center = offsets[i];
+			int p = this.bins[i] * NUM_BITS * 2;
+
+			for (int w = 0; w < NUM_LONGS; w++) {
+				long bits = 0;
+				for (int k = 0; k < 64; k++, p += 2) {
+					int t0 = img[center + rotatedY[p] * step + rotatedX[p]] & 0xff;
+					int t1 = img[center + rotatedY[p + 1] * step + rotatedX[p + 1]] & 0xff;
+					// sign bit of t0 - t1: t0 < t1
+					bits |= (long) ((t0 - t1) >>> 31) << k;
+				}
+				store[i * NUM_LONGS + w] = bits;
+			}
+		}
+	}
+
+	// smooth every level into the reused buffers: a copy of the bordered level
+	// whose interior is blurred in place, as OpenCV's ORB does (blurring the
+	// whole bordered level rounds differently and flips about 1% of the bits)
+	protected void smooth(PyramidBuilder pyramid) {
+		Mat[] bordered = pyramid.getBorderedLevels();
+		while (this.blurred.size() < bordered.length) {
+			this.blurred.add(new Mat());
+			this.pixels.add(new byte[0]);
+		}
+		for (int level = 0; level < bordered.length; level++) {
+			Mat mat = this.blurred.get(level);
+			bordered[level].copyTo(mat);
+			int border = pyramid.getBorder();
+			Mat interior = mat.submat(border, mat.rows() - border, border, mat.cols() - border);
+			Imgproc.GaussianBlur(interior, interior, BLUR_SIZE, BLUR_SIGMA, BLUR_SIGMA, Core.BORDER_REFLECT_101);
+			interior.release();
+			int size = mat.cols() * mat.rows();
+			if (this.pixels.get(level).length != size) {
+				this.pixels.set(level, new byte[size]);
+			}
+			mat.get(0, 0, this.pixels.get(level));
+		}
+	}
+
+	protected void ensureCapacity(int n) {
+		if (this.offsets.length < n) {
+			int capacity = Math.max(n, this.offsets.length * 3 / 2);
+			this.offsets = new int[capacity];
+			this.levels = new int[capacity];
+			this.bins = new int[capacity];
+		}
+	}
+
+	// nearest angle bin of an angle in degrees
+	public static int angleBin(float angle) {
+		int bin = Math.round(angle * NUM_ANGLE_BINS / 360f) % NUM_ANGLE_BINS;
+		return bin < 0 ? bin + NUM_ANGLE_BINS : bin;
+	}
+
+	// descriptors in OpenCV's layout (count x 32, 8 bit)
+	public static Mat toMat(long[] store, int count) {
+		Mat mat = new Mat(count, NUM_BYTES, CvType.CV_8UC1);
+		if (count == 0) {
+			return mat;
+		}
+		byte[] bytes = new byte[count * NUM_BYTES];
+		for (int i = 0; i < count * NUM_LONGS; i++) {
+			long bits = store[i];
+			for (int b = 0; b < 8; b++) {
+				bytes[i * 8 + b] = (byte) (bits >>> (b * 8));
+			}
+		}
+		mat.put(0, 0, bytes);
+		return mat;
+	}
+
+	// descriptors of a count x 32 8 bit Mat into store (grown when too small)
+	public static long[] fromMat(Mat mat, long[] store) {
+		int count = mat.rows();
+		if (store.length < count * NUM_LONGS) {
+			store = new long[count * NUM_LONGS];
+		}
+		byte[] bytes = new byte[count * NUM_BYTES];
+		if (count > 0) {
+			mat.get(0, 0, bytes);
+		}
+		for (int i = 0; i < count * NUM_LONGS; i++) {
+			long bits = 0;
+			for (int b = 0; b < 8; b++) {
+				bits |= (bytes[i * 8 + b] & 0xffL) << (b * 8);
+			}
+			store[i] = bits;
+		}
+		return store;
+	}
+
+	public void release() {
+		for (Mat mat : this.blurred) {
+			mat.release();
+		}
+		this.blurred.clear();
+		this.pixels.clear();
+	}
+
+}
@@ -0,0 +1,483 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.opencv.core.KeyPoint;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+
+// Intensity centroid orientation (ORB's ICAngle) of keypoints on bordered
+// pyramid levels.
+//
+// The moments of the circular patch are sums over its rows. With per-row
+// prefix sums of I(x) and x * I(x) over a level, each patch row costs O(1):
+// for the row segment [cx - d, cx + d]
+//
+//   sum I        = P[cx + d + 1] - P[cx - d]
+//   sum u * I    = (Q[cx + d + 1] - Q[cx - d]) - cx * sum I
+//
+// The prefix sums are only built over the rows the level's keypoints touch,
+// and only when that is cheaper than walking the patches directly (a level
+// with a handful of keypoints is summed pixel by pixel). Levels run in
+// parallel on the pyramid pool when PyramidBuilder is parallel.
+//
+// computeAnglesClamped() handles keypoints on an image without a border, each
+// with its own patch size (KeyPoint.size); pixels outside the image count as 0.
+//
+// Use get() for the calling thread's engine; its buffers are reused.
+public class OrientationEngine {
+
+	// u_max per patch size (half widths of the circular patch rows), shared
+	protected static final Map<Integer, int[]> uMaxTables = new ConcurrentHashMap<Integer, int[]>();
+
+	protected static final ThreadLocal<OrientationEngine> engines = new ThreadLocal<OrientationEngine>();
+
+	// atan approximation of OpenCV's fastAtan2 (degrees)
+	protected static final float ATAN2_P1 = 0.9997878412794807f * (float) (180 / Math.PI);
+	protected static final float ATAN2_P3 = -0.3258083974640975f * (float) (180 / Math.PI);
+	protected static final float ATAN2_P5 = 0.1555786518463281f * (float) (180 / Math.PI);
+	protected static final float ATAN2_P7 = -0.04432655554792128f * (float) (180 / Math.PI);
+	protected static final float DBL_EPSILON = (float) Math.ulp(1.0);
+
+	// cost of building the prefix sums per pixel, relative to summing one
+	// patch pixel directly (measured)
+	public static int PREFIX_COST = 3;
+
+	protected int patchSize;
+	protected int halfPatch;
+	protected int[] uMax;
+
+	// pixels in the patch (the cost of a direct sum)
+	protected int patchArea;
+
+	// keypoints being processed, grouped by level (counting sort)
+	protected int count = 0;
+	protected int[] centerX = new int[0];
+	protected int[] centerY = new int[0];
+	protected int[] levels = new int[0];
+	protected int[] halfPatches = new int[0];
+	protected int[] order = new int[0];
+	protected int[] levelStart = new int[1];
+	protected float[] angles = new float[0];
+
+	// per level prefix sums (reused)
+	protected List<int[]> sums = new ArrayList<int[]>();
+	protected List<int[]> weightedSums = new ArrayList<int[]>();
+
+	// scratch for Mat levels
+	protected byte[] matPixels = new byte[0];
+
+	public OrientationEngine(int patchSize) {
+		this.patchSize = patchSize;
+		this.halfPatch = patchSize / 2;
+		this.uMax = getUMax(patchSize);
+		this.patchArea = getPatchArea(patchSize);
+	}
+
+	// the calling thread's engine for patchSize
+	public static OrientationEngine get(int patchSize) {
+		OrientationEngine engine = engines.get();
+		if (engine == null || engine.patchSize != patchSize) {
+			engine = new OrientationEngine(patchSize);
+			engines.set(engine);
+		}
+		return engine;
+	}
+
+	// half width of each row of the circular patch (row v = 0 .. patchSize / 2),
+	// computed once per patch size
+	public static int[] getUMax(int patchSize) {
+		return uMaxTables.computeIfAbsent(patchSize, size -> {
+			int halfPatchSize = size / 2;
+			int[] umax = new int[halfPatchSize + 2];
+
+			int v, v0, vmax = (int) Math.floor(halfPatchSize * Math.sqrt(2.f) / 2 + 1);
+			int vmin = (int) Math.ceil(halfPatchSize * Math.sqrt(2.f) / 2);
+			for (v = 0; v <= vmax; ++v)
+				umax[v] = (int) Math.round(Math.sqrt((double) halfPatchSize * halfPatchSize - v * v));
+
+			// Make sure we are symmetric
+			for (v = halfPatchSize, v0 = 0; v >= vmin; --v) {
+				while (umax[v0] == umax[v0 + 1])
+					++v0;
+				umax[v] = v0;
+				++v0;
+			}
+			return umax;
+		});
+	}
+
+	// pixels in the circular patch
+	public static int getPatchArea(int patchSize) {
+		int halfPatch = patchSize / 2;
+		int[] uMax = getUMax(patchSize);
+		int area = 2 * halfPatch + 1;
+		for (int v = 1; v <= halfPatch; v++) {
+			area += 2 * (2 * uMax[v] + 1);
+		}
+		return area;
+	}
+
+	// angles of keypoints (full image coordinates, octave set) on a pyramid
+	// built with a border of at least patchSize / 2
+	public void computeAngles(PyramidBuilder pyramid, List<KeyPoint> keypoints) {
+		int numLevels = pyramid.getNumLevels();
+		int border = pyramid.getBorder();
+		List<Float> scaleFactors = pyramid.getScaleFactors();
+		float[] scales = new float[numLevels];
+		for (int level = 0; level < numLevels; level++) {
+			scales[level] = scaleFactors.get(level);
+		}
+
+		this.ensureCapacity(keypoints.size(), numLevels);
+		this.count = keypoints.size();
+		for (int i = 0; i < this.count; i++) {
+			KeyPoint kp = keypoints.get(i);
+			float sf = scales[kp.octave];
+			this.levels[i] = kp.octave;
+			this.centerX[i] = (int) (kp.pt.x / sf) + border;
+			this.centerY[i] = (int) (kp.pt.y / sf) + border;
+		}
+		this.groupByLevel(numLevels);
+
+		List<byte[]> buffers = pyramid.getBuffers();
+		List<Integer> widths = pyramid.getBorderedWidths();
+		List<Integer> heights = pyramid.getBorderedHeights();
+		if (!PyramidBuilder.isParallel() || numLevels == 1) {
+			for (int level = 0; level < numLevels; level++) {
+				this.computeLevel(level, buffers.get(level), widths.get(level), heights.get(level));
+			}
+		} else {
+			ExecutorService executor = PyramidBuilder.getExecutor();
+			List<Future<?>> pending = new ArrayList<Future<?>>(numLevels);
+			for (int level = 1; level < numLevels; level++) {
+				final int l = level;
+				pending.add(executor.submit(() -> this.computeLevel(l, buffers.get(l), widths.get(l), heights.get(l))));
+			}
+			this.computeLevel(0, buffers.get(0), widths.get(0), heights.get(0));
+			for (Future<?> future : pending) {
+				PyramidBuilder.join(future);
+			}
+		}
+
+		for (int i = 0; i < this.count; i++) {
+			keypoints.get(i).angle = this.angles[i];
+		}
+	}
+
+	// angles of keypoints (level coordinates) on a single level that is a view
+	// into an image with at least border pixels on every side (as the levels of
+	// ImageData.computePyramid)
+	public void computeAngles(Mat level, int border, List<KeyPoint> keypoints) {
+		Size wholeSize = new Size();
+		Point offset = new Point();
+		level.locateROI(wholeSize, offset);
+		if (offset.x < border || offset.y < border || wholeSize.width - offset.x - level.cols() < border
+				|| wholeSize.height - offset.y - level.rows() < border) {
+			throw new IllegalArgumentException("level needs a border of " + border + " pixels");
+		}
+		Mat bordered = level.adjustROI(border, border, border, border);
+		int width = bordered.cols();
+		int height = bordered.rows();
+		if (this.matPixels.length < width * height) {
+			this.matPixels = new byte[width * height];
+		}
+		bordered.get(0, 0, this.matPixels);
+		bordered.release();
+
+		// adjustROI moves the level's own view too
+		level.adjustROI(-border, -border, -border, -border);
+
+		this.ensureCapacity(keypoints.size(), 1);
+		this.count = keypoints.size();
+		for (int i = 0; i < this.count; i++) {
+			KeyPoint kp = keypoints.get(i);
+			this.levels[i] = 0;
+			this.centerX[i] = (int) kp.pt.x + border;
+			this.centerY[i] = (int) kp.pt.y + border;
+		}
+		this.groupByLevel(1);
+		this.computeLevel(0, this.matPixels, width, height);
+
+		for (int i = 0; i < this.count; i++) {
+			keypoints.get(i).angle = this.angles[i];
+		}
+	}
+
+	// angles of keypoints (image coordinates) on an image without a border. The
+	// patch of each keypoint is KeyPoint.size pixels wide and is clipped to the
+	// image (pixels outside count as 0); the engine's own patch size is unused
+	public void computeAnglesClamped(Mat image, List<KeyPoint> keypoints) {
+		int width = image.cols();
+		int height = image.rows();
+		if (this.matPixels.length < width * height) {
+			this.matPixels = new byte[width * height];
+		}
+		image.get(0, 0, this.matPixels);
+
+		this.ensureCapacity(keypoints.size(), 1);
+		this.count = keypoints.size();
+		if (this.count == 0) {
+			return;
+		}
+		int minRow = Integer.MAX_VALUE;
+		int maxRow = Integer.MIN_VALUE;
+		long directCost = 0;
+		for (int i = 0; i < this.count; i++) {
+			KeyPoint kp = keypoints.get(i);
+			this.centerX[i] = (int) kp.pt.x;
+			this.centerY[i] = (int) kp.pt.y;
+			this.halfPatches[i] = (int) kp.size / 2;
+			minRow = Math.min(minRow, this.centerY[i] - this.halfPatches[i]);
+			maxRow = Math.max(maxRow, this.centerY[i] + this.halfPatches[i]);
+			directCost += getPatchArea(2 * this.halfPatches[i] + 1);
+		}
+		minRow = Math.max(minRow, 0);
+		maxRow = Math.min(maxRow, height - 1);
+
+		long prefixCost = (long) Math.max(maxRow - minRow + 1, 0) * width * PREFIX_COST;
+		int[] sums = null;
+		if (prefixCost < directCost) {
+			sums = this.prefixSums(0, this.matPixels, width, minRow, maxRow);
+		}
+		for (int i = 0; i < this.count; i++) {
+			int size = 2 * this.halfPatches[i] + 1;
+			if (sums != null) {
+				this.angles[i] = this.angleFromSumsClamped(sums, this.weightedSums.get(0), width, height, minRow,
+						this.centerX[i], this.centerY[i], this.halfPatches[i], getUMax(size));
+			} else {
+				this.angles[i] = this.angleDirectClamped(this.matPixels, width, height, this.centerX[i],
+						this.centerY[i], this.halfPatches[i], getUMax(size));
+			}
+			keypoints.get(i).angle = this.angles[i];
+		}
+	}
+
+	// counting sort of the keypoint indices by level
+	protected void groupByLevel(int numLevels) {
+		for (int level = 0; level <= numLevels; level++) {
+			this.levelStart[level] = 0;
+		}
+		for (int i = 0; i < this.count; i++) {
+			this.levelStart[this.levels[i] + 1]++;
+		}
+		for (int level = 1; level <= numLevels; level++) {
+			this.levelStart[level] += this.levelStart[level - 1];
+		}
+		for (int i = 0; i < this.count; i++) {
+			this.order[this.levelStart[this.levels[i]]++] = i;
+		}
+		for (int level = numLevels; level > 0; level--) {
+			this.levelStart[level] = this.levelStart[level - 1];
+		}
+		this.levelStart[0] = 0;
+	}
+
+	// angles of the keypoints of one level (pixels are the bordered level, row
+	// major)
+	protected void computeLevel(int level, byte[] pixels, int width, int height) {
+		int from = this.levelStart[level];
+		int to = this.levelStart[level + 1];
+		if (from == to) {
+			return;
+		}
+
+		// rows the patches cover
+		int minRow = Integer.MAX_VALUE;
+		int maxRow = Integer.MIN_VALUE;
+		for (int k = from; k < to; k++) {
+			minRow = Math.min(minRow, this.centerY[this.order[k]]);
+			maxRow = Math.max(maxRow, this.centerY[this.order[k]]);
+		}
+		minRow -= this.halfPatch;
+		maxRow += this.halfPatch;
+
+		long prefixCost = (long) (maxRow - minRow + 1) * width * PREFIX_COST;
+		long directCost = (long) (to - from) * this.patchArea;
+		if (prefixCost < directCost) {
+			int[] sums = this.prefixSums(level, pixels, width, minRow, maxRow);
+			int[] weightedSums = this.weightedSums.get(level);
+			for (int k = from; k < to; k++) {
+				int i = this.order[k];
+				this.angles[i] = this.angleFromSums(sums, weightedSums, width + 1, this.centerX[i],
+						this.centerY[i] - minRow);
+			}
+		} else {
+			for (int k = from; k < to; k++) {
+				int i = this.order[k];
+				this.angles[i] = this.angleDirect(pixels, width, this.centerX[i], this.centerY[i]);
+			}
+		}
+	}
+
+	// prefix sums of I and x * I over rows [minRow, maxRow], (width + 1) per row
+	// starting with 0. Returns the sums (weighted sums in weightedSums)
+	protected int[] prefixSums(int level, byte[] pixels, int width, int minRow, int maxRow) {
+		int stride = width + 1;
+		int size = (maxRow - minRow + 1) * stride;
+		if (this.sums.get(level).length < size) {
+			this.sums.set(level, new int[size]);
+			this.weightedSums.set(level, new int[size]);
+		}
+		int[] sums = this.sums.get(level);
+		int[] weightedSums = this.weightedSums.get(level);
+
+		for (int y = minRow; y <= maxRow; y++) {
+			int in = y * width;
+			int out = (y - minRow) * stride;
+			int sum = 0;
+			int weightedSum = 0;
+			sums[out] = 0;
+			weightedSums[out] = 0;
+			for (int x = 0; x < width; x++) {
+				int value = pixels[in + x] & 0xff;
+				sum += value;
+				weightedSum += x * value;
+				sums[out + x + 1] = sum;
+				weightedSums[out + x + 1] = weightedSum;
+			}
+		}
+		return sums;
+	}
+
+	protected float angleFromSums(int[] sums, int[] weightedSums, int stride, int cx, int cy) {
+		int half = this.halfPatch;
+
+		// center line
+		int row = cy * stride;
+		int sum = sums[row + cx + half + 1] - sums[row + cx - half];
+		int m_10 = weightedSums[row + cx + half + 1] - weightedSums[row + cx - half] - cx * sum;
+		int m_01 = 0;
+
+		for (int v = 1; v <= half; v++) {
+			int d = this.uMax[v];
+			int plus = (cy + v) * stride;
+			int minus = (cy - v) * stride;
+			int sumPlus = sums[plus + cx + d + 1] - sums[plus + cx - d];
+			int sumMinus = sums[minus + cx + d + 1] - sums[minus + cx - d];
+			int weightedPlus = weightedSums[plus + cx + d + 1] - weightedSums[plus + cx - d];
+			int weightedMinus = weightedSums[minus + cx + d + 1] - weightedSums[minus + cx - d];
+
+			m_10 += weightedPlus + weightedMinus - cx * (sumPlus + sumMinus);
+			m_01 += v * (sumPlus - sumMinus);
+		}
+		return fastAtan2((float) m_01, (float) m_10);
+	}
+
+	protected float angleDirect(byte[] pixels, int width, int cx, int cy) {
+		int half = this.halfPatch;
+		int center = cy * width + cx;
+		int m_01 = 0, m_10 = 0;
+
+		// center line
+		for (int u = -half; u <= half; ++u) {
+			m_10 += u * (pixels[center + u] & 0xff);
+		}
+
+		// the two lines v and -v together
+		for (int v = 1; v <= half; ++v) {
+			int v_sum = 0;
+			int d = this.uMax[v];
+			for (int u = -d; u <= d; ++u) {
+				int val_plus = pixels[center + v * width + u] & 0xff;
+				int val_minus = pixels[center - v * width + u] & 0xff;
+				v_sum += val_plus - val_minus;
+				m_10 += u * (val_plus + val_minus);
+			}
+			m_01 += v * v_sum;
+		}
+		return fastAtan2((float) m_01, (float) m_10);
+	}
+
+	// patch rows and columns outside the image are skipped (sums cover rows
+	// [minRow, ...] of the image, see prefixSums)
+	protected float angleFromSumsClamped(int[] sums, int[] weightedSums, int width, int height, int minRow, int cx,
+			int cy, int half, int[] uMax) {
+		int stride = width + 1;
+		int m_01 = 0, m_10 = 0;
+		for (int v = -half; v <= half; v++) {
+			int y = cy + v;
+			if (y < 0 || y >= height) {
+				continue;
+			}
+			int d = uMax[Math.abs(v)];
+			int x0 = Math.max(cx - d, 0);
+			int x1 = Math.min(cx + d, width - 1);
+			if (x0 > x1) {
+				continue;
+			}
+			int row = (y - minRow) * stride;
+			int sum = sums[row + x1 + 1] - sums[row + x0];
+			m_10 += weightedSums[row + x1 + 1] - weightedSums[row + x0] - cx * sum;
+			m_01 += v * sum;
+		}
+		return fastAtan2((float) m_01, (float) m_10);
+	}
+
+	protected float angleDirectClamped(byte[] pixels, int width, int height, int cx, int cy, int half, int[] uMax) {
+		int m_01 = 0, m_10 = 0;
+		for (int v = -half; v <= half; v++) {
+			int y = cy + v;
+			if (y < 0 || y >= height) {
+				continue;
+			}
+			int d = uMax[Math.abs(v)];
+			int x0 = Math.max(cx - d, 0);
+			int x1 = Math.min(cx + d, width - 1);
+			int row = y * width;
+			int v_sum = 0;
+			for (int x = x0; x <= x1; x++) {
+				int value = pixels[row + x] & 0xff;
+				v_sum += value;
+				m_10 += (x - cx) * value;
+			}
+			m_01 += v * v_sum;
+		}
+		return fastAtan2((float) m_01, (float) m_10);
+	}
+
+	// OpenCV's fastAtan2 (degrees, 0..360), without the JNI call
+	public static float fastAtan2(float y, float x) {
+		float ax = Math.abs(x), ay = Math.abs(y);
+		float a, c, c2;
+		if (ax >= ay) {
+			c = ay / (ax + DBL_EPSILON);
+			c2 = c * c;
+			a = (((ATAN2_P7 * c2 + ATAN2_P5) * c2 + ATAN2_P3) * c2 + ATAN2_P1) * c;
+		} else {
+			c = ax / (ay + DBL_EPSILON);
+			c2 = c * c;
+			a = 90.f - (((ATAN2_P7 * c2 + ATAN2_P5) * c2 + ATAN2_P3) * c2 + ATAN2_P1) * c;
+		}
+		if (x < 0)
+			a = 180.f - a;
+		if (y < 0)
+			a = 360.f - a;
+		return a;
+	}
+
+	protected void ensureCapacity(int n, int numLevels) {
+		if (this.order.length < n) {
+			int capacity = Math.max(n, this.order.length * 3 / 2);
+			this.centerX = new int[capacity];
+			this.centerY = new int[capacity];
+			this.levels = new int[capacity];
+			this.halfPatches = new int[capacity];
+			this.order = new int[capacity];
+			this.angles = new float[capacity];
+		}
+		if (this.levelStart.length < numLevels + 1) {
+			this.levelStart = new int[numLevels + 1];
+		}
+		// (levels only ever replace their own entry)
+		while (this.sums.size() < numLevels) {
+			this.sums.add(new int[0]);
+			this.weightedSums.add(new int[0]);
+		}
+	}
+
+}
@@ -0,0 +1,266 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+// Image pyramid for ORBExtractor, built into preallocated buffers that are
+// reused from frame to frame.
+//
+// Each level lives inside a bordered Mat (border pixels on every side). As in
+// OpenCV's ORB, level l is resized from level l - 1 (INTER_LINEAR_EXACT, sizes
+// rounded from the image size over the float scale), so keypoints and
+// descriptors computed on these levels are interchangeable with OpenCV's. The
+// level goes straight into the interior view, then the border (reflect 101) is
+// filled in place, and the bordered pixels are copied once into a byte[] that
+// is also reused. The resizes run in order; with more than one core each
+// level's border and copy run on a shared pool while the next level is
+// resized.
+//
+// Use get() for the calling thread's builder. The Mats and buffers it hands
+// out are overwritten by the next build() on that thread; holders can tell
+// by comparing getBuildCount() with the count they saw.
+public class PyramidBuilder {
+
+	public static final int LEVEL_THREADS = Math.max(Runtime.getRuntime().availableProcessors() - 1, 1);
+	public static final int LEVEL_QUEUE_SIZE = 64;
+
+	protected static volatile boolean parallel = Runtime.getRuntime().availableProcessors() > 1;
+	protected static ExecutorService levelExecutor = null;
+
+	protected static final ThreadLocal<PyramidBuilder> builders = new ThreadLocal<PyramidBuilder>();
+
+	// stage metrics
+	protected static final Metrics.Timer PYRAMID_TIMER = Metrics.timer("pyramid");
+
+	protected int nLevels;
+	protected float scaleFactor;
+	protected int border;
+
+	// size and type of the image the buffers were allocated for
+	protected int imageWidth = -1;
+	protected int imageHeight = -1;
+	protected int imageType = -1;
+
+	// builds (and releases) so far, see getBuildCount()
+	protected long buildCount = 0;
+
+	// per level: bordered Mat, its interior, its pixels and its dimensions
+	protected Mat[] bordered = new Mat[0];
+	protected List<Mat> levels = new ArrayList<Mat>();
+	protected List<byte[]> buffers = new ArrayList<byte[]>();
+	protected List<Integer> borderedWidths = new ArrayList<Integer>();
+	protected List<Integer> borderedHeights = new ArrayList<Integer>();
+	protected List<Float> scaleFactors = new ArrayList<Float>();
+
+	public PyramidBuilder(int nLevels, float scaleFactor, int border) {
+		this.nLevels = nLevels;
+		this.scaleFactor = scaleFactor;
+		this.border = border;
+	}
+
+	// the calling thread's builder for these settings
+	public static PyramidBuilder get(int nLevels, float scaleFactor, int border) {
+		PyramidBuilder builder = builders.get();
+		if (builder == null || builder.nLevels != nLevels || builder.scaleFactor != scaleFactor
+				|| builder.border != border) {
+			if (builder != null) {
+				builder.release();
+			}
+			builder = new PyramidBuilder(nLevels, scaleFactor, border);
+			builders.set(builder);
+		}
+		return builder;
+	}
+
+	public static void setParallel(boolean parallel) {
+		PyramidBuilder.parallel = parallel;
+	}
+
+	public static boolean isParallel() {
+		return parallel;
+	}
+
+	// build the pyramid of a single channel 8 bit image
+	public void build(Mat image) {
+		long start = PYRAMID_TIMER.start();
+		this.buildCount++;
+		this.allocate(image);
+
+		if (!parallel || this.nLevels == 1) {
+			for (int level = 0; level < this.nLevels; level++) {
+				this.resizeLevel(image, level);
+				this.fillLevel(level);
+			}
+		} else {
+			ExecutorService executor = getExecutor();
+			List<Future<?>> pending = new ArrayList<Future<?>>(this.nLevels);
+			try {
+				for (int level = 0; level < this.nLevels; level++) {
+					this.resizeLevel(image, level);
+					final int l = level;
+					pending.add(executor.submit(() -> this.fillLevel(l)));
+				}
+			} finally {
+				for (Future<?> future : pending) {
+					join(future);
+				}
+			}
+		}
+		PYRAMID_TIMER.stop(start);
+	}
+
+	// level 0 is the image, level l is resized from level l - 1 (OpenCV's ORB)
+	protected void resizeLevel(Mat image, int level) {
+		Mat interior = this.levels.get(level);
+		if (level == 0) {
+			image.copyTo(interior);
+		} else {
+			Imgproc.resize(this.levels.get(level - 1), interior, interior.size(), 0, 0, Imgproc.INTER_LINEAR_EXACT);
+		}
+	}
+
+	// border and pixel copy of a resized level
+	protected void fillLevel(int level) {
+		Core.copyMakeBorder(this.levels.get(level), this.bordered[level], this.border, this.border, this.border,
+				this.border, Core.BORDER_REFLECT_101 + Core.BORDER_ISOLATED);
+		this.bordered[level].get(0, 0, this.buffers.get(level));
+	}
+
+	// (re)allocate the level buffers when the image size or type changes
+	protected void allocate(Mat image) {
+		if (image.cols() == this.imageWidth && image.rows() == this.imageHeight && image.type() == this.imageType) {
+			return;
+		}
+		if (image.channels() != 1 || CvType.depth(image.type()) != CvType.CV_8U) {
+			throw new IllegalArgumentException("PyramidBuilder needs a single channel 8 bit image");
+		}
+		this.release();
+		this.imageWidth = image.cols();
+		this.imageHeight = image.rows();
+		this.imageType = image.type();
+
+		this.bordered = new Mat[this.nLevels];
+		for (int level = 0; level < this.nLevels; level++) {
+			// OpenCV's level scale and size (cvRound)
+			float scale = (float) Math.pow(this.scaleFactor, level);
+			int width = (int) Math.rint(this.imageWidth / scale);
+			int height = (int) Math.rint(this.imageHeight / scale);
+
+			Mat mat = new Mat(new Size(width + this.border * 2, height + this.border * 2), this.imageType);
+			this.bordered[level] = mat;
+			this.levels.add(mat.submat(new Rect(this.border, this.border, width, height)));
+			this.buffers.add(new byte[mat.cols() * mat.rows()]);
+			this.borderedWidths.add(mat.cols());
+			this.borderedHeights.add(mat.rows());
+			this.scaleFactors.add(scale);
+		}
+	}
+
+	public void release() {
+		for (Mat level : this.levels) {
+			level.release();
+		}
+		for (Mat mat : this.bordered) {
+			mat.release();
+		}
+		this.bordered = new Mat[0];
+		this.levels.clear();
+		this.buffers.clear();
+		this.borderedWidths.clear();
+		this.borderedHeights.clear();
+		this.scaleFactors.clear();
+		this.imageWidth = -1;
+		this.imageHeight = -1;
+		this.imageType = -1;
+		this.buildCount++;
+	}
+
+	public int getNumLevels() {
+		return this.nLevels;
+	}
+
+	public float getScaleFactor() {
+		return this.scaleFactor;
+	}
+
+	// changes whenever the levels are rebuilt or released (the levels seen
+	// after a build are still valid while this returns the same count)
+	public long getBuildCount() {
+		return this.buildCount;
+	}
+
+	public int getBorder() {
+		return this.border;
+	}
+
+	// bordered level images
+	public Mat[] getBorderedLevels() {
+		return this.bordered;
+	}
+
+	// level images (views into the bordered Mats)
+	public List<Mat> getLevels() {
+		return this.levels;
+	}
+
+	// bordered pixels of each level, row major
+	public List<byte[]> getBuffers() {
+		return this.buffers;
+	}
+
+	public List<Integer> getBorderedWidths() {
+		return this.borderedWidths;
+	}
+
+	public List<Integer> getBorderedHeights() {
+		return this.borderedHeights;
+	}
+
+	// scale of each level [1, 1.2, 1.44, ...]
+	public List<Float> getScaleFactors() {
+		return this.scaleFactors;
+	}
+
+	protected static synchronized ExecutorService getExecutor() {
+		if (levelExecutor == null) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(LEVEL_THREADS, LEVEL_THREADS, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(LEVEL_QUEUE_SIZE), runnable -> {
+						Thread thread = new Thread(runnable, "pyramid-level");
+						thread.setDaemon(true);
+						return thread;
+					}, new ThreadPoolExecutor.CallerRunsPolicy());
+			executor.allowCoreThreadTimeOut(true);
+			levelExecutor = executor;
+		}
+		return levelExecutor;
+	}
+
+	protected static void join(Future<?> future) {
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+}
@@ -8,7 +8,6 @@ import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.deeplearning4j.nn.weights.WeightInit;
 import org.deeplearning4j.optimize.listeners.ScoreIterationListener;
 import org.knowm.xchart.QuickChart;
-import org.knowm.xchart.SwingWrapper;
 import org.knowm.xchart.XYChart;
 import org.knowm.xchart.XYChartBuilder;
 import org.knowm.xchart.style.Styler;
@@ -259,8 +258,8 @@ public class SFMDataAnalysis {
 		chart.addSeries("Essential Matrix Estimate (5PA)", indexList, valueListEss);
 //		chart.addSeries("Tomono score", indexList, valueListTomono);
 
-		// Show it
-		new SwingWrapper(chart).displayChart();
+		// Show it (saved as a png when headless)
+		VisualizationSink.showChart(chart, "scene0_error");
 
 		// train a model on this data
 		MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder().updater(new Sgd(0.1)).seed(0)
@@ -301,8 +300,8 @@ public class SFMDataAnalysis {
 		// Create Chart
 		XYChart chart = QuickChart.getChart("Sample Chart", "X", "Y", "y(x)", xData, yData);
 
-		// Show it
-		new SwingWrapper(chart).displayChart();
+		// Show it (saved as a png when headless)
+		VisualizationSink.showChart(chart, "sample_chart");
 
 		Utils.pl("Done.");
 
@@ -0,0 +1,255 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.KeyPoint;
+
+// Suppression via Square Covering (SSC, Algorithm 2 of
+// https://www.sciencedirect.com/science/article/abs/pii/S016786551830062X,
+// after https://github.com/BAILOOL/ANMS-Codes) as a reusable engine.
+//
+// Points are visited in order (strongest first); a point is selected when its
+// grid cell is not covered yet, and then covers the cells within the square
+// of the current width around it. A binary search over the width looks for a
+// selection of numRetPoints (within tolerance).
+//
+// The grid is an int[] of generation stamps (a cell is covered when its stamp
+// is the current generation), so it is never cleared or reallocated between
+// iterations or frames. Input is primitive x, y (and response) arrays, output
+// an int[] of selected indices. The width that ended the last search is kept
+// and tried first on the next one: with one engine per octave and similar
+// frames the search usually ends right there.
+public class SSCEngine {
+
+	// points (valid up to size)
+	protected int size = 0;
+	protected float[] xs = new float[0];
+	protected float[] ys = new float[0];
+	protected float[] responses = new float[0];
+
+	// visiting order (indices into the points), identity unless sorted
+	protected int[] order = new int[0];
+
+	// grid of generation stamps
+	protected int[] covered = new int[0];
+	protected int generation = 0;
+
+	// selected indices (into the points), in visiting order; the search keeps
+	// two buffers and swaps them so the previous iteration's selection survives
+	protected int[] selected = new int[0];
+	protected int numSelected = 0;
+	protected int[] candidate = new int[0];
+
+	// width the last search ended with (-1 before the first)
+	protected int lastWidth = -1;
+
+	// number of widths tried by the last search
+	protected int numIterations = 0;
+
+	// load keypoint locations and responses (in list order)
+	public void load(List<KeyPoint> keypoints) {
+		int n = keypoints.size();
+		this.ensureCapacity(n);
+		this.size = n;
+		for (int i = 0; i < n; i++) {
+			KeyPoint kp = keypoints.get(i);
+			this.xs[i] = (float) kp.pt.x;
+			this.ys[i] = (float) kp.pt.y;
+			this.responses[i] = kp.response;
+			this.order[i] = i;
+		}
+	}
+
+	// load points from primitive arrays (responses may be null)
+	public void load(float[] xs, float[] ys, float[] responses, int n) {
+		this.ensureCapacity(n);
+		this.size = n;
+		System.arraycopy(xs, 0, this.xs, 0, n);
+		System.arraycopy(ys, 0, this.ys, 0, n);
+		for (int i = 0; i < n; i++) {
+			this.responses[i] = responses == null ? 0 : responses[i];
+			this.order[i] = i;
+		}
+	}
+
+	// visit the loaded points by response, descending (stable, responses are
+	// compared by their integer difference as the callers' comparators did)
+	public void sortByResponse() {
+		// bottom-up merge sort of the indices
+		int[] from = this.order;
+		int[] to = this.candidate;
+		for (int run = 1; run < this.size; run *= 2) {
+			for (int lo = 0; lo < this.size; lo += 2 * run) {
+				int mid = Math.min(lo + run, this.size);
+				int hi = Math.min(lo + 2 * run, this.size);
+				int a = lo, b = mid, k = lo;
+				while (a < mid && b < hi) {
+					to[k++] = (int) (this.responses[from[b]] - this.responses[from[a]]) > 0 ? from[b++] : from[a++];
+				}
+				while (a < mid) {
+					to[k++] = from[a++];
+				}
+				while (b < hi) {
+					to[k++] = from[b++];
+				}
+			}
+			int[] swap = from;
+			from = to;
+			to = swap;
+		}
+		this.order = from;
+		this.candidate = to;
+	}
+
+	// select about numRetPoints (within tolerance) of the loaded points over a
+	// cols x rows image. Returns the number selected; see getSelected()
+	public int select(int numRetPoints, float tolerance, int cols, int rows) {
+
+		// Several temp expression variables to simplify equation solution
+		int expression1 = rows + cols + 2 * numRetPoints;
+		long expression2 = ((long) 4 * cols + (long) 4 * numRetPoints + (long) 4 * rows * numRetPoints
+				+ (long) rows * rows + (long) cols * cols - (long) 2 * rows * cols
+				+ (long) 4 * rows * cols * numRetPoints);
+		double expression3 = Math.sqrt(expression2);
+		double expression4 = (double) numRetPoints - 1;
+
+		// first solution
+		double solution1 = -Math.round((expression1 + expression3) / expression4);
+		// second solution
+		double solution2 = -Math.round((expression1 - expression3) / expression4);
+
+		// binary search range initialization with positive solution
+		int high = (int) ((solution1 > solution2) ? solution1 : solution2);
+		int low = (int) Math.floor(Math.sqrt((double) this.size / numRetPoints));
+		int prevWidth = -1;
+
+		int kMin = Math.round(numRetPoints - (numRetPoints * tolerance));
+		int kMax = Math.round(numRetPoints + (numRetPoints * tolerance));
+
+		this.numSelected = 0;
+		this.numIterations = 0;
+
+		// try the last search's width first, it narrows the bracket otherwise
+		int width = this.lastWidth;
+		if (width < low || width > high) {
+			width = low + (high - low) / 2;
+		}
+		while (true) {
+			width = width == 0 ? 1 : width;
+
+			// needed to reassure the same radius is not repeated again (the
+			// selection of the previous iteration is kept)
+			if (width == prevWidth || low > high) {
+				break;
+			}
+
+			int count = this.cover(width, cols, rows);
+			this.numIterations++;
+
+			// keep this iteration's selection
+			int[] swap = this.selected;
+			this.selected = this.candidate;
+			this.candidate = swap;
+			this.numSelected = count;
+			this.lastWidth = width;
+
+			// solution found
+			if (count >= kMin && count <= kMax) {
+				break;
+			} else if (count < kMin) {
+				high = width - 1; // update binary search range
+			} else {
+				low = width + 1; // update binary search range
+			}
+			prevWidth = width;
+			width = low + (high - low) / 2;
+		}
+		return this.numSelected;
+	}
+
+	// one pass of square covering at width into candidate. Returns the number
+	// of points selected
+	protected int cover(int width, int cols, int rows) {
+		double c = (double) width / 2; // initializing Grid
+		int numCellCols = (int) Math.floor(cols / c);
+		int numCellRows = (int) Math.floor(rows / c);
+		int stride = numCellCols + 1;
+		int numCells = (numCellRows + 1) * stride;
+		if (this.covered.length < numCells) {
+			this.covered = new int[Math.max(numCells, this.covered.length * 3 / 2)];
+			this.generation = 0;
+		}
+		if (++this.generation == Integer.MAX_VALUE) {
+			Arrays.fill(this.covered, 0);
+			this.generation = 1;
+		}
+		int generation = this.generation;
+		int[] covered = this.covered;
+		int reach = (int) Math.floor(width / c);
+
+		int count = 0;
+		for (int k = 0; k < this.size; k++) {
+			int i = this.order[k];
+
+			// get position of the cell current point is located at
+			int row = (int) Math.floor(this.ys[i] / c);
+			int col = (int) Math.floor(this.xs[i] / c);
+			if (covered[row * stride + col] == generation) {
+				continue;
+			}
+			this.candidate[count++] = i;
+
+			// cover cells within the square bounding box with width w
+			int rowMin = Math.max(row - reach, 0);
+			int rowMax = Math.min(row + reach, numCellRows);
+			int colMin = Math.max(col - reach, 0);
+			int colMax = Math.min(col + reach, numCellCols);
+			for (int r = rowMin; r <= rowMax; r++) {
+				int offset = r * stride;
+				for (int cc = colMin; cc <= colMax; cc++) {
+					covered[offset + cc] = generation;
+				}
+			}
+		}
+		return count;
+	}
+
+	// the selected keypoints of list (the list that was loaded), in visiting order
+	public List<KeyPoint> getSelected(List<KeyPoint> keypoints) {
+		List<KeyPoint> result = new ArrayList<KeyPoint>(this.numSelected);
+		for (int k = 0; k < this.numSelected; k++) {
+			result.add(keypoints.get(this.selected[k]));
+		}
+		return result;
+	}
+
+	protected void ensureCapacity(int n) {
+		if (this.xs.length < n) {
+			int capacity = Math.max(n, this.xs.length * 3 / 2);
+			this.xs = new float[capacity];
+			this.ys = new float[capacity];
+			this.responses = new float[capacity];
+			this.order = new int[capacity];
+			this.selected = new int[capacity];
+			this.candidate = new int[capacity];
+		}
+	}
+
+	// indices of the selected points (valid up to getNumSelected())
+	public int[] getSelected() {
+		return this.selected;
+	}
+
+	public int getNumSelected() {
+		return this.numSelected;
+	}
+
+	public int getLastWidth() {
+		return this.lastWidth;
+	}
+
+	public int getNumIterations() {
+		return this.numIterations;
+	}
+
+}
@@ -1,6 +1,14 @@
 import java.util.ArrayList;
 import java.util.List;
-
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 
@@ -148,6 +156,22 @@ public class Sample {
 	public double homNumGood = 0;
 	public double homNumParallax = 0;
 
+	// branch pool for concurrent evaluation (two branches run on the pool, one on
+	// the caller)
+	public static final int BRANCH_THREADS = 2;
+	public static final int BRANCH_QUEUE_SIZE = 64;
+	protected static volatile boolean concurrentBranches = false;
+	protected static ExecutorService branchExecutor = null;
+
+	// stage metrics
+	protected static final Metrics.Timer EVALUATE_TIMER = Metrics.timer("sample.evaluate");
+	protected static final Metrics.Timer ERROR_METRICS_TIMER = Metrics.timer("error_metrics");
+	protected static final Metrics.Counter SAMPLE_COUNTER = Metrics.counter("samples.evaluated");
+
+	// see setSeed()
+	protected boolean seeded = false;
+	protected long seed = 0;
+
 	public Sample() {
 	}
 
@@ -159,6 +183,9 @@ public class Sample {
 	public void evaluate(Pose primaryCamera, Pose secondaryCamera, List<Correspondence2D2D> correspondences,
 			CameraParams cameraParams, Matrix trueFunMat, boolean calcTruePoints) {
 
+		long start = EVALUATE_TIMER.start();
+		SAMPLE_COUNTER.increment();
+
 		// set cameras
 		this.primaryCamera = primaryCamera;
 		this.secondaryCamera = secondaryCamera;
@@ -169,10 +196,8 @@ public class Sample {
 
 		if (calcTruePoints) {
 			this.truePoints.clear();
-			for (int i = 0; i < correspondences.size(); i++) {
-				this.truePoints.add(ComputerVision.triangulate(secondaryCamera.getHomogeneousMatrix(),
-						primaryCamera.getHomogeneousMatrix(), cameraParams, correspondences.get(i)));
-			}
+			this.truePoints.addAll(ComputerVision.triangulateCorrespondences(secondaryCamera.getHomogeneousMatrix(),
+					primaryCamera.getHomogeneousMatrix(), cameraParams, correspondences));
 		}
 
 		// correspondence summary
@@ -180,19 +205,85 @@ public class Sample {
 
 		// if not enough correspondences, terminate now
 		if (this.correspondences.size() < 10) {
+			EVALUATE_TIMER.stop(start);
 			return;
 		}
 
-		// estimated fundamental matrix and homography
-		this.estimatedFundamentalMatrix = ComputerVision.estimateFundamentalMatrix(this.correspondences);
-		this.estimatedHomography = ComputerVision.estimateHomography(this.correspondences);
-		this.estimatedEssentialMatrix = ComputerVision.estimateEssentialMatrix(this.correspondences, cameraParams);
+		// the three estimators share one set of native point buffers, built up
+		// front so concurrent branches only ever read them
+		CorrespondenceSet correspondenceSet = CorrespondenceSet.fromList(this.correspondences);
+		correspondenceSet.getPoints0Mat();
+		correspondenceSet.getPoints1Mat();
+
+		// fundamental, homography and essential branches
+		if (concurrentBranches) {
+			Future<?> homography = submitBranch(() -> this.evaluateHomography(correspondenceSet, cameraParams));
+			Future<?> essential = submitBranch(() -> this.evaluateEssential(correspondenceSet, cameraParams));
+
+			// both branches are waited for before the first failure is rethrown,
+			// so none is still writing to this sample when evaluate() returns
+			Throwable failure = null;
+			try {
+				this.evaluateFundamental(correspondenceSet, cameraParams);
+				this.estPointsTrue = ComputerVision.triangulateCorrespondences(
+						this.secondaryCamera.getHomogeneousMatrix(), this.primaryCamera.getHomogeneousMatrix(),
+						cameraParams, correspondences);
+			} catch (RuntimeException | Error e) {
+				failure = e;
+			}
+			Throwable homographyFailure = awaitBranch(homography);
+			Throwable essentialFailure = awaitBranch(essential);
+			if (failure == null) {
+				failure = homographyFailure != null ? homographyFailure : essentialFailure;
+			}
+			if (failure != null) {
+				correspondenceSet.release();
+				rethrow(failure);
+			}
+		} else {
+			this.evaluateFundamental(correspondenceSet, cameraParams);
+			this.evaluateHomography(correspondenceSet, cameraParams);
+			this.evaluateEssential(correspondenceSet, cameraParams);
+			this.estPointsTrue = ComputerVision.triangulateCorrespondences(this.secondaryCamera.getHomogeneousMatrix(),
+					this.primaryCamera.getHomogeneousMatrix(), cameraParams, correspondences);
+		}
+		correspondenceSet.release();
+
+		// calculate error metrics
+		this.errorMetrics();
+
+		EVALUATE_TIMER.stop(start);
+	}
+
+	// estimated fundamental matrix, poses from the true and estimated fundamental
+	// matrices, their 3D points and reconstruction criteria
+	protected void evaluateFundamental(CorrespondenceSet correspondenceSet, CameraParams cameraParams) {
+		Random rand = this.seedBranch(0);
+		this.estimatedFundamentalMatrix = ComputerVision.estimateFundamentalMatrix(correspondenceSet);
 
-		// estimated poses
 		this.poseTrueFun = ComputerVision.getPoseFromFundamentalMatrix(this.trueFundamentalMatrix, cameraParams,
-				this.correspondences);
+				this.correspondences, rand);
 		this.poseEstFun = ComputerVision.getPoseFromFundamentalMatrix(this.estimatedFundamentalMatrix, cameraParams,
-				this.correspondences);
+				this.correspondences, rand);
+
+		this.estPointsTrueFun = ComputerVision.triangulateCorrespondences(poseTrueFun,
+				this.primaryCamera.getHomogeneousMatrix(), cameraParams, correspondences);
+		this.estPointsEstFun = ComputerVision.triangulateCorrespondences(poseEstFun,
+				this.primaryCamera.getHomogeneousMatrix(), cameraParams, correspondences);
+
+		Dbl funParallax = new Dbl(0);
+		Dbl funGood = new Dbl(0);
+		ComputerVision.parallaxAndGoodPoints(this.primaryCamera.getHomogeneousMatrix(), this.poseEstFun, cameraParams,
+				this.estPointsEstFun, this.correspondences, funParallax, funGood);
+		this.funNumGood = funGood.getValue();
+		this.funNumParallax = funParallax.getValue();
+	}
+
+	// estimated homography, its pose, 3D points and reconstruction criteria
+	protected void evaluateHomography(CorrespondenceSet correspondenceSet, CameraParams cameraParams) {
+		this.seedBranch(1);
+		this.estimatedHomography = ComputerVision.estimateHomography(correspondenceSet);
+
 		try {
 			this.poseEstHomography = ComputerVision.getPoseFromHomography(this.estimatedHomography, this.primaryCamera,
 					cameraParams, correspondences, homCheiralityPoses);
@@ -201,46 +292,116 @@ public class Sample {
 			this.poseEstHomography = Matrix.identity(4, 4);
 		}
 
-		this.poseEstEssential = ComputerVision.getPoseFromEssentialMatrix(this.estimatedEssentialMatrix, cameraParams,
-				this.correspondences);
-
-		// 3D point estimations
-		this.estPointsTrue = ComputerVision.triangulateCorrespondences(this.secondaryCamera.getHomogeneousMatrix(),
-				this.primaryCamera.getHomogeneousMatrix(), cameraParams, correspondences);
-		this.estPointsTrueFun = ComputerVision.triangulateCorrespondences(poseTrueFun,
-				this.primaryCamera.getHomogeneousMatrix(), cameraParams, correspondences);
-		this.estPointsEstFun = ComputerVision.triangulateCorrespondences(poseEstFun,
-				this.primaryCamera.getHomogeneousMatrix(), cameraParams, correspondences);
 		this.estPointsEstHomography = ComputerVision.triangulateCorrespondences(poseEstHomography,
 				this.primaryCamera.getHomogeneousMatrix(), cameraParams, correspondences);
-		this.estPointsEstEssential = ComputerVision.triangulateCorrespondences(poseEstEssential,
-				this.primaryCamera.getHomogeneousMatrix(), cameraParams, correspondences);
 
-		// calculate error metrics
-		this.errorMetrics();
-
-		// robust reconstruction metrics
-		Dbl funParallax = new Dbl(0);
-		Dbl funGood = new Dbl(0);
 		Dbl homParallax = new Dbl(0);
 		Dbl homGood = new Dbl(0);
-		Dbl essParallax = new Dbl(0);
-		Dbl essGood = new Dbl(0);
-
-		ComputerVision.parallaxAndGoodPoints(this.primaryCamera.getHomogeneousMatrix(), this.poseEstFun, cameraParams,
-				this.estPointsEstFun, this.correspondences, funParallax, funGood);
 		ComputerVision.parallaxAndGoodPoints(this.primaryCamera.getHomogeneousMatrix(), this.poseEstHomography,
 				cameraParams, this.estPointsEstHomography, this.correspondences, homParallax, homGood);
-		ComputerVision.parallaxAndGoodPoints(this.primaryCamera.getHomogeneousMatrix(), this.poseEstEssential,
-				cameraParams, this.estPointsEstEssential, this.correspondences, essParallax, essGood);
-
-		this.funNumGood = funGood.getValue();
-		this.funNumParallax = funParallax.getValue();
 		this.homNumGood = homGood.getValue();
 		this.homNumParallax = homParallax.getValue();
+	}
+
+	// estimated essential matrix, its pose, 3D points and reconstruction criteria
+	protected void evaluateEssential(CorrespondenceSet correspondenceSet, CameraParams cameraParams) {
+		Random rand = this.seedBranch(2);
+		this.estimatedEssentialMatrix = ComputerVision.estimateEssentialMatrix(correspondenceSet, cameraParams);
+
+		this.poseEstEssential = ComputerVision.getPoseFromEssentialMatrix(this.estimatedEssentialMatrix, cameraParams,
+				this.correspondences, rand);
+
+		this.estPointsEstEssential = ComputerVision.triangulateCorrespondences(poseEstEssential,
+				this.primaryCamera.getHomogeneousMatrix(), cameraParams, correspondences);
+
+		Dbl essParallax = new Dbl(0);
+		Dbl essGood = new Dbl(0);
+		ComputerVision.parallaxAndGoodPoints(this.primaryCamera.getHomogeneousMatrix(), this.poseEstEssential,
+				cameraParams, this.estPointsEstEssential, this.correspondences, essParallax, essGood);
 		this.essNumGood = essGood.getValue();
 		this.essNumParallax = essParallax.getValue();
+	}
 
+	// Make evaluate() reproducible: each branch draws from its own Random and
+	// reseeds OpenCV's (per thread) RNG from this seed, so results do not depend
+	// on which thread runs it.
+	public void setSeed(long seed) {
+		this.seed = seed;
+		this.seeded = true;
+	}
+
+	protected Random seedBranch(int branch) {
+		if (!this.seeded) {
+			return new Random();
+		}
+		long branchSeed = Utils.mixSeed(this.seed, branch);
+		Core.setRNGSeed((int) branchSeed);
+		return new Random(branchSeed);
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	/////////////////////////// CONCURRENT BRANCHES ///////////////////////////////
+	///////////////////////////////////////////////////////////////////////////////
+
+	// Opt-in: run the homography and essential branches of evaluate() on a shared
+	// pool while the calling thread runs the fundamental branch. openCVThreads is
+	// passed to Core.setNumThreads() (process wide) so the branches don't each
+	// fan out over every core; pass a negative value to leave it untouched.
+	public static synchronized void setConcurrentBranches(boolean concurrent, int openCVThreads) {
+		concurrentBranches = concurrent;
+		if (openCVThreads >= 0) {
+			Core.setNumThreads(openCVThreads);
+		}
+		if (concurrent && branchExecutor == null) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(BRANCH_THREADS, BRANCH_THREADS, 60,
+					TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(BRANCH_QUEUE_SIZE), runnable -> {
+						Thread thread = new Thread(runnable, "sample-branch");
+						thread.setDaemon(true);
+						return thread;
+					}, new ThreadPoolExecutor.CallerRunsPolicy());
+			executor.allowCoreThreadTimeOut(true);
+			branchExecutor = executor;
+		}
+	}
+
+	public static boolean isConcurrentBranches() {
+		return concurrentBranches;
+	}
+
+	protected static Future<?> submitBranch(Runnable branch) {
+		return branchExecutor.submit(branch);
+	}
+
+	// wait for a branch to finish (even if interrupted meanwhile, the flag is
+	// restored). Returns what it threw, or null
+	protected static Throwable awaitBranch(Future<?> branch) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					branch.get();
+					return null;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					return e.getCause();
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	protected static void rethrow(Throwable failure) {
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+		throw new RuntimeException(failure);
 	}
 
 	public void printErrors() {
@@ -275,163 +436,163 @@ public class Sample {
 	}
 
 	public String stringify() {
-		String output = "";
+		StringBuilder output = new StringBuilder();
 
 		// cameras (qw,qx,qy,qz,Cx,Cy,Cz)
 		Pose cam1 = this.primaryCamera;
 		Pose cam2 = this.secondaryCamera;
-		output += cam1.getQw() + "," + cam1.getQx() + "," + cam1.getQy() + "," + cam1.getQz() + "," + cam1.getCx() + ","
-				+ cam1.getCy() + "," + cam1.getCz() + "\n";
-		output += cam2.getQw() + "," + cam2.getQx() + "," + cam2.getQy() + "," + cam2.getQz() + "," + cam2.getCx() + ","
-				+ cam2.getCy() + "," + cam2.getCz() + "\n";
+		output.append(cam1.getQw() + "," + cam1.getQx() + "," + cam1.getQy() + "," + cam1.getQz() + "," + cam1.getCx() + ","
+				+ cam1.getCy() + "," + cam1.getCz() + "\n");
+		output.append(cam2.getQw() + "," + cam2.getQx() + "," + cam2.getQy() + "," + cam2.getQz() + "," + cam2.getCx() + ","
+				+ cam2.getCy() + "," + cam2.getCz() + "\n");
 
 		// correspondences
 		// number of correspondences
-		output += this.correspondences.size() + "\n";
+		output.append(this.correspondences.size() + "\n");
 
 		// correspondences (x0,y0,x1,y1|x0,y0,x1,y1|x0,y0,x1,y1|...)
 		for (int i = 0; i < this.correspondences.size(); i++) {
 			Correspondence2D2D c = this.correspondences.get(i);
-			output += c.getX0() + "," + c.getY0() + "," + c.getX1() + "," + c.getY1() + "|";
+			output.append(c.getX0() + "," + c.getY0() + "," + c.getX1() + "," + c.getY1() + "|");
 		}
-		output += "\n";
+		output.append("\n");
 
 		// correspondence summary
-		output += this.correspondenceSummary.stringify();
+		output.append(this.correspondenceSummary.stringify());
 
 		// true points
 		for (int i = 0; i < this.truePoints.size(); i++) {
 			Matrix p = this.truePoints.get(i);
-			output += p.get(0, 0) + "," + p.get(1, 0) + "," + p.get(2, 0) + "|";
+			output.append(p.get(0, 0) + "," + p.get(1, 0) + "," + p.get(2, 0) + "|");
 		}
-		output += "\n";
+		output.append("\n");
 
 		// true fundamental matrix (row major order)
 		for (int i = 0; i < this.trueFundamentalMatrix.getRowDimension(); i++) {
 			for (int j = 0; j < this.trueFundamentalMatrix.getColumnDimension(); j++) {
-				output += this.trueFundamentalMatrix.get(i, j) + ",";
+				output.append(this.trueFundamentalMatrix.get(i, j) + ",");
 			}
 		}
-		output += "\n";
+		output.append("\n");
 
 		// estimated fundamental matrix (row major order)
 		for (int i = 0; i < this.estimatedFundamentalMatrix.getRowDimension(); i++) {
 			for (int j = 0; j < this.estimatedFundamentalMatrix.getColumnDimension(); j++) {
-				output += this.estimatedFundamentalMatrix.get(i, j) + ",";
+				output.append(this.estimatedFundamentalMatrix.get(i, j) + ",");
 			}
 		}
-		output += "\n";
+		output.append("\n");
 
 		// estimated homography (row major order)
 		for (int i = 0; i < this.estimatedHomography.rows(); i++) {
 			for (int j = 0; j < this.estimatedHomography.cols(); j++) {
-				output += this.estimatedHomography.get(i, j)[0] + ",";
+				output.append(this.estimatedHomography.get(i, j)[0] + ",");
 			}
 		}
-		output += "\n";
+		output.append("\n");
 
 		// estimated essential matrix (row major order)
 		for (int i = 0; i < this.estimatedEssentialMatrix.getRowDimension(); i++) {
 			for (int j = 0; j < this.estimatedEssentialMatrix.getColumnDimension(); j++) {
-				output += this.estimatedEssentialMatrix.get(i, j) + ",";
+				output.append(this.estimatedEssentialMatrix.get(i, j) + ",");
 			}
 		}
-		output += "\n";
+		output.append("\n");
 
 		// poseTrueFun matrix (row major order)
 		for (int i = 0; i < this.poseTrueFun.getRowDimension(); i++) {
 			for (int j = 0; j < this.poseTrueFun.getColumnDimension(); j++) {
-				output += this.poseTrueFun.get(i, j) + ",";
+				output.append(this.poseTrueFun.get(i, j) + ",");
 			}
 		}
-		output += "\n";
+		output.append("\n");
 
 		// poseEstFun matrix (row major order)
 		for (int i = 0; i < this.poseEstFun.getRowDimension(); i++) {
 			for (int j = 0; j < this.poseEstFun.getColumnDimension(); j++) {
-				output += this.poseEstFun.get(i, j) + ",";
+				output.append(this.poseEstFun.get(i, j) + ",");
 			}
 		}
-		output += "\n";
+		output.append("\n");
 
 		// poseEstHomography matrix (row major order)
 		for (int i = 0; i < this.poseEstHomography.getRowDimension(); i++) {
 			for (int j = 0; j < this.poseEstHomography.getColumnDimension(); j++) {
-				output += this.poseEstHomography.get(i, j) + ",";
+				output.append(this.poseEstHomography.get(i, j) + ",");
 			}
 		}
-		output += "\n";
+		output.append("\n");
 
 		// poseEstEssential matrix (row major order)
 		for (int i = 0; i < this.poseEstEssential.getRowDimension(); i++) {
 			for (int j = 0; j < this.poseEstEssential.getColumnDimension(); j++) {
-				output += this.poseEstEssential.get(i, j) + ",";
+				output.append(this.poseEstEssential.get(i, j) + ",");
 			}
 		}
-		output += "\n";
+		output.append("\n");
 
 		// estPointsTrue (x,y,z|x,y,z|...)
 		for (int i = 0; i < this.estPointsTrue.size(); i++) {
 			Matrix p = this.estPointsTrue.get(i);
-			output += p.get(0, 0) + "," + p.get(1, 0) + "," + p.get(2, 0) + "|";
+			output.append(p.get(0, 0) + "," + p.get(1, 0) + "," + p.get(2, 0) + "|");
 		}
-		output += "\n";
+		output.append("\n");
 
 		// estPointsTrueFun (x,y,z|x,y,z|...)
 		for (int i = 0; i < this.estPointsTrueFun.size(); i++) {
 			Matrix p = this.estPointsTrueFun.get(i);
-			output += p.get(0, 0) + "," + p.get(1, 0) + "," + p.get(2, 0) + "|";
+			output.append(p.get(0, 0) + "," + p.get(1, 0) + "," + p.get(2, 0) + "|");
 		}
-		output += "\n";
+		output.append("\n");
 
 		// estPointsEstFun (x,y,z|x,y,z|...)
 		for (int i = 0; i < this.estPointsEstFun.size(); i++) {
 			Matrix p = this.estPointsEstFun.get(i);
-			output += p.get(0, 0) + "," + p.get(1, 0) + "," + p.get(2, 0) + "|";
+			output.append(p.get(0, 0) + "," + p.get(1, 0) + "," + p.get(2, 0) + "|");
 		}
-		output += "\n";
+		output.append("\n");
 
 		// estPointsEstHomography (x,y,z|x,y,z|...)
 		for (int i = 0; i < this.estPointsEstHomography.size(); i++) {
 			Matrix p = this.estPointsEstHomography.get(i);
-			output += p.get(0, 0) + "," + p.get(1, 0) + "," + p.get(2, 0) + "|";
+			output.append(p.get(0, 0) + "," + p.get(1, 0) + "," + p.get(2, 0) + "|");
 		}
-		output += "\n";
+		output.append("\n");
 
 		// estPointsEstEssential (x,y,z|x,y,z|...)
 		for (int i = 0; i < this.estPointsEstEssential.size(); i++) {
 			Matrix p = this.estPointsEstEssential.get(i);
-			output += p.get(0, 0) + "," + p.get(1, 0) + "," + p.get(2, 0) + "|";
+			output.append(p.get(0, 0) + "," + p.get(1, 0) + "," + p.get(2, 0) + "|");
 		}
-		output += "\n";
+		output.append("\n");
 
 		// total reconstruction errors
 		// (totalReconstErrorTrue,totalReconstErrorTrueFun,totalReconstErrorEstFun,totalReconstErrorEstHomography)
-		output += this.totalReconstErrorTrue + "," + this.totalReconstErrorTrueFun + "," + this.totalReconstErrorEstFun
-				+ "," + this.totalReconstErrorEstHomography + "," + this.totalReconstErrorEstEssential + "\n";
+		output.append(this.totalReconstErrorTrue + "," + this.totalReconstErrorTrueFun + "," + this.totalReconstErrorEstFun
+				+ "," + this.totalReconstErrorEstHomography + "," + this.totalReconstErrorEstEssential + "\n");
 
 		// median reconstruction errors
 		// (medianReconstErrorTrue,medianReconstErrorTrueFun,medianReconstErrorEstFun,medianReconstErrorEstHomography)
-		output += this.medianReconstErrorTrue + "," + this.medianReconstErrorTrueFun + ","
+		output.append(this.medianReconstErrorTrue + "," + this.medianReconstErrorTrueFun + ","
 				+ this.medianReconstErrorEstFun + "," + this.medianReconstErrorEstHomography + ","
-				+ this.medianReconstErrorEstEssential + "\n";
+				+ this.medianReconstErrorEstEssential + "\n");
 
 		// total reprojection errors
 		// (totalReprojErrorTrue,totalReprojErrorTrueFun,totalReprojErrorEstFun,totalReprojErrorEstHomography)
-		output += this.totalReprojErrorTrue + "," + this.totalReprojErrorTrueFun + "," + this.totalReprojErrorEstFun
-				+ "," + this.totalReprojErrorEstHomography + "," + this.totalReprojErrorEstEssential + "\n";
+		output.append(this.totalReprojErrorTrue + "," + this.totalReprojErrorTrueFun + "," + this.totalReprojErrorEstFun
+				+ "," + this.totalReprojErrorEstHomography + "," + this.totalReprojErrorEstEssential + "\n");
 
 		// rotational chordal distances
 		// (rotChordalTrueFun,rotChordalEstFun,rotChordalEstHomography)
-		output += this.rotChordalTrueFun + "," + this.rotChordalEstFun + "," + this.rotChordalEstHomography + ","
-				+ this.rotChordalEstEssential + "\n";
+		output.append(this.rotChordalTrueFun + "," + this.rotChordalEstFun + "," + this.rotChordalEstHomography + ","
+				+ this.rotChordalEstEssential + "\n");
 
 		// translational chordal distances
 		// (transChordalTrueFun,transChordalEstFun,transChordalEstHomography)
-		output += this.transChordalTrueFun + "," + this.transChordalEstFun + "," + this.transChordalEstHomography + ","
-				+ this.transChordalEstEssential + "\n";
+		output.append(this.transChordalTrueFun + "," + this.transChordalEstFun + "," + this.transChordalEstHomography + ","
+				+ this.transChordalEstEssential + "\n");
 
-		return output;
+		return output.toString();
 	}
 
 	public static Sample parse(String input) {
@@ -738,6 +899,7 @@ public class Sample {
 
 	public void errorMetrics() {
 
+		long start = ERROR_METRICS_TIMER.start();
 		CameraParams cameraParams = new CameraParams();
 
 		// reconstruction errors
@@ -813,6 +975,7 @@ public class Sample {
 								? this.secondaryCamera.getHomogeneousMatrix().getMatrix(0, 2, 3, 3).normF()
 								: 1)));
 
+		ERROR_METRICS_TIMER.stop(start);
 	}
 
 }
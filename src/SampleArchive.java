@@ -0,0 +1,608 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import Jama.Matrix;
+
+// Indexed binary archive of full Samples (everything Sample.stringify() writes).
+//
+// Layout (little endian):
+//   header   8 byte magic "SMPARC01", int record count, int reserved,
+//            long offset of the index
+//   records  int section count, int[sections + 1] section offsets (relative to
+//            the record start), then the section bytes
+//   index    per record: long sample id, long record offset, int record length
+//
+// Each record is split into sections (POSES, MATRICES, CORRESPONDENCES,
+// SUMMARY, TRUE_POINTS, EST_POINTS, ERRORS) so readers only decode what they
+// ask for, e.g. read(id, POSES | ERRORS). Correspondences are stored as fixed
+// point varints (x1/y1 as deltas from x0/y0) with 1 / quantization pixel
+// resolution, or as raw doubles when quantization is 0. Point clouds are
+// float32.
+//
+// Records are appended by a Writer; the index is written on close().
+public class SampleArchive {
+
+	public static final byte[] MAGIC = "SMPARC01".getBytes(StandardCharsets.US_ASCII);
+	public static final int HEADER_SIZE = 24;
+	public static final int INDEX_ENTRY_SIZE = 20;
+
+	// sections (bit masks for read())
+	public static final int POSES = 1;
+	public static final int MATRICES = 1 << 1;
+	public static final int CORRESPONDENCES = 1 << 2;
+	public static final int SUMMARY = 1 << 3;
+	public static final int TRUE_POINTS = 1 << 4;
+	public static final int EST_POINTS = 1 << 5;
+	public static final int ERRORS = 1 << 6;
+	public static final int ALL = (1 << 7) - 1;
+	public static final int NUM_SECTIONS = 7;
+
+	// default correspondence resolution (units per pixel), error <= 0.5 / 1024 px
+	public static final double DEFAULT_QUANTIZATION = 1024;
+
+	protected String filename;
+	protected RandomAccessFile raf;
+	protected FileChannel channel;
+
+	protected long[] ids;
+	protected long[] offsets;
+	protected int[] lengths;
+	protected HashMap<Long, Integer> idIndex;
+
+	protected SampleArchive(String filename, RandomAccessFile raf, long[] ids, long[] offsets, int[] lengths) {
+		this.filename = filename;
+		this.raf = raf;
+		this.channel = raf.getChannel();
+		this.ids = ids;
+		this.offsets = offsets;
+		this.lengths = lengths;
+		this.idIndex = new HashMap<Long, Integer>(ids.length * 2);
+		for (int i = 0; i < ids.length; i++) {
+			this.idIndex.put(ids[i], i);
+		}
+	}
+
+	public static SampleArchive open(String filename) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(filename, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+			byte[] magic = new byte[MAGIC.length];
+			header.get(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new IOException(filename + " is not a sample archive");
+			}
+			int count = header.getInt();
+			header.getInt();
+			long indexOffset = header.getLong();
+			if (indexOffset == 0) {
+				throw new IOException(filename + " has no index (writer was not closed)");
+			}
+
+			ByteBuffer index = readFully(channel, indexOffset, count * INDEX_ENTRY_SIZE);
+			long[] ids = new long[count];
+			long[] offsets = new long[count];
+			int[] lengths = new int[count];
+			for (int i = 0; i < count; i++) {
+				ids[i] = index.getLong();
+				offsets[i] = index.getLong();
+				lengths[i] = index.getInt();
+			}
+			return new SampleArchive(filename, raf, ids, offsets, lengths);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	public int size() {
+		return this.ids.length;
+	}
+
+	// sample id of the i-th record
+	public long getId(int i) {
+		return this.ids[i];
+	}
+
+	public boolean contains(long id) {
+		return this.idIndex.containsKey(id);
+	}
+
+	public Sample read(long id) throws IOException {
+		return this.read(id, ALL);
+	}
+
+	// decode only the requested sections; everything else is left at the Sample
+	// defaults
+	public Sample read(long id, int sections) throws IOException {
+		return this.readRecord(this.recordIndex(id), sections);
+	}
+
+	public Sample readRecord(int record, int sections) throws IOException {
+		Sample sample = new Sample();
+		int[] table = this.readSectionTable(record);
+		for (int s = 0; s < NUM_SECTIONS; s++) {
+			if ((sections & (1 << s)) == 0) {
+				continue;
+			}
+			ByteBuffer buffer = readFully(this.channel, this.offsets[record] + table[s], table[s + 1] - table[s]);
+			decodeSection(1 << s, buffer, sample);
+		}
+		return sample;
+	}
+
+	// correspondences of one sample without building a Sample
+	public CorrespondenceSet readCorrespondences(long id) throws IOException {
+		int record = this.recordIndex(id);
+		int[] table = this.readSectionTable(record);
+		int s = Integer.numberOfTrailingZeros(CORRESPONDENCES);
+		return decodeCorrespondences(
+				readFully(this.channel, this.offsets[record] + table[s], table[s + 1] - table[s]));
+	}
+
+	public void close() throws IOException {
+		this.raf.close();
+	}
+
+	protected int recordIndex(long id) throws IOException {
+		Integer record = this.idIndex.get(id);
+		if (record == null) {
+			throw new IOException("sample " + id + " not found in " + this.filename);
+		}
+		return record;
+	}
+
+	protected int[] readSectionTable(int record) throws IOException {
+		ByteBuffer buffer = readFully(this.channel, this.offsets[record], 4 * (NUM_SECTIONS + 2));
+		int numSections = buffer.getInt();
+		if (numSections != NUM_SECTIONS) {
+			throw new IOException("record " + record + ": expected " + NUM_SECTIONS + " sections, found " + numSections);
+		}
+		int[] table = new int[NUM_SECTIONS + 1];
+		for (int i = 0; i < table.length; i++) {
+			table[i] = buffer.getInt();
+		}
+		return table;
+	}
+
+	protected static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("unexpected end of archive");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//////////////////////////////// DECODING /////////////////////////////////////
+	///////////////////////////////////////////////////////////////////////////////
+
+	protected static void decodeSection(int section, ByteBuffer buffer, Sample sample) {
+		switch (section) {
+		case POSES:
+			sample.primaryCamera = getPose(buffer);
+			sample.secondaryCamera = getPose(buffer);
+			sample.poseTrueFun = getMatrix(buffer);
+			sample.poseEstFun = getMatrix(buffer);
+			sample.poseEstHomography = getMatrix(buffer);
+			sample.poseEstEssential = getMatrix(buffer);
+			break;
+		case MATRICES:
+			sample.trueFundamentalMatrix = getMatrix(buffer);
+			sample.estimatedFundamentalMatrix = getMatrix(buffer);
+			Matrix homography = getMatrix(buffer);
+			if (homography != null) {
+				Mat estHom = new Mat(3, 3, CvType.CV_64F);
+				estHom.put(0, 0, homography.getRowPackedCopy());
+				sample.estimatedHomography = estHom;
+			}
+			sample.estimatedEssentialMatrix = getMatrix(buffer);
+			break;
+		case CORRESPONDENCES:
+			sample.correspondences = decodeCorrespondences(buffer).toList();
+			break;
+		case SUMMARY:
+			double[] values = new double[FinalizedDataColumns.NUM_FEATURES + 16];
+			for (int i = 0; i < FinalizedDataColumns.NUM_FEATURES; i++) {
+				values[i] = buffer.getDouble();
+			}
+			sample.correspondenceSummary = FinalizedDataColumns.fromValues(values).summary;
+			break;
+		case TRUE_POINTS:
+			sample.truePoints = getPoints(buffer);
+			break;
+		case EST_POINTS:
+			sample.estPointsTrue = getPoints(buffer);
+			sample.estPointsTrueFun = getPoints(buffer);
+			sample.estPointsEstFun = getPoints(buffer);
+			sample.estPointsEstHomography = getPoints(buffer);
+			sample.estPointsEstEssential = getPoints(buffer);
+			break;
+		case ERRORS:
+			sample.totalReconstErrorTrue = buffer.getDouble();
+			sample.totalReconstErrorTrueFun = buffer.getDouble();
+			sample.totalReconstErrorEstFun = buffer.getDouble();
+			sample.totalReconstErrorEstHomography = buffer.getDouble();
+			sample.totalReconstErrorEstEssential = buffer.getDouble();
+			sample.medianReconstErrorTrue = buffer.getDouble();
+			sample.medianReconstErrorTrueFun = buffer.getDouble();
+			sample.medianReconstErrorEstFun = buffer.getDouble();
+			sample.medianReconstErrorEstHomography = buffer.getDouble();
+			sample.medianReconstErrorEstEssential = buffer.getDouble();
+			sample.totalReprojErrorTrue = buffer.getDouble();
+			sample.totalReprojErrorTrueFun = buffer.getDouble();
+			sample.totalReprojErrorEstFun = buffer.getDouble();
+			sample.totalReprojErrorEstHomography = buffer.getDouble();
+			sample.totalReprojErrorEstEssential = buffer.getDouble();
+			sample.rotChordalTrueFun = buffer.getDouble();
+			sample.rotChordalEstFun = buffer.getDouble();
+			sample.rotChordalEstHomography = buffer.getDouble();
+			sample.rotChordalEstEssential = buffer.getDouble();
+			sample.transChordalTrueFun = buffer.getDouble();
+			sample.transChordalEstFun = buffer.getDouble();
+			sample.transChordalEstHomography = buffer.getDouble();
+			sample.transChordalEstEssential = buffer.getDouble();
+			sample.funNumGood = buffer.getDouble();
+			sample.funNumParallax = buffer.getDouble();
+			sample.essNumGood = buffer.getDouble();
+			sample.essNumParallax = buffer.getDouble();
+			sample.homNumGood = buffer.getDouble();
+			sample.homNumParallax = buffer.getDouble();
+			break;
+		}
+	}
+
+	protected static Pose getPose(ByteBuffer buffer) {
+		if (buffer.get() == 0) {
+			return null;
+		}
+		Pose pose = new Pose();
+		pose.setQw(buffer.getDouble());
+		pose.setQx(buffer.getDouble());
+		pose.setQy(buffer.getDouble());
+		pose.setQz(buffer.getDouble());
+		pose.setCx(buffer.getDouble());
+		pose.setCy(buffer.getDouble());
+		pose.setCz(buffer.getDouble());
+		return pose;
+	}
+
+	protected static Matrix getMatrix(ByteBuffer buffer) {
+		int rows = buffer.get();
+		int cols = buffer.get();
+		if (rows == 0) {
+			return null;
+		}
+		Matrix m = new Matrix(rows, cols);
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				m.set(i, j, buffer.getDouble());
+			}
+		}
+		return m;
+	}
+
+	protected static List<Matrix> getPoints(ByteBuffer buffer) {
+		int n = buffer.getInt();
+		List<Matrix> points = new ArrayList<Matrix>(n);
+		for (int i = 0; i < n; i++) {
+			Matrix p = new Matrix(4, 1);
+			p.set(0, 0, buffer.getFloat());
+			p.set(1, 0, buffer.getFloat());
+			p.set(2, 0, buffer.getFloat());
+			p.set(3, 0, 1);
+			points.add(p);
+		}
+		return points;
+	}
+
+	protected static CorrespondenceSet decodeCorrespondences(ByteBuffer buffer) {
+		int n = buffer.getInt();
+		double quantization = buffer.getDouble();
+		CorrespondenceSet set = new CorrespondenceSet(n);
+		if (quantization == 0) {
+			for (int i = 0; i < n; i++) {
+				set.add(buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+			}
+			return set;
+		}
+		for (int i = 0; i < n; i++) {
+			long x0 = getVarLong(buffer);
+			long y0 = getVarLong(buffer);
+			long x1 = x0 + getVarLong(buffer);
+			long y1 = y0 + getVarLong(buffer);
+			set.add(x0 / quantization, y0 / quantization, x1 / quantization, y1 / quantization);
+		}
+		return set;
+	}
+
+	// zigzag varint
+	protected static long getVarLong(ByteBuffer buffer) {
+		long raw = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			raw |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return (raw >>> 1) ^ -(raw & 1);
+	}
+
+	///////////////////////////////////////////////////////////////////////////////
+	//////////////////////////////// WRITING //////////////////////////////////////
+	///////////////////////////////////////////////////////////////////////////////
+
+	// appends samples to a new archive; not thread safe
+	public static class Writer {
+
+		public double quantization = DEFAULT_QUANTIZATION;
+
+		protected RandomAccessFile raf;
+		protected FileChannel channel;
+		protected long position = HEADER_SIZE;
+
+		protected ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+		protected ByteBuffer index = ByteBuffer.allocate(INDEX_ENTRY_SIZE * 1024).order(ByteOrder.LITTLE_ENDIAN);
+		protected int count = 0;
+
+		public Writer(String filename) throws IOException {
+			this(filename, DEFAULT_QUANTIZATION);
+		}
+
+		public Writer(String filename, double quantization) throws IOException {
+			this.quantization = quantization;
+			File file = new File(filename);
+			if (file.getParentFile() != null) {
+				file.getParentFile().mkdirs();
+			}
+			this.raf = new RandomAccessFile(file, "rw");
+			this.raf.setLength(0);
+			this.channel = this.raf.getChannel();
+			this.writeHeader(0);
+		}
+
+		public int getCount() {
+			return this.count;
+		}
+
+		public void write(long id, Sample sample) throws IOException {
+			ByteBuffer buffer = this.buffer;
+			buffer.clear();
+			int tableSize = 4 * (NUM_SECTIONS + 2);
+			this.ensure(tableSize);
+			buffer.position(tableSize);
+
+			int[] table = new int[NUM_SECTIONS + 1];
+			for (int s = 0; s < NUM_SECTIONS; s++) {
+				table[s] = this.buffer.position();
+				this.encodeSection(1 << s, sample);
+			}
+			table[NUM_SECTIONS] = this.buffer.position();
+
+			buffer = this.buffer;
+			buffer.putInt(0, NUM_SECTIONS);
+			for (int i = 0; i < table.length; i++) {
+				buffer.putInt(4 * (i + 1), table[i]);
+			}
+			buffer.flip();
+			int length = buffer.remaining();
+			while (buffer.hasRemaining()) {
+				this.channel.write(buffer, this.position + buffer.position());
+			}
+
+			if (this.index.remaining() < INDEX_ENTRY_SIZE) {
+				ByteBuffer grown = ByteBuffer.allocate(this.index.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+				this.index.flip();
+				grown.put(this.index);
+				this.index = grown;
+			}
+			this.index.putLong(id);
+			this.index.putLong(this.position);
+			this.index.putInt(length);
+			this.position += length;
+			this.count++;
+		}
+
+		// write the index and patch the header
+		public void close() throws IOException {
+			long indexOffset = this.position;
+			this.index.flip();
+			while (this.index.hasRemaining()) {
+				this.channel.write(this.index, indexOffset + this.index.position());
+			}
+			this.writeHeader(indexOffset);
+			this.channel.force(true);
+			this.raf.close();
+		}
+
+		protected void writeHeader(long indexOffset) throws IOException {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.put(MAGIC);
+			header.putInt(this.count);
+			header.putInt(0);
+			header.putLong(indexOffset);
+			header.flip();
+			while (header.hasRemaining()) {
+				this.channel.write(header, header.position());
+			}
+		}
+
+		protected void encodeSection(int section, Sample sample) {
+			switch (section) {
+			case POSES:
+				this.putPose(sample.primaryCamera);
+				this.putPose(sample.secondaryCamera);
+				this.putMatrix(sample.poseTrueFun);
+				this.putMatrix(sample.poseEstFun);
+				this.putMatrix(sample.poseEstHomography);
+				this.putMatrix(sample.poseEstEssential);
+				break;
+			case MATRICES:
+				this.putMatrix(sample.trueFundamentalMatrix);
+				this.putMatrix(sample.estimatedFundamentalMatrix);
+				Matrix homography = null;
+				if (sample.estimatedHomography != null && !sample.estimatedHomography.empty()) {
+					homography = new Matrix(3, 3);
+					for (int i = 0; i < 3; i++) {
+						for (int j = 0; j < 3; j++) {
+							homography.set(i, j, sample.estimatedHomography.get(i, j)[0]);
+						}
+					}
+				}
+				this.putMatrix(homography);
+				this.putMatrix(sample.estimatedEssentialMatrix);
+				break;
+			case CORRESPONDENCES:
+				this.putCorrespondences(sample.correspondences);
+				break;
+			case SUMMARY:
+				FinalizedData fd = new FinalizedData();
+				fd.summary = sample.correspondenceSummary;
+				double[] values = FinalizedDataColumns.toValues(fd);
+				this.ensure(8 * FinalizedDataColumns.NUM_FEATURES);
+				for (int i = 0; i < FinalizedDataColumns.NUM_FEATURES; i++) {
+					this.buffer.putDouble(values[i]);
+				}
+				break;
+			case TRUE_POINTS:
+				this.putPoints(sample.truePoints);
+				break;
+			case EST_POINTS:
+				this.putPoints(sample.estPointsTrue);
+				this.putPoints(sample.estPointsTrueFun);
+				this.putPoints(sample.estPointsEstFun);
+				this.putPoints(sample.estPointsEstHomography);
+				this.putPoints(sample.estPointsEstEssential);
+				break;
+			case ERRORS:
+				double[] errors = { sample.totalReconstErrorTrue, sample.totalReconstErrorTrueFun,
+						sample.totalReconstErrorEstFun, sample.totalReconstErrorEstHomography,
+						sample.totalReconstErrorEstEssential, sample.medianReconstErrorTrue,
+						sample.medianReconstErrorTrueFun, sample.medianReconstErrorEstFun,
+						sample.medianReconstErrorEstHomography, sample.medianReconstErrorEstEssential,
+						sample.totalReprojErrorTrue, sample.totalReprojErrorTrueFun, sample.totalReprojErrorEstFun,
+						sample.totalReprojErrorEstHomography, sample.totalReprojErrorEstEssential,
+						sample.rotChordalTrueFun, sample.rotChordalEstFun, sample.rotChordalEstHomography,
+						sample.rotChordalEstEssential, sample.transChordalTrueFun, sample.transChordalEstFun,
+						sample.transChordalEstHomography, sample.transChordalEstEssential, sample.funNumGood,
+						sample.funNumParallax, sample.essNumGood, sample.essNumParallax, sample.homNumGood,
+						sample.homNumParallax };
+				this.ensure(8 * errors.length);
+				for (int i = 0; i < errors.length; i++) {
+					this.buffer.putDouble(errors[i]);
+				}
+				break;
+			}
+		}
+
+		protected void putPose(Pose pose) {
+			this.ensure(1 + 7 * 8);
+			if (pose == null) {
+				this.buffer.put((byte) 0);
+				return;
+			}
+			this.buffer.put((byte) 1);
+			this.buffer.putDouble(pose.getQw());
+			this.buffer.putDouble(pose.getQx());
+			this.buffer.putDouble(pose.getQy());
+			this.buffer.putDouble(pose.getQz());
+			this.buffer.putDouble(pose.getCx());
+			this.buffer.putDouble(pose.getCy());
+			this.buffer.putDouble(pose.getCz());
+		}
+
+		protected void putMatrix(Matrix m) {
+			if (m == null) {
+				this.ensure(2);
+				this.buffer.put((byte) 0);
+				this.buffer.put((byte) 0);
+				return;
+			}
+			int rows = m.getRowDimension();
+			int cols = m.getColumnDimension();
+			this.ensure(2 + rows * cols * 8);
+			this.buffer.put((byte) rows);
+			this.buffer.put((byte) cols);
+			for (int i = 0; i < rows; i++) {
+				for (int j = 0; j < cols; j++) {
+					this.buffer.putDouble(m.get(i, j));
+				}
+			}
+		}
+
+		protected void putPoints(List<Matrix> points) {
+			int n = points == null ? 0 : points.size();
+			this.ensure(4 + n * 12);
+			this.buffer.putInt(n);
+			for (int i = 0; i < n; i++) {
+				Matrix p = points.get(i);
+				this.buffer.putFloat((float) p.get(0, 0));
+				this.buffer.putFloat((float) p.get(1, 0));
+				this.buffer.putFloat((float) p.get(2, 0));
+			}
+		}
+
+		protected void putCorrespondences(List<Correspondence2D2D> correspondences) {
+			int n = correspondences == null ? 0 : correspondences.size();
+			double q = this.quantization;
+			this.ensure(12 + n * 40);
+			this.buffer.putInt(n);
+			this.buffer.putDouble(q);
+			for (int i = 0; i < n; i++) {
+				Correspondence2D2D c = correspondences.get(i);
+				if (q == 0) {
+					this.buffer.putDouble(c.getX0());
+					this.buffer.putDouble(c.getY0());
+					this.buffer.putDouble(c.getX1());
+					this.buffer.putDouble(c.getY1());
+					continue;
+				}
+				long x0 = Math.round(c.getX0() * q);
+				long y0 = Math.round(c.getY0() * q);
+				putVarLong(this.buffer, x0);
+				putVarLong(this.buffer, y0);
+				putVarLong(this.buffer, Math.round(c.getX1() * q) - x0);
+				putVarLong(this.buffer, Math.round(c.getY1() * q) - y0);
+			}
+		}
+
+		protected void ensure(int bytes) {
+			if (this.buffer.remaining() >= bytes) {
+				return;
+			}
+			int capacity = Math.max(this.buffer.capacity() * 2, this.buffer.position() + bytes);
+			ByteBuffer grown = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+			this.buffer.flip();
+			grown.put(this.buffer);
+			this.buffer = grown;
+		}
+
+	}
+
+	// zigzag varint (at most 10 bytes)
+	protected static void putVarLong(ByteBuffer buffer, long value) {
+		long raw = (value << 1) ^ (value >> 63);
+		while ((raw & ~0x7FL) != 0) {
+			buffer.put((byte) ((raw & 0x7F) | 0x80));
+			raw >>>= 7;
+		}
+		buffer.put((byte) raw);
+	}
+
+}
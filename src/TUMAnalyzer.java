@@ -1,9 +1,8 @@
-import java.io.FileWriter;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-import org.knowm.xchart.SwingWrapper;
 import org.knowm.xchart.XYChart;
 import org.knowm.xchart.XYChartBuilder;
 import org.knowm.xchart.style.Styler;
@@ -11,11 +10,9 @@ import org.knowm.xchart.style.Styler.LegendPosition;
 import org.opencv.core.KeyPoint;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfKeyPoint;
-import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.Point;
 import org.opencv.core.Scalar;
 import org.opencv.features2d.Features2d;
-import org.opencv.highgui.HighGui;
 import org.opencv.imgproc.Imgproc;
 
 import Jama.Matrix;
@@ -25,41 +22,40 @@ public class TUMAnalyzer {
 	public static CameraParams cameraParams = new CameraParams();
 
 	public static void generateTestDataORB(String tumFilePath, int batchSize) {
+		generateTestDataORB(tumFilePath, batchSize, batchSize, false);
+	}
 
-		// initialize output data string
-		String output = "";
-
-		// load in the TUM data
-		Buffer<FramePack> tumBuf = new TUMBuffer(tumFilePath, true);
-		List<Pose> poses = GroundTruthLoader.loadGroundTruth(tumFilePath);
-
-		// load TUM data into batches
-		List<List<FramePack>> batches = new ArrayList<List<FramePack>>();
-		boolean keepGoing = true;
-		while (keepGoing) {
-			List<FramePack> batch = new ArrayList<FramePack>();
-			for (int i = 0; i < batchSize && keepGoing; i++) {
-				FramePack fp = tumBuf.getNext();
-
-				if (fp == null) {
-					keepGoing = false;
-					continue;
-				}
-				batch.add(fp);
-			}
+	public static void generateTestDataORB(String tumFilePath, int batchSize, boolean resume) {
+		generateTestDataORB(tumFilePath, batchSize, batchSize, resume);
+	}
 
-			if (batch.size() > 1) {
-				batches.add(batch);
-			}
+	// batches start every stride frames (stride < batchSize overlaps them). With
+	// resume = true, frames already recorded in the output file (by an
+	// interrupted run) are tracked but not re-evaluated
+	public static void generateTestDataORB(String tumFilePath, int batchSize, int stride, boolean resume) {
 
+		String OUT_FILE = "results/data/orb-based/TUM_samples_stn_" + batchSize
+				+ (stride != batchSize ? "_s" + stride : "") + ".dat";
+		FinalizedDataWriter writer = null;
+		try {
+			writer = new FinalizedDataWriter(OUT_FILE, FinalizedDataWriter.DEFAULT_SYNC_INTERVAL, resume);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return;
 		}
+		long resumePosition = writer.getResumePosition();
 
-		int BATCH_START = 0;
-		int BATCH_END = batches.size() - 0;
+		// load in the TUM data (decoded frames are cached with -DframeCache=true,
+		// only the processed frames are used here)
+		TUMBuffer tumBuf = new TUMBuffer(tumFilePath, false, FrameCache.ENABLED, false);
+		List<Pose> poses = GroundTruthLoader.loadGroundTruth(tumFilePath, tumBuf.getFrameIndex(), false, false);
 
-		String OUT_FILE = "results/data/orb-based/TUM_samples_stn_" + batchSize + ".dat";
+		// stream the TUM data in windows of batchSize frames, stride frames apart
+		// (only the current window is kept in memory)
+		FrameBatcher batcher = new FrameBatcher(tumBuf, batchSize, stride);
+		VisualizationSink sink = new VisualizationSink("Frame");
 
-		int numIterations = (batchSize - 1) * (BATCH_END - BATCH_START - 1) + (batches.get(BATCH_END - 1).size() - 1);
+		int numIterations = FrameBatcher.countPairs(tumBuf.getFrameIndex().size(), batchSize, stride);
 		double[] indexList = new double[numIterations];
 		double[] valueListFun = new double[numIterations];
 		double[] valueListHom = new double[numIterations];
@@ -68,80 +64,52 @@ public class TUMAnalyzer {
 		int chartIndex = 0;
 
 		// for each batch,
-		for (int i = BATCH_START; i < BATCH_END; i++) {
+		TrackTable tracks = new TrackTable();
+		FrameBatcher.Batch batch;
+		while ((batch = batcher.next()) != null) {
 			// // get orb features of first frame
-			ImageData imgData0 = new ImageData(batches.get(i).get(0).getProcessedFrame());
-			imgData0.autoContrast();
+			ImageData orbData0 = new ImageData(batch.get(0).getWritableProcessedFrame());
+			orbData0.autoContrast();
 			ORBExtractor extractor = new ORBExtractor(1.2f, ImageData.orb.getNLevels(), ImageData.orb.getPatchSize());
-			extractor.setKeypoints(imgData0);
-			imgData0.computeFeatures();
+			extractor.setKeypoints(orbData0);
+			orbData0.computeFeatures();
 
-			ImageData imgData0 = new ImageData(batches.get(i).get(0).getProcessedFrame());
-			MatOfPoint2f pInitial = imgData0.GFTT(1000);
-			MatOfPoint2f pPrev = new MatOfPoint2f(pInitial);
+			ImageData imgData0 = new ImageData(batch.get(0).getProcessedFrame());
+			tracks.reset(imgData0.GFTT(1000));
 			Mat prevFrame = imgData0.getImage();
 
-			Pose pose0 = poses.get(i * batchSize);
+			Pose pose0 = poses.get(batch.start);
 
 			// // iterate through other frames
-			for (int j = 1; j < batches.get(i).size(); j++) {
+			for (int j = 1; j < batch.size(); j++) {
 
-				Utils.pl("\n\nFrame #" + (i * batchSize + j) + "\n\n");
+				Utils.pl("\n\nFrame #" + (batch.start + j) + "\n\n");
 
 				// // // get orb features of frame and match them to first frame
-				ImageData imgData1 = new ImageData(batches.get(i).get(j).getProcessedFrame());
-				MatOfPoint2f pCurrent = new MatOfPoint2f();
-
-				List<Correspondence2D2D> correspondences = imgData1.calcOpticalFlow(prevFrame, pInitial, pPrev,
-						pCurrent);
-
-				// create MatOfKeyPoints
-				List<KeyPoint> listKeypointsNew = new ArrayList<KeyPoint>();
-				List<KeyPoint> listKeypointsOld = new ArrayList<KeyPoint>();
-				for (Correspondence2D2D c : correspondences) {
-					KeyPoint kpNew = new KeyPoint();
-					Point ptNew = new Point(c.getX1(), c.getY1());
-					kpNew.pt = ptNew;
-					listKeypointsNew.add(kpNew);
-
-					KeyPoint kpOld = new KeyPoint();
-					Point ptOld = new Point(c.getX0(), c.getY0());
-					kpOld.pt = ptOld;
-					listKeypointsOld.add(kpOld);
-				}
-				MatOfKeyPoint keypointsNew = new MatOfKeyPoint();
-				MatOfKeyPoint keypointsOld = new MatOfKeyPoint();
-				keypointsNew.fromList(listKeypointsNew);
-				keypointsOld.fromList(listKeypointsOld);
-
-				// visualize matches
-				Mat dest = imgData1.image.clone();
-				Imgproc.cvtColor(dest, dest, Imgproc.COLOR_GRAY2RGB);
-
-				// black out image
-//						Imgproc.rectangle(dest, new Point(0, 0), new Point(639, 479), new Scalar(0, 0, 0), -1);
-
-				// draw keypoints
-//						Features2d.drawKeypoints(dest, keypointsOld, dest, new Scalar(255, 0, 0));
-				Features2d.drawKeypoints(dest, keypointsNew, dest, new Scalar(255, 0, 255));
-
-				// draw correspondence lines
-				for (Correspondence2D2D c : correspondences) {
-					Imgproc.line(dest, new Point(c.getX0(), c.getY0()), new Point(c.getX1(), c.getY1()),
-							new Scalar(0, 255, 0), 1);
+				ImageData imgData1 = new ImageData(batch.get(j).getProcessedFrame());
+				List<Correspondence2D2D> correspondences = imgData1.calcOpticalFlow(prevFrame, tracks);
+
+				// visualize matches (drawn and shown on the sink's thread; frames that
+				// arrive while it is busy are dropped)
+				if (!VisualizationSink.isHeadless()) {
+					double[] lines = toLines(correspondences);
+					sink.offer(imgData1.image, canvas -> drawMatches(canvas, lines));
 				}
-
-				HighGui.imshow("Frame", dest);
-				HighGui.waitKey(1);
 				Utils.pl("index in batch: " + j);
 				Utils.pl("num correspondences: " + correspondences.size());
 
 				// update keypoints
 				prevFrame = imgData1.getImage();
-				pPrev = pCurrent;
+
+				// already recorded by a previous run
+				if (chartIndex < resumePosition) {
+					indexList[chartIndex] = chartIndex + 1;
+					chartIndex++;
+					continue;
+				}
 
 				// // // create poses for first and current frames, calculate true difference
-				Pose pose1 = poses.get(i * batchSize + j);
+				Pose pose1 = poses.get(batch.start + j);
 				Utils.pl("absolute pose1: ");
 				pose1.getHomogeneousMatrix().print(10, 5);
 				Pose poseDiff = Utils.getPoseDifference(pose0, pose1);
@@ -154,12 +122,13 @@ public class TUMAnalyzer {
 						Math.pow(poseDiff.getCx(), 2) + Math.pow(poseDiff.getCy(), 2) + Math.pow(poseDiff.getCz(), 2));
 				Utils.pl("calculated baseline length: " + baselineLength);
 
-				// // // get sample for correspondences
+				// // // get sample for correspondences (the sample keeps them, so it gets
+				// a copy rather than the tracks' pooled view)
 				Sample sample = new Sample();
-				sample.evaluate(new Pose(), poseDiff, correspondences, cameraParams, new Matrix(3, 3), true);
+				sample.evaluate(new Pose(), poseDiff, tracks.toList(), cameraParams, new Matrix(3, 3), true);
 //						sample.bundleAdjust();
 
-				// // // create finalized data and add it to output string (with frame nums)
+				// // // create finalized data and write it out (with frame nums)
 				FinalizedData fd = new FinalizedData();
 				fd.summary = sample.correspondenceSummary;
 				fd.totalReconstErrorEstFun = sample.totalReconstErrorEstFun;
@@ -203,8 +172,8 @@ public class TUMAnalyzer {
 				Utils.pl("transChordalEstHomography: " + fd.transChordalEstHomography);
 				Utils.pl("");
 
-				output += "# " + (i * batchSize) + "," + (j + i * batchSize) + "\n";
-				output += fd.stringify();
+				writer.write(batch.start + "," + (batch.start + j), fd);
+				writer.mark(chartIndex + 1);
 
 //						int chartIndex = i * batchSize + j - 1;
 				indexList[chartIndex] = chartIndex + 1;
@@ -245,8 +214,17 @@ public class TUMAnalyzer {
 
 			}
 
+			// release the frames no later window needs
+			batcher.done(batch);
+
 		}
 
+		tracks.release();
+		tumBuf.close();
+		writer.finish();
+		writer.close();
+		sink.close();
+
 		boolean plot = true;
 		if (plot) {
 
@@ -280,61 +258,52 @@ public class TUMAnalyzer {
 //							chart.addSeries("Tomono score", indexList, valueListTomono);
 //					chart.getStyler().setYAxisMax(10.0);
 
-			// Show it
-			new SwingWrapper(chart).displayChart();
+			// Show it (saved as a png when headless)
+			VisualizationSink.showChart(chart, new File(OUT_FILE).getName().replace(".dat", ""));
 		}
 
-//				Utils.pl(output);
-		// save output string
-		try {
-
-			FileWriter fw = new FileWriter(OUT_FILE);
-			fw.write(output);
-			fw.close();
+		// per-stage timings (with -Dmetrics=true)
+		Metrics.export(Metrics.DEFAULT_DIR + new File(OUT_FILE).getName().replace(".dat", ""));
 
-		} catch (Exception e) {
-
-		}
 		Utils.pl("end of function.");
 
 	}
 
 	public static void generateTestData(String tumFilePath, int batchSize) {
+		generateTestData(tumFilePath, batchSize, batchSize, false);
+	}
 
-		// initialize output data string
-		String output = "";
-
-		// load in the TUM data
-		Buffer<FramePack> tumBuf = new TUMBuffer(tumFilePath, true);
-		List<Pose> poses = GroundTruthLoader.loadGroundTruth(tumFilePath);
-
-		// load TUM data into batches
-		List<List<FramePack>> batches = new ArrayList<List<FramePack>>();
-		boolean keepGoing = true;
-		while (keepGoing) {
-			List<FramePack> batch = new ArrayList<FramePack>();
-			for (int i = 0; i < batchSize && keepGoing; i++) {
-				FramePack fp = tumBuf.getNext();
-
-				if (fp == null) {
-					keepGoing = false;
-					continue;
-				}
-				batch.add(fp);
-			}
+	public static void generateTestData(String tumFilePath, int batchSize, boolean resume) {
+		generateTestData(tumFilePath, batchSize, batchSize, resume);
+	}
 
-			if (batch.size() > 1) {
-				batches.add(batch);
-			}
+	// batches start every stride frames (stride < batchSize overlaps them). With
+	// resume = true, frames already recorded in the output file (by an
+	// interrupted run) are tracked but not re-evaluated
+	public static void generateTestData(String tumFilePath, int batchSize, int stride, boolean resume) {
 
+		String OUT_FILE = "results/data/TUM_samples_stn_3_" + batchSize
+				+ (stride != batchSize ? "_s" + stride : "") + ".dat";
+		FinalizedDataWriter writer = null;
+		try {
+			writer = new FinalizedDataWriter(OUT_FILE, FinalizedDataWriter.DEFAULT_SYNC_INTERVAL, resume);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return;
 		}
+		long resumePosition = writer.getResumePosition();
 
-		int BATCH_START = 0;
-		int BATCH_END = batches.size() - 0;
+		// load in the TUM data (decoded frames are cached with -DframeCache=true,
+		// only the processed frames are used here)
+		TUMBuffer tumBuf = new TUMBuffer(tumFilePath, false, FrameCache.ENABLED, false);
+		List<Pose> poses = GroundTruthLoader.loadGroundTruth(tumFilePath, tumBuf.getFrameIndex(), false, false);
 
-		String OUT_FILE = "results/data/TUM_samples_stn_3_" + batchSize + ".dat";
+		// stream the TUM data in windows of batchSize frames, stride frames apart
+		// (only the current window is kept in memory)
+		FrameBatcher batcher = new FrameBatcher(tumBuf, batchSize, stride);
+		VisualizationSink sink = new VisualizationSink("Frame");
 
-		int numIterations = (batchSize - 1) * (BATCH_END - BATCH_START - 1) + (batches.get(BATCH_END - 1).size() - 1);
+		int numIterations = FrameBatcher.countPairs(tumBuf.getFrameIndex().size(), batchSize, stride);
 		double[] indexList = new double[numIterations];
 		double[] valueListFun = new double[numIterations];
 		double[] valueListHom = new double[numIterations];
@@ -343,74 +312,46 @@ public class TUMAnalyzer {
 		int chartIndex = 0;
 
 		// for each batch,
-		for (int i = BATCH_START; i < BATCH_END; i++) {
+		TrackTable tracks = new TrackTable();
+		FrameBatcher.Batch batch;
+		while ((batch = batcher.next()) != null) {
 			// // get orb features of first frame
-			ImageData imgData0 = new ImageData(batches.get(i).get(0).getProcessedFrame());
-			MatOfPoint2f pInitial = imgData0.GFTT(1000);
-			MatOfPoint2f pPrev = new MatOfPoint2f(pInitial);
+			ImageData imgData0 = new ImageData(batch.get(0).getProcessedFrame());
+			tracks.reset(imgData0.GFTT(1000));
 			Mat prevFrame = imgData0.getImage();
 
-			Pose pose0 = poses.get(i * batchSize);
+			Pose pose0 = poses.get(batch.start);
 
 			// // iterate through other frames
-			for (int j = 1; j < batches.get(i).size(); j++) {
+			for (int j = 1; j < batch.size(); j++) {
 
-				Utils.pl("\n\nFrame #" + (i * batchSize + j) + "\n\n");
+				Utils.pl("\n\nFrame #" + (batch.start + j) + "\n\n");
 
 				// // // get orb features of frame and match them to first frame
-				ImageData imgData1 = new ImageData(batches.get(i).get(j).getProcessedFrame());
-				MatOfPoint2f pCurrent = new MatOfPoint2f();
-
-				List<Correspondence2D2D> correspondences = imgData1.calcOpticalFlow(prevFrame, pInitial, pPrev,
-						pCurrent);
-
-				// create MatOfKeyPoints
-				List<KeyPoint> listKeypointsNew = new ArrayList<KeyPoint>();
-				List<KeyPoint> listKeypointsOld = new ArrayList<KeyPoint>();
-				for (Correspondence2D2D c : correspondences) {
-					KeyPoint kpNew = new KeyPoint();
-					Point ptNew = new Point(c.getX1(), c.getY1());
-					kpNew.pt = ptNew;
-					listKeypointsNew.add(kpNew);
-
-					KeyPoint kpOld = new KeyPoint();
-					Point ptOld = new Point(c.getX0(), c.getY0());
-					kpOld.pt = ptOld;
-					listKeypointsOld.add(kpOld);
-				}
-				MatOfKeyPoint keypointsNew = new MatOfKeyPoint();
-				MatOfKeyPoint keypointsOld = new MatOfKeyPoint();
-				keypointsNew.fromList(listKeypointsNew);
-				keypointsOld.fromList(listKeypointsOld);
-
-				// visualize matches
-				Mat dest = imgData1.image.clone();
-				Imgproc.cvtColor(dest, dest, Imgproc.COLOR_GRAY2RGB);
-
-				// black out image
-//				Imgproc.rectangle(dest, new Point(0, 0), new Point(639, 479), new Scalar(0, 0, 0), -1);
-
-				// draw keypoints
-//				Features2d.drawKeypoints(dest, keypointsOld, dest, new Scalar(255, 0, 0));
-				Features2d.drawKeypoints(dest, keypointsNew, dest, new Scalar(255, 0, 255));
-
-				// draw correspondence lines
-				for (Correspondence2D2D c : correspondences) {
-					Imgproc.line(dest, new Point(c.getX0(), c.getY0()), new Point(c.getX1(), c.getY1()),
-							new Scalar(0, 255, 0), 1);
+				ImageData imgData1 = new ImageData(batch.get(j).getProcessedFrame());
+				List<Correspondence2D2D> correspondences = imgData1.calcOpticalFlow(prevFrame, tracks);
+
+				// visualize matches (drawn and shown on the sink's thread; frames that
+				// arrive while it is busy are dropped)
+				if (!VisualizationSink.isHeadless()) {
+					double[] lines = toLines(correspondences);
+					sink.offer(imgData1.image, canvas -> drawMatches(canvas, lines));
 				}
-
-				HighGui.imshow("Frame", dest);
-				HighGui.waitKey(1);
 				Utils.pl("index in batch: " + j);
 				Utils.pl("num correspondences: " + correspondences.size());
 
 				// update keypoints
 				prevFrame = imgData1.getImage();
-				pPrev = pCurrent;
+
+				// already recorded by a previous run
+				if (chartIndex < resumePosition) {
+					indexList[chartIndex] = chartIndex + 1;
+					chartIndex++;
+					continue;
+				}
 
 				// // // create poses for first and current frames, calculate true difference
-				Pose pose1 = poses.get(i * batchSize + j);
+				Pose pose1 = poses.get(batch.start + j);
 				Utils.pl("absolute pose1: ");
 				pose1.getHomogeneousMatrix().print(10, 5);
 				Pose poseDiff = Utils.getPoseDifference(pose0, pose1);
@@ -423,12 +364,13 @@ public class TUMAnalyzer {
 						Math.pow(poseDiff.getCx(), 2) + Math.pow(poseDiff.getCy(), 2) + Math.pow(poseDiff.getCz(), 2));
 				Utils.pl("calculated baseline length: " + baselineLength);
 
-				// // // get sample for correspondences
+				// // // get sample for correspondences (the sample keeps them, so it gets
+				// a copy rather than the tracks' pooled view)
 				Sample sample = new Sample();
-				sample.evaluate(new Pose(), poseDiff, correspondences, cameraParams, new Matrix(3, 3), true);
+				sample.evaluate(new Pose(), poseDiff, tracks.toList(), cameraParams, new Matrix(3, 3), true);
 //				sample.bundleAdjust();
 
-				// // // create finalized data and add it to output string (with frame nums)
+				// // // create finalized data and write it out (with frame nums)
 				FinalizedData fd = new FinalizedData();
 				fd.summary = sample.correspondenceSummary;
 				fd.totalReconstErrorEstFun = sample.totalReconstErrorEstFun;
@@ -472,8 +414,8 @@ public class TUMAnalyzer {
 				Utils.pl("transChordalEstHomography: " + fd.transChordalEstHomography);
 				Utils.pl("");
 
-				output += "# " + (i * batchSize) + "," + (j + i * batchSize) + "\n";
-				output += fd.stringify();
+				writer.write(batch.start + "," + (batch.start + j), fd);
+				writer.mark(chartIndex + 1);
 
 //				int chartIndex = i * batchSize + j - 1;
 				indexList[chartIndex] = chartIndex + 1;
@@ -514,8 +456,17 @@ public class TUMAnalyzer {
 
 			}
 
+			// release the frames no later window needs
+			batcher.done(batch);
+
 		}
 
+		tracks.release();
+		tumBuf.close();
+		writer.finish();
+		writer.close();
+		sink.close();
+
 		boolean plot = true;
 		if (plot) {
 
@@ -549,22 +500,53 @@ public class TUMAnalyzer {
 //					chart.addSeries("Tomono score", indexList, valueListTomono);
 //			chart.getStyler().setYAxisMax(10.0);
 
-			// Show it
-			new SwingWrapper(chart).displayChart();
+			// Show it (saved as a png when headless)
+			VisualizationSink.showChart(chart, new File(OUT_FILE).getName().replace(".dat", ""));
 		}
 
-//		Utils.pl(output);
-		// save output string
-		try {
+		// per-stage timings (with -Dmetrics=true)
+		Metrics.export(Metrics.DEFAULT_DIR + new File(OUT_FILE).getName().replace(".dat", ""));
 
-			FileWriter fw = new FileWriter(OUT_FILE);
-			fw.write(output);
-			fw.close();
+		Utils.pl("end of function.");
+	}
 
-		} catch (Exception e) {
+	// correspondences as x0, y0, x1, y1 quadruples (a copy the display thread
+	// can use after the correspondences have moved on)
+	protected static double[] toLines(List<Correspondence2D2D> correspondences) {
+		double[] lines = new double[correspondences.size() * 4];
+		int i = 0;
+		for (Correspondence2D2D c : correspondences) {
+			lines[i++] = c.getX0();
+			lines[i++] = c.getY0();
+			lines[i++] = c.getX1();
+			lines[i++] = c.getY1();
+		}
+		return lines;
+	}
+
+	// draw the tracked keypoints and correspondence lines on a gray frame
+	protected static void drawMatches(Mat dest, double[] lines) {
+		Imgproc.cvtColor(dest, dest, Imgproc.COLOR_GRAY2RGB);
 
+		// create MatOfKeyPoints
+		List<KeyPoint> listKeypointsNew = new ArrayList<KeyPoint>();
+		for (int i = 0; i < lines.length; i += 4) {
+			KeyPoint kpNew = new KeyPoint();
+			kpNew.pt = new Point(lines[i + 2], lines[i + 3]);
+			listKeypointsNew.add(kpNew);
+		}
+		MatOfKeyPoint keypointsNew = new MatOfKeyPoint();
+		keypointsNew.fromList(listKeypointsNew);
+
+		// draw keypoints
+		Features2d.drawKeypoints(dest, keypointsNew, dest, new Scalar(255, 0, 255));
+		keypointsNew.release();
+
+		// draw correspondence lines
+		for (int i = 0; i < lines.length; i += 4) {
+			Imgproc.line(dest, new Point(lines[i], lines[i + 1]), new Point(lines[i + 2], lines[i + 3]),
+					new Scalar(0, 255, 0), 1);
 		}
-		Utils.pl("end of function.");
 	}
 
 }
@@ -1,7 +1,7 @@
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.opencv.core.Mat;
 import org.opencv.imgcodecs.Imgcodecs;
@@ -13,12 +13,14 @@ public class TUMBuffer implements Buffer<FramePack> {
 	// DEBUG: limit the number of frames to pre-load
 	public long frameLimit = 99999;
 
-	// preloaded frames
+	// preloaded frames (entries are cleared as they are handed out)
 	ArrayList<FramePack> frames = new ArrayList<FramePack>();
+	int nextPreloaded = 0;
 
 	// timestamp and file location for each frame.
 	// Ex. "1305031452.791720 rgb/1305031452.791720.png"
-	ArrayList<String> frameData = new ArrayList<String>();
+	FrameIndex frameIndex = new FrameIndex();
+	List<String> frameData = new ArrayList<String>();
 
 	// set to true to load all frames into the frame buffer before popping any
 	boolean preloadFrames = true;
@@ -26,6 +28,28 @@ public class TUMBuffer implements Buffer<FramePack> {
 	// set to the directory that contains rgb.txt
 	String filepath = "";
 
+	// preprocessing applied by loadFrame() (part of the frame cache key, change
+	// it whenever loadFrame() changes)
+	public static final String PREPROCESSING = "imread,BGR2RGB,RGB2GRAY";
+
+	// decoded frame cache (see TUMBuffer(String, boolean, boolean, boolean))
+	FrameCache cache = null;
+
+	// background prefetching (see TUMBuffer(String, int, int))
+	public static final int DEFAULT_PREFETCH_DEPTH = 16;
+	boolean prefetchFrames = false;
+	FrameRing<FramePack> ring = null;
+	Thread[] decoders = null;
+	AtomicInteger nextToDecode = new AtomicInteger(0);
+	int nextFrame = 0;
+
+	// placeholder for frames that failed to decode (skipped by getNext())
+	private static final FramePack DECODE_FAILED = new FramePack();
+
+	// stage metrics
+	protected static final Metrics.Timer DECODE_TIMER = Metrics.timer("frame.decode");
+	protected static final Metrics.Counter DECODE_COUNTER = Metrics.counter("frames.decoded");
+
 	private TUMBuffer() {
 
 	}
@@ -47,6 +71,31 @@ public class TUMBuffer implements Buffer<FramePack> {
 
 	}
 
+	// useCache: read frames from the sequence's frame cache (see FrameCache for
+	// where it lives), building it on the first run (and whenever rgb.txt or the
+	// preprocessing changes). Cached frames are memory mapped instead of decoded. Without cacheRawFrames only the
+	// processed frames are cached and FramePack.getRawFrame() returns null.
+	public TUMBuffer(String filepath, boolean preloadFrames, boolean useCache, boolean cacheRawFrames) {
+		this(filepath, false);
+		this.preloadFrames = preloadFrames;
+		if (useCache) {
+			this.cache = FrameCache.load(this, this.frameData, cacheRawFrames);
+		}
+
+		if (preloadFrames) {
+			this.loadAllFrames();
+		}
+	}
+
+	// Prefetching mode: decoderThreads background threads decode frames ahead of
+	// the consumer into a ring of prefetchDepth frames, so PNG decoding overlaps
+	// with processing while at most prefetchDepth decoded frames are held.
+	public TUMBuffer(String filepath, int prefetchDepth, int decoderThreads) {
+		this(filepath, false);
+		this.prefetchFrames = true;
+		this.startPrefetching(prefetchDepth, decoderThreads);
+	}
+
 	public void push(FramePack frame) {
 		this.frames.add(frame);
 	}
@@ -54,15 +103,157 @@ public class TUMBuffer implements Buffer<FramePack> {
 	public FramePack getNext() {
 		if (this.preloadFrames) {
 			return this.getPreloadedFrame();
+		} else if (this.prefetchFrames) {
+			return this.getPrefetchedFrame();
 		} else {
 			return this.loadNextFrame();
 		}
 	}
 
+	private FramePack getPrefetchedFrame() {
+		while (this.nextFrame < this.frameData.size()) {
+			FramePack frame = this.ring.take();
+			if (frame == null) {
+				return null;
+			}
+			this.nextFrame++;
+			if (frame != DECODE_FAILED) {
+				return frame;
+			}
+		}
+		return null;
+	}
+
+	private void startPrefetching(int prefetchDepth, int decoderThreads) {
+		this.ring = new FrameRing<FramePack>(prefetchDepth);
+		this.decoders = new Thread[Math.max(decoderThreads, 1)];
+		for (int t = 0; t < this.decoders.length; t++) {
+			this.decoders[t] = new Thread(() -> {
+				int i;
+				while ((i = this.nextToDecode.getAndIncrement()) < this.frameData.size()) {
+					FramePack frame = DECODE_FAILED;
+					try {
+						frame = this.loadFrame(i);
+					} catch (Exception e) {
+						System.out.println("Problem decoding frame " + i + " in TUMBuffer (skipped)");
+						e.printStackTrace();
+					}
+					if (!this.ring.put(i, frame)) {
+						// closed, nobody will take it
+						if (frame != DECODE_FAILED) {
+							frame.release();
+						}
+						return;
+					}
+				}
+			}, "tum-decoder-" + t);
+			this.decoders[t].setDaemon(true);
+			this.decoders[t].start();
+		}
+	}
+
+	// stop the prefetching threads, release the frames still in the ring and
+	// close the frame cache
+	public void close() {
+		if (this.ring != null) {
+			this.ring.drain(frame -> {
+				if (frame != DECODE_FAILED) {
+					frame.release();
+				}
+			});
+			for (Thread decoder : this.decoders) {
+				try {
+					decoder.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		if (this.cache != null) {
+			this.cache.close();
+			this.cache = null;
+		}
+	}
+
+	// decoded frames waiting in the prefetch ring
+	public int getQueueDepth() {
+		return this.ring == null ? 0 : this.ring.getDepth();
+	}
+
+	public int getMaxQueueDepth() {
+		return this.ring == null ? 0 : this.ring.getMaxDepth();
+	}
+
+	// time getNext() spent waiting on the decoders
+	public long getStallNanos() {
+		return this.ring == null ? 0 : this.ring.getConsumerStallNanos();
+	}
+
+	// time the decoders spent waiting for the consumer to free a slot
+	public long getDecoderStallNanos() {
+		return this.ring == null ? 0 : this.ring.getProducerStallNanos();
+	}
+
+	// memory held by frames that have been loaded but not yet handed out
+	// (preloaded frames and frames waiting in the prefetch ring)
+	public long getNativeBytes() {
+		long[] bytes = this.getMemoryUsage();
+		return bytes[0];
+	}
+
+	public long getHeapBytes() {
+		long[] bytes = this.getMemoryUsage();
+		return bytes[1];
+	}
+
+	public long getMappedBytes() {
+		long[] bytes = this.getMemoryUsage();
+		return bytes[2];
+	}
+
+	// {native, heap, mapped}
+	public long[] getMemoryUsage() {
+		long[] bytes = new long[3];
+		for (int i = this.nextPreloaded; i < this.frames.size(); i++) {
+			addMemoryUsage(this.frames.get(i), bytes);
+		}
+		if (this.ring != null) {
+			this.ring.forEachBuffered(frame -> addMemoryUsage(frame, bytes));
+		}
+		return bytes;
+	}
+
+	private static void addMemoryUsage(FramePack frame, long[] bytes) {
+		if (frame == null) {
+			return;
+		}
+		bytes[0] += frame.getNativeBytes();
+		bytes[1] += frame.getHeapBytes();
+		bytes[2] += frame.getMappedBytes();
+	}
+
+	public void printMemoryUsage() {
+		long[] bytes = this.getMemoryUsage();
+		System.out.println("TUMBuffer memory: native " + bytes[0] / (1024 * 1024) + "MB, heap " + bytes[1] / (1024 * 1024)
+				+ "MB, mapped " + bytes[2] / (1024 * 1024) + "MB");
+	}
+
+	public void printPrefetchStats() {
+		if (this.ring == null) {
+			return;
+		}
+		System.out.println("Prefetch: " + this.ring.getTaken() + " frames, depth " + this.getQueueDepth() + "/"
+				+ this.ring.getCapacity() + " (max " + this.getMaxQueueDepth() + "), consumer stalled "
+				+ this.getStallNanos() / 1000000 + "ms, decoders stalled " + this.getDecoderStallNanos() / 1000000
+				+ "ms");
+	}
+
 	private FramePack getPreloadedFrame() {
-		if (this.frames.size() > 0) {
-			this.frameData.remove(0);
-			return this.frames.remove(0);
+		if (this.nextPreloaded < this.frames.size()) {
+			FramePack frame = this.frames.get(this.nextPreloaded);
+			this.frames.set(this.nextPreloaded++, null);
+			return frame;
 		} else {
 			return null;
 		}
@@ -70,16 +261,8 @@ public class TUMBuffer implements Buffer<FramePack> {
 
 	// load a single frame based on the current frame data
 	private FramePack loadNextFrame() {
-		if (this.frameData.size() > 0) {
-			String data = this.frameData.remove(0);
-
-			String splits[] = data.split(" ");
-			long timestamp = (long) (Double.parseDouble(splits[0]) * 1000000);
-			timestamp *= 1000;
-			FramePack frame = this.loadFrame(this.filepath + splits[1]);
-			frame.setTimestamp(timestamp);
-
-			return frame;
+		if (this.nextFrame < this.frameData.size()) {
+			return this.loadFrame(this.nextFrame++);
 
 		} else {
 			return null;
@@ -88,19 +271,9 @@ public class TUMBuffer implements Buffer<FramePack> {
 
 	public void loadFramePaths() {
 		System.out.println("Loading frame paths...");
-		BufferedReader reader;
 		try {
-			reader = new BufferedReader(new FileReader(this.filepath + "rgb.txt"));
-			String line = "";
-			while (line != null && this.frameData.size() < this.frameLimit) {
-				line = line.trim();
-				if (line.length() != 0 && line.charAt(0) != '#') {
-
-					this.frameData.add(line);
-
-				}
-				line = reader.readLine();
-			}
+			this.frameIndex = FrameIndex.load(this.filepath, this.frameLimit);
+			this.frameData = this.frameIndex.getLines();
 		} catch (Exception e) {
 			System.out.println("Problem loading file paths in TUMFrameBuffer::loadFilePaths()");
 			e.printStackTrace();
@@ -108,6 +281,12 @@ public class TUMBuffer implements Buffer<FramePack> {
 		System.out.println("Complete. Number of frames: " + this.frameData.size());
 	}
 
+	// timestamps and paths of the frames in this buffer (also used to associate
+	// ground truth, see GroundTruthLoader)
+	public FrameIndex getFrameIndex() {
+		return this.frameIndex;
+	}
+
 	public void loadAllFrames() {
 
 		System.out.println("Pre-loading frames...");
@@ -118,21 +297,30 @@ public class TUMBuffer implements Buffer<FramePack> {
 				System.out.println(i + " frames loaded...");
 			}
 
-			// get the timestamp
-			String splits[] = this.frameData.get(i).split(" ");
-			long timestamp = (long) (Double.parseDouble(splits[0]) * 1000000);
-			timestamp *= 1000;
+			this.frames.add(this.loadFrame(i));
 
-			FramePack frame = this.loadFrame(this.filepath + splits[1]);
+		}
 
-			frame.setTimestamp(timestamp);
+		System.out.println("Complete. " + this.frames.size() + " frames loaded.");
 
-			this.frames.add(frame);
+	}
 
+	// load frame i of the sequence, from the cache if there is one
+	public FramePack loadFrame(int i) {
+		if (this.cache != null) {
+			return this.cache.getFrame(i);
 		}
+		return this.decodeFrame(i);
+	}
 
-		System.out.println("Complete. " + this.frames.size() + " frames loaded.");
-
+	// decode frame i from its image file
+	public FramePack decodeFrame(int i) {
+		long start = DECODE_TIMER.start();
+		FramePack frame = this.loadFrame(this.filepath + this.frameIndex.getPath(i));
+		frame.setTimestamp(this.frameIndex.getTimestamp(i) * 1000);
+		DECODE_TIMER.stop(start);
+		DECODE_COUNTER.increment();
+		return frame;
 	}
 
 	public FramePack loadFrame(String fullPath) {
@@ -143,16 +331,10 @@ public class TUMBuffer implements Buffer<FramePack> {
 		Imgproc.cvtColor(rawFrame, rawFrame, Imgproc.COLOR_BGR2RGB);
 		Imgproc.cvtColor(rawFrame, processedFrame, Imgproc.COLOR_RGB2GRAY);
 
-		byte[] rawBuffer = new byte[rawFrame.rows() * rawFrame.cols() * 3];
-		byte[] processedBuffer = new byte[processedFrame.rows() * processedFrame.cols()];
-		rawFrame.get(0, 0, rawBuffer);
-		processedFrame.get(0, 0, processedBuffer);
-
+		// byte[] copies are made lazily by FramePack
 		FramePack framePack = new FramePack();
 		framePack.setRawFrame(rawFrame);
 		framePack.setProcessedFrame(processedFrame);
-		framePack.setRawFrameBuffer(rawBuffer);
-		framePack.setProcessedFrameBuffer(processedBuffer);
 
 		return framePack;
 
@@ -0,0 +1,97 @@
+import java.util.Arrays;
+
+// Sorted timestamps (microseconds, as in the TUM files) with binary search
+// lookups. Base class for the rgb.txt and groundtruth.txt indexes, which add
+// their per-entry data as parallel primitive arrays.
+public class TimestampIndex {
+
+	protected long[] timestamps = new long[0];
+	protected int size = 0;
+
+	public int size() {
+		return this.size;
+	}
+
+	public long getTimestamp(int i) {
+		return this.timestamps[i];
+	}
+
+	// last entry with timestamp <= time (-1 if time precedes every entry)
+	public int floor(long time) {
+		int index = Arrays.binarySearch(this.timestamps, 0, this.size, time);
+		if (index >= 0) {
+			// first of any duplicates
+			while (index > 0 && this.timestamps[index - 1] == time) {
+				index--;
+			}
+			return index;
+		}
+		return -index - 2;
+	}
+
+	// entry closest in time (the earlier one on ties, -1 if empty)
+	public int nearest(long time) {
+		if (this.size == 0) {
+			return -1;
+		}
+		int lower = this.floor(time);
+		if (lower < 0) {
+			return 0;
+		}
+		if (lower == this.size - 1) {
+			return lower;
+		}
+		return time - this.timestamps[lower] <= this.timestamps[lower + 1] - time ? lower : lower + 1;
+	}
+
+	protected void ensureCapacity(int capacity) {
+		if (capacity > this.timestamps.length) {
+			this.grow(Math.max(capacity, this.timestamps.length * 2 + 16));
+		}
+	}
+
+	// resize all per-entry arrays (subclasses extend this for their own arrays)
+	protected void grow(int capacity) {
+		this.timestamps = Arrays.copyOf(this.timestamps, capacity);
+	}
+
+	// seconds (as written in the TUM files) to microseconds, rounded the same way
+	// the loaders always have
+	public static long toMicroseconds(double seconds) {
+		return (long) (seconds * 1000000);
+	}
+
+	// parse up to out.length whitespace separated numbers from line, returns the
+	// number parsed
+	public static int parseFields(String line, double[] out) {
+		int count = 0;
+		int length = line.length();
+		int i = 0;
+		while (count < out.length) {
+			while (i < length && Character.isWhitespace(line.charAt(i))) {
+				i++;
+			}
+			if (i >= length) {
+				break;
+			}
+			int start = i;
+			while (i < length && !Character.isWhitespace(line.charAt(i))) {
+				i++;
+			}
+			out[count++] = Double.parseDouble(line.substring(start, i));
+		}
+		return count;
+	}
+
+	// true for blank and '#' comment lines
+	public static boolean isComment(String line) {
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (!Character.isWhitespace(c)) {
+				return c == '#';
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,287 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.video.Video;
+
+// feature tracks for the optical flow front end (see
+// ImageData.calcOpticalFlow). Each track has a stable id and its position in
+// the initial frame, the previous frame and the current frame, in primitive
+// arrays. Tracks that are lost are dropped by compacting the arrays in place.
+//
+// The points go to calcOpticalFlowPyrLK through native buffers allocated for
+// the table's capacity, passed as row range views (OpenCV writes the tracked
+// points, status and error into them without reallocating). Correspondences
+// (initial to current position) are a List view over the table whose
+// Correspondence2D2D objects are pooled: they are valid until the next call
+// to track() or reset(). Anything that keeps them longer (e.g.
+// Sample.correspondences) needs toList().
+public class TrackTable {
+
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	protected int size = 0;
+	protected int nextId = 0;
+
+	// per track (valid up to size)
+	protected int[] ids;
+	protected float[] initialXs;
+	protected float[] initialYs;
+	protected float[] previousXs;
+	protected float[] previousYs;
+	protected float[] currentXs;
+	protected float[] currentYs;
+	protected byte[] status;
+
+	// interleaved x, y transfer buffer
+	protected float[] points;
+
+	// native buffers (capacity rows)
+	protected Mat previousBuffer = new Mat();
+	protected Mat currentBuffer = new Mat();
+	protected Mat statusBuffer = new Mat();
+	protected Mat errorBuffer = new Mat();
+
+	// pooled correspondence views
+	protected Correspondence2D2D[] views = new Correspondence2D2D[0];
+	protected List<Correspondence2D2D> correspondences = new AbstractList<Correspondence2D2D>() {
+		@Override
+		public Correspondence2D2D get(int index) {
+			if (index < 0 || index >= TrackTable.this.size) {
+				throw new IndexOutOfBoundsException("index: " + index + ", size: " + TrackTable.this.size);
+			}
+			return TrackTable.this.getCorrespondence(index);
+		}
+
+		@Override
+		public int size() {
+			return TrackTable.this.size;
+		}
+	};
+
+	public TrackTable() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public TrackTable(int capacity) {
+		capacity = Math.max(capacity, 1);
+		this.ids = new int[capacity];
+		this.initialXs = new float[capacity];
+		this.initialYs = new float[capacity];
+		this.previousXs = new float[capacity];
+		this.previousYs = new float[capacity];
+		this.currentXs = new float[capacity];
+		this.currentYs = new float[capacity];
+		this.status = new byte[capacity];
+		this.points = new float[capacity * 2];
+	}
+
+	// drop all tracks and start one at each point (e.g. from
+	// ImageData.GFTT); ids keep counting up
+	public void reset(MatOfPoint2f initial) {
+		this.size = 0;
+		int n = (int) initial.total();
+		this.ensureCapacity(n);
+		if (n > 0) {
+			initial.get(0, 0, this.points);
+		}
+		for (int i = 0; i < n; i++) {
+			this.add(this.points[i * 2], this.points[i * 2 + 1]);
+		}
+	}
+
+	// start a track at x, y (initial, previous and current position). Returns
+	// its id
+	public int add(float x, float y) {
+		this.ensureCapacity(this.size + 1);
+		int i = this.size++;
+		this.ids[i] = this.nextId++;
+		this.initialXs[i] = x;
+		this.initialYs[i] = y;
+		this.previousXs[i] = x;
+		this.previousYs[i] = y;
+		this.currentXs[i] = x;
+		this.currentYs[i] = y;
+		return this.ids[i];
+	}
+
+	// track the current positions (in prevFrame) into frame with pyramidal
+	// Lucas-Kanade; they become the previous positions. Lost tracks are only
+	// flagged, see compact()
+	public void track(Mat prevFrame, Mat frame, Size winSize, int maxLevel, TermCriteria criteria) {
+		float[] swap = this.previousXs;
+		this.previousXs = this.currentXs;
+		this.currentXs = swap;
+		swap = this.previousYs;
+		this.previousYs = this.currentYs;
+		this.currentYs = swap;
+
+		int n = this.size;
+		if (n == 0) {
+			return;
+		}
+		for (int i = 0; i < n; i++) {
+			this.points[i * 2] = this.previousXs[i];
+			this.points[i * 2 + 1] = this.previousYs[i];
+		}
+
+		// views of the first n rows of the native buffers
+		Mat previousRows = this.previousBuffer.rowRange(0, n);
+		Mat currentRows = this.currentBuffer.rowRange(0, n);
+		Mat statusRows = this.statusBuffer.rowRange(0, n);
+		Mat errorRows = this.errorBuffer.rowRange(0, n);
+		MatOfPoint2f previous = new MatOfPoint2f(previousRows);
+		MatOfPoint2f current = new MatOfPoint2f(currentRows);
+		MatOfByte status = new MatOfByte(statusRows);
+		MatOfFloat error = new MatOfFloat(errorRows);
+		previous.put(0, 0, this.points);
+
+		Video.calcOpticalFlowPyrLK(prevFrame, frame, previous, current, status, error, winSize, maxLevel, criteria);
+
+		current.get(0, 0, this.points);
+		status.get(0, 0, this.status);
+		for (int i = 0; i < n; i++) {
+			this.currentXs[i] = this.points[i * 2];
+			this.currentYs[i] = this.points[i * 2 + 1];
+		}
+		previous.release();
+		current.release();
+		status.release();
+		error.release();
+		previousRows.release();
+		currentRows.release();
+		statusRows.release();
+		errorRows.release();
+	}
+
+	// keep the tracks that were found by the last track() and whose current
+	// position is strictly inside (minX, maxX) x (minY, maxY), in order.
+	// Returns the number kept
+	public int compact(float minX, float minY, float maxX, float maxY) {
+		int kept = 0;
+		for (int i = 0; i < this.size; i++) {
+			float x = this.currentXs[i];
+			float y = this.currentYs[i];
+			if (this.status[i] != 1 || x <= minX || x >= maxX || y <= minY || y >= maxY) {
+				continue;
+			}
+			if (kept != i) {
+				this.ids[kept] = this.ids[i];
+				this.initialXs[kept] = this.initialXs[i];
+				this.initialYs[kept] = this.initialYs[i];
+				this.previousXs[kept] = this.previousXs[i];
+				this.previousYs[kept] = this.previousYs[i];
+				this.currentXs[kept] = x;
+				this.currentYs[kept] = y;
+			}
+			kept++;
+		}
+		this.size = kept;
+		return kept;
+	}
+
+	public void ensureCapacity(int capacity) {
+		if (capacity > this.ids.length) {
+			int newCapacity = Math.max(capacity, this.ids.length * 2);
+			this.ids = Arrays.copyOf(this.ids, newCapacity);
+			this.initialXs = Arrays.copyOf(this.initialXs, newCapacity);
+			this.initialYs = Arrays.copyOf(this.initialYs, newCapacity);
+			this.previousXs = Arrays.copyOf(this.previousXs, newCapacity);
+			this.previousYs = Arrays.copyOf(this.previousYs, newCapacity);
+			this.currentXs = Arrays.copyOf(this.currentXs, newCapacity);
+			this.currentYs = Arrays.copyOf(this.currentYs, newCapacity);
+			this.status = Arrays.copyOf(this.status, newCapacity);
+			this.points = Arrays.copyOf(this.points, newCapacity * 2);
+		}
+		int rows = this.ids.length;
+		if (this.previousBuffer.rows() < rows) {
+			this.previousBuffer.create(rows, 1, CvType.CV_32FC2);
+			this.currentBuffer.create(rows, 1, CvType.CV_32FC2);
+			this.statusBuffer.create(rows, 1, CvType.CV_8UC1);
+			this.errorBuffer.create(rows, 1, CvType.CV_32FC1);
+		}
+	}
+
+	// correspondences from the initial to the current positions, backed by
+	// the table: only valid until the next track() or reset() (see the class
+	// comment)
+	public List<Correspondence2D2D> asList() {
+		return this.correspondences;
+	}
+
+	// a copy of the correspondences that stays valid
+	public List<Correspondence2D2D> toList() {
+		List<Correspondence2D2D> list = new ArrayList<Correspondence2D2D>(this.size);
+		for (int i = 0; i < this.size; i++) {
+			list.add(new Correspondence2D2D(this.initialXs[i], this.initialYs[i], this.currentXs[i],
+					this.currentYs[i]));
+		}
+		return list;
+	}
+
+	// pooled view of track i (updated on every call)
+	public Correspondence2D2D getCorrespondence(int i) {
+		if (this.views.length <= i) {
+			int capacity = Math.max(i + 1, this.views.length * 2);
+			int start = this.views.length;
+			this.views = Arrays.copyOf(this.views, capacity);
+			for (int k = start; k < capacity; k++) {
+				this.views[k] = new Correspondence2D2D();
+			}
+		}
+		Correspondence2D2D c = this.views[i];
+		c.setX0(this.initialXs[i]);
+		c.setY0(this.initialYs[i]);
+		c.setX1(this.currentXs[i]);
+		c.setY1(this.currentYs[i]);
+		return c;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public int getId(int i) {
+		return this.ids[i];
+	}
+
+	public float getInitialX(int i) {
+		return this.initialXs[i];
+	}
+
+	public float getInitialY(int i) {
+		return this.initialYs[i];
+	}
+
+	public float getPreviousX(int i) {
+		return this.previousXs[i];
+	}
+
+	public float getPreviousY(int i) {
+		return this.previousYs[i];
+	}
+
+	public float getCurrentX(int i) {
+		return this.currentXs[i];
+	}
+
+	public float getCurrentY(int i) {
+		return this.currentYs[i];
+	}
+
+	public void release() {
+		this.previousBuffer.release();
+		this.currentBuffer.release();
+		this.statusBuffer.release();
+		this.errorBuffer.release();
+	}
+
+}
@@ -0,0 +1,224 @@
+import java.util.List;
+
+import Jama.Matrix;
+
+// Linear (DLT) triangulation for a fixed pose pair. The projection matrices are
+// computed once in setPoses() and each point is solved in place with a 4x4
+// one-sided Jacobi SVD, so triangulating a batch allocates nothing. Results
+// match ComputerVision's Jama SVD version to rounding. Not thread safe; use
+// one instance per thread.
+public class Triangulator {
+
+	// 3x4 projection matrices, row major
+	public double[] P = new double[12];
+	public double[] Pprime = new double[12];
+
+	// true if the primary pose is the identity, in which case P = [K | 0]
+	public boolean primaryIsIdentity = false;
+
+	// sweep limit for the Jacobi solve (4x4 converges in 4-6)
+	public static final int MAX_SWEEPS = 30;
+	public static final double EPSILON = 1e-15;
+
+	// camera intrinsics, used directly by the identity fast path
+	protected double fx;
+	protected double fy;
+	protected double cx;
+	protected double cy;
+	protected double s;
+
+	// scratch space, column major (A[col * 4 + row])
+	protected double[] A = new double[16];
+	protected double[] V = new double[16];
+
+	public Triangulator() {
+
+	}
+
+	public Triangulator(Matrix secondaryPose, Matrix primaryPose, CameraParams cameraParams) {
+		this.setPoses(secondaryPose, primaryPose, cameraParams);
+	}
+
+	public void setPoses(Matrix secondaryPose, Matrix primaryPose, CameraParams cameraParams) {
+		this.fx = cameraParams.fx;
+		this.fy = cameraParams.fy;
+		this.cx = cameraParams.cx;
+		this.cy = cameraParams.cy;
+		this.s = cameraParams.s;
+		this.primaryIsIdentity = isIdentity(primaryPose);
+		project(primaryPose, this.P);
+		project(secondaryPose, this.Pprime);
+	}
+
+	// P = (K4x4 * pose) rows 0-2, in the same operation order as Jama's times()
+	protected void project(Matrix pose, double[] out) {
+		double[][] K = { { fx, s, cx, 0 }, { 0, fy, cy, 0 }, { 0, 0, 1, 0 }, { 0, 0, 0, 1 } };
+		double[][] T = pose.getArray();
+		for (int r = 0; r < 3; r++) {
+			for (int c = 0; c < 4; c++) {
+				double sum = 0;
+				for (int k = 0; k < 4; k++) {
+					sum += K[r][k] * T[k][c];
+				}
+				out[r * 4 + c] = sum;
+			}
+		}
+	}
+
+	public static boolean isIdentity(Matrix pose) {
+		for (int r = 0; r < 4; r++) {
+			for (int c = 0; c < 4; c++) {
+				if (pose.get(r, c) != (r == c ? 1 : 0)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	// triangulate all correspondences into out as homogeneous points (x, y, z, 1),
+	// 4 doubles per point
+	public void triangulate(List<Correspondence2D2D> correspondences, double[] out) {
+		for (int i = 0; i < correspondences.size(); i++) {
+			Correspondence2D2D c = correspondences.get(i);
+			this.triangulate(c.getX0(), c.getY0(), c.getX1(), c.getY1(), out, i * 4);
+		}
+	}
+
+	public void triangulate(CorrespondenceSet correspondences, double[] out) {
+		for (int i = 0; i < correspondences.size(); i++) {
+			this.triangulate(correspondences.getX0(i), correspondences.getY0(i), correspondences.getX1(i),
+					correspondences.getY1(i), out, i * 4);
+		}
+	}
+
+	public void triangulate(double[] x0, double[] y0, double[] x1, double[] y1, int n, double[] out) {
+		for (int i = 0; i < n; i++) {
+			this.triangulate(x0[i], y0[i], x1[i], y1[i], out, i * 4);
+		}
+	}
+
+	public Matrix triangulate(Correspondence2D2D c) {
+		double[] X = new double[4];
+		this.triangulate(c.getX0(), c.getY0(), c.getX1(), c.getY1(), X, 0);
+		return new Matrix(X, 4);
+	}
+
+	public void triangulate(double x0, double y0, double x1, double y1, double[] out, int offset) {
+
+		double[] A = this.A;
+		double[] P = this.P;
+		double[] Pp = this.Pprime;
+
+		// rows of A for Ax = 0 (stored column major)
+		if (this.primaryIsIdentity) {
+			A[0] = -fx;
+			A[4] = -s;
+			A[8] = x0 - cx;
+			A[12] = 0;
+			A[1] = 0;
+			A[5] = -fy;
+			A[9] = y0 - cy;
+			A[13] = 0;
+		} else {
+			for (int c = 0; c < 4; c++) {
+				A[c * 4] = P[8 + c] * x0 - P[c];
+				A[c * 4 + 1] = P[8 + c] * y0 - P[4 + c];
+			}
+		}
+		for (int c = 0; c < 4; c++) {
+			A[c * 4 + 2] = Pp[8 + c] * x1 - Pp[c];
+			A[c * 4 + 3] = Pp[8 + c] * y1 - Pp[4 + c];
+		}
+
+		int col = this.nullVector();
+		double w = V[col * 4 + 3];
+		out[offset] = V[col * 4] / w;
+		out[offset + 1] = V[col * 4 + 1] / w;
+		out[offset + 2] = V[col * 4 + 2] / w;
+		out[offset + 3] = 1;
+	}
+
+	// orthogonalize the columns of A with Jacobi rotations, accumulating them in
+	// V, and return the column of V for the smallest singular value
+	protected int nullVector() {
+		double[] A = this.A;
+		double[] V = this.V;
+		for (int i = 0; i < 16; i++) {
+			V[i] = i % 5 == 0 ? 1 : 0;
+		}
+
+		for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+			boolean rotated = false;
+			for (int p = 0; p < 3; p++) {
+				for (int q = p + 1; q < 4; q++) {
+					int ip = p * 4;
+					int iq = q * 4;
+					double alpha = 0;
+					double beta = 0;
+					double gamma = 0;
+					for (int k = 0; k < 4; k++) {
+						alpha += A[ip + k] * A[ip + k];
+						beta += A[iq + k] * A[iq + k];
+						gamma += A[ip + k] * A[iq + k];
+					}
+					if (gamma == 0 || Math.abs(gamma) <= EPSILON * Math.sqrt(alpha * beta)) {
+						continue;
+					}
+					rotated = true;
+
+					double zeta = (beta - alpha) / (2 * gamma);
+					double t = (zeta >= 0 ? 1 : -1) / (Math.abs(zeta) + Math.sqrt(1 + zeta * zeta));
+					double c = 1 / Math.sqrt(1 + t * t);
+					double s = c * t;
+					for (int k = 0; k < 4; k++) {
+						double ap = A[ip + k];
+						double aq = A[iq + k];
+						A[ip + k] = c * ap - s * aq;
+						A[iq + k] = s * ap + c * aq;
+						double vp = V[ip + k];
+						double vq = V[iq + k];
+						V[ip + k] = c * vp - s * vq;
+						V[iq + k] = s * vp + c * vq;
+					}
+				}
+			}
+			if (!rotated) {
+				break;
+			}
+		}
+
+		// singular values are the column norms of the rotated A
+		int minCol = 0;
+		double minNorm = Double.MAX_VALUE;
+		for (int c = 0; c < 4; c++) {
+			double norm = 0;
+			for (int k = 0; k < 4; k++) {
+				norm += A[c * 4 + k] * A[c * 4 + k];
+			}
+			if (norm < minNorm) {
+				minNorm = norm;
+				minCol = c;
+			}
+		}
+		return minCol;
+	}
+
+	// project triangulated point i of buffer X (4 per point) with the secondary
+	// projection matrix into out[0..2]
+	public void projectSecondary(double[] X, int offset, double[] out) {
+		projectPoint(this.Pprime, X, offset, out);
+	}
+
+	public void projectPrimary(double[] X, int offset, double[] out) {
+		projectPoint(this.P, X, offset, out);
+	}
+
+	public static void projectPoint(double[] P, double[] X, int offset, double[] out) {
+		for (int r = 0; r < 3; r++) {
+			out[r] = P[r * 4] * X[offset] + P[r * 4 + 1] * X[offset + 1] + P[r * 4 + 2] * X[offset + 2]
+					+ P[r * 4 + 3] * X[offset + 3];
+		}
+	}
+
+}
@@ -155,4 +155,13 @@ public class Utils {
 		return pose;
 	}
 
+	// derive an independent seed from a base seed and a value (splitmix64), e.g.
+	// mixSeed(mixSeed(runSeed, scenario), iteration)
+	public static long mixSeed(long seed, long value) {
+		long z = seed + (value + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
 }
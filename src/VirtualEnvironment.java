@@ -22,6 +22,17 @@ public class VirtualEnvironment {
 
 	}
 
+	// copy with its own cameras and camera params; the world points are shared
+	// (they are never modified after generation)
+	public VirtualEnvironment copy() {
+		VirtualEnvironment copy = new VirtualEnvironment();
+		copy.cameraParams = this.cameraParams.copy();
+		copy.worldPoints = this.worldPoints;
+		copy.primaryCamera = new Pose(this.primaryCamera);
+		copy.secondaryCamera = new Pose(this.secondaryCamera);
+		return copy;
+	}
+
 	public void generatePoints(int seed, int numPoints, double minX, double maxX, double minY, double maxY, double minZ,
 			double maxZ) {
 
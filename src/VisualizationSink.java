@@ -0,0 +1,167 @@
+import java.awt.GraphicsEnvironment;
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import org.knowm.xchart.BitmapEncoder;
+import org.knowm.xchart.BitmapEncoder.BitmapFormat;
+import org.knowm.xchart.SwingWrapper;
+import org.knowm.xchart.XYChart;
+import org.opencv.core.Mat;
+import org.opencv.highgui.HighGui;
+
+// Asynchronous frame display. offer() copies the frame into a single pending
+// slot and returns; a daemon thread takes the latest pending frame, runs the
+// caller's drawing code on it and shows it. A frame that is replaced before
+// the display thread gets to it is dropped, so a slow display never slows the
+// processing loop. The display thread sleeps (parked) until offer() or
+// close() wakes it; close() lets it show the last pending frame and waits for
+// it to finish.
+//
+// In headless mode (no display, -Dheadless=true or setHeadless(true)) offer()
+// does nothing and charts are written to CHART_DIR instead of shown.
+public class VisualizationSink {
+
+	public static final String CHART_DIR = "results/charts/";
+	public static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+	protected static volatile boolean headless = GraphicsEnvironment.isHeadless() || Boolean.getBoolean("headless");
+
+	protected static class Pending {
+		Mat image;
+		Consumer<Mat> renderer;
+	}
+
+	protected String windowName;
+	protected AtomicReference<Pending> pending = new AtomicReference<Pending>();
+	protected Thread thread = null;
+	protected volatile boolean closed = false;
+
+	// stats
+	protected volatile long offered = 0;
+	protected volatile long dropped = 0;
+	protected volatile long rendered = 0;
+
+	public VisualizationSink(String windowName) {
+		this.windowName = windowName;
+	}
+
+	public static boolean isHeadless() {
+		return headless;
+	}
+
+	public static void setHeadless(boolean headless) {
+		VisualizationSink.headless = headless;
+	}
+
+	// show image (after renderer draws on a copy of it, on the display thread).
+	// renderer may be null; it must only use data that stays valid after offer()
+	// returns.
+	public void offer(Mat image, Consumer<Mat> renderer) {
+		if (headless || this.closed) {
+			return;
+		}
+		this.start();
+
+		Pending frame = new Pending();
+		frame.image = image.clone();
+		frame.renderer = renderer;
+		this.offered++;
+
+		Pending stale = this.pending.getAndSet(frame);
+		if (stale != null) {
+			stale.image.release();
+			this.dropped++;
+		}
+		LockSupport.unpark(this.thread);
+	}
+
+	protected synchronized void start() {
+		if (this.thread != null) {
+			return;
+		}
+		this.thread = new Thread(() -> {
+			while (true) {
+				Pending frame = this.pending.getAndSet(null);
+				if (frame == null) {
+					if (this.closed) {
+						break;
+					}
+					// woken by offer() or close() (or spuriously)
+					LockSupport.park(this);
+					continue;
+				}
+				try {
+					if (frame.renderer != null) {
+						frame.renderer.accept(frame.image);
+					}
+					HighGui.imshow(this.windowName, frame.image);
+					HighGui.waitKey(1);
+					this.rendered++;
+				} catch (Exception e) {
+					e.printStackTrace();
+				} finally {
+					frame.image.release();
+				}
+			}
+		}, "visualization-" + this.windowName);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	// stop taking frames, and wait (up to CLOSE_TIMEOUT_MILLIS) for the display
+	// thread to show the pending frame and exit
+	public void close() {
+		this.closed = true;
+		Thread thread;
+		synchronized (this) {
+			thread = this.thread;
+		}
+		if (thread != null) {
+			LockSupport.unpark(thread);
+			try {
+				thread.join(CLOSE_TIMEOUT_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (thread.isAlive()) {
+				Utils.pl("VisualizationSink: display thread still busy after " + CLOSE_TIMEOUT_MILLIS + "ms");
+			}
+		}
+
+		// never shown (no display thread, or it timed out)
+		Pending frame = this.pending.getAndSet(null);
+		if (frame != null) {
+			frame.image.release();
+		}
+	}
+
+	public long getOffered() {
+		return this.offered;
+	}
+
+	public long getDropped() {
+		return this.dropped;
+	}
+
+	public long getRendered() {
+		return this.rendered;
+	}
+
+	// show a chart, or save it as CHART_DIR/<name>.png when headless
+	public static void showChart(XYChart chart, String name) {
+		if (!headless) {
+			new SwingWrapper<XYChart>(chart).displayChart();
+			return;
+		}
+		try {
+			new File(CHART_DIR).mkdirs();
+			BitmapEncoder.saveBitmap(chart, CHART_DIR + name, BitmapFormat.PNG);
+			Utils.pl("chart saved to " + CHART_DIR + name + ".png");
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+}